@@ -1,12 +1,16 @@
 package com.seibel.distanthorizons.common.commands;
 
 import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.seibel.distanthorizons.common.wrappers.worldGeneration.BatchGenerationEnvironment;
 import com.seibel.distanthorizons.core.logging.f3.F3Screen;
 import net.minecraft.commands.CommandSourceStack;
 
 import java.util.ArrayList;
 import java.util.List;
 
+import static com.mojang.brigadier.arguments.BoolArgumentType.bool;
+import static com.mojang.brigadier.arguments.BoolArgumentType.getBool;
+import static net.minecraft.commands.Commands.argument;
 import static net.minecraft.commands.Commands.literal;
 
 public class DebugCommand extends AbstractCommand
@@ -14,12 +18,23 @@ public class DebugCommand extends AbstractCommand
 	@Override
 	public LiteralArgumentBuilder<CommandSourceStack> buildCommand()
 	{
+		// switches between pipelined and single threaded world generation, see BatchGenerationEnvironment
+		LiteralArgumentBuilder<CommandSourceStack> pipelinedWorldGenCommand = literal("pipelinedWorldGen")
+				.executes(c -> this.sendSuccessResponse(c, "Pipelined world gen is [" + BatchGenerationEnvironment.isPipelinedGenerationEnabled() + "]", false))
+				.then(argument("enabled", bool())
+						.executes(c -> {
+							boolean enabled = getBool(c, "enabled");
+							BatchGenerationEnvironment.setPipelinedGenerationEnabled(enabled);
+							return this.sendSuccessResponse(c, "Pipelined world gen set to [" + enabled + "]", true);
+						}));
+		
 		return literal("debug")
 				.executes(c -> {
 					List<String> lines = new ArrayList<>();
 					F3Screen.addStringToDisplay(lines);
 					return this.sendSuccessResponse(c, String.join("\n", lines), false);
-				});
+				})
+				.then(pipelinedWorldGenCommand);
 	}
 	
 }
@@ -0,0 +1,142 @@
+package com.seibel.distanthorizons.common.commands;
+
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.seibel.distanthorizons.common.wrappers.world.ServerLevelWrapper;
+import com.seibel.distanthorizons.common.wrappers.worldGeneration.OfflineLodImporter;
+import com.seibel.distanthorizons.core.api.internal.ServerApi;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.arguments.DimensionArgument;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.chunk.storage.RegionFileStorage;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+import static com.mojang.brigadier.arguments.IntegerArgumentType.getInteger;
+import static com.mojang.brigadier.arguments.IntegerArgumentType.integer;
+import static net.minecraft.commands.Commands.argument;
+import static net.minecraft.commands.Commands.literal;
+
+/**
+ * Builds LODs for every chunk already saved in a dimension,
+ * reading the region files directly instead of going through the world generator.
+ *
+ * @see OfflineLodImporter
+ */
+public class ImportCommand extends AbstractCommand
+{
+	private OfflineLodImporter runningImporter = null;
+	private CompletableFuture<Void> runningImport = null;
+	
+	@Override
+	public LiteralArgumentBuilder<CommandSourceStack> buildCommand()
+	{
+		LiteralArgumentBuilder<CommandSourceStack> statusCommand = literal("status")
+				.executes(this::importStatus);
+		
+		LiteralArgumentBuilder<CommandSourceStack> startCommand = literal("start")
+				.then(argument("dimension", DimensionArgument.dimension())
+						.executes((c) -> this.importStart(c, OfflineLodImporter.DEFAULT_THREAD_COUNT, false))
+						.then(argument("threadCount", integer(1))
+								.executes((c) -> this.importStart(c, getInteger(c, "threadCount"), false))));
+		
+		// only imports chunks that were saved since the last import
+		LiteralArgumentBuilder<CommandSourceStack> refreshCommand = literal("refresh")
+				.then(argument("dimension", DimensionArgument.dimension())
+						.executes((c) -> this.importStart(c, OfflineLodImporter.DEFAULT_THREAD_COUNT, true))
+						.then(argument("threadCount", integer(1))
+								.executes((c) -> this.importStart(c, getInteger(c, "threadCount"), true))));
+		
+		LiteralArgumentBuilder<CommandSourceStack> stopCommand = literal("stop")
+				.executes(this::importStop);
+		
+		return literal("import")
+				.then(statusCommand)
+				.then(startCommand)
+				.then(refreshCommand)
+				.then(stopCommand);
+	}
+	
+	
+	private int importStatus(CommandContext<CommandSourceStack> c)
+	{
+		OfflineLodImporter importer = this.runningImporter;
+		if (importer != null)
+		{
+			return this.sendSuccessResponse(c, importer.getStatusString(), false);
+		}
+		else
+		{
+			return this.sendSuccessResponse(c, "Import is not running", false);
+		}
+	}
+	
+	private synchronized int importStart(CommandContext<CommandSourceStack> c, int threadCount, boolean skipUnchangedChunks) throws CommandSyntaxException
+	{
+		if (this.runningImport != null)
+		{
+			return this.sendFailureResponse(c, "Import is already running");
+		}
+		
+		ServerLevel level = DimensionArgument.getDimension(c, "dimension");
+		
+		#if MC_VER > MC_1_18_2
+		// storage will be null if C2ME is installed
+		RegionFileStorage storage = level.getChunkSource().chunkMap.worker.storage;
+		#else
+		RegionFileStorage storage = null;
+		#endif
+		if (storage == null)
+		{
+			return this.sendFailureResponse(c, "Unable to access this dimension's region files, importing isn't supported with this Minecraft version or mod list.");
+		}
+		
+		ServerLevelWrapper levelWrapper = ServerLevelWrapper.getWrapper(level);
+		OfflineLodImporter importer = new OfflineLodImporter(level, storage, threadCount, skipUnchangedChunks,
+				(chunkWrapper) -> ServerApi.INSTANCE.serverChunkSaveEvent(chunkWrapper, levelWrapper));
+		
+		this.sendSuccessResponse(c, "Starting import. Progress will be in the server console.", true);
+		
+		CompletableFuture<Void> future = importer.start();
+		this.runningImporter = importer;
+		this.runningImport = future;
+		
+		future.whenComplete((result, throwable) -> {
+			synchronized (this)
+			{
+				this.runningImporter = null;
+				this.runningImport = null;
+			}
+			
+			if (throwable instanceof CancellationException)
+			{
+				this.sendSuccessResponse(c, "Import is cancelled", true);
+				return;
+			}
+			else if (throwable != null)
+			{
+				this.sendFailureResponse(c, "Import failed: " + throwable.getMessage() + "\n Check the logs for more details.");
+				return;
+			}
+			
+			this.sendSuccessResponse(c, "Import is complete, " + importer.getStatusString(), true);
+		});
+		
+		return 1;
+	}
+	
+	private int importStop(CommandContext<CommandSourceStack> c)
+	{
+		CompletableFuture<Void> runningImport = this.runningImport;
+		if (runningImport == null)
+		{
+			return this.sendFailureResponse(c, "Import is not running");
+		}
+		
+		runningImport.cancel(true);
+		return 1;
+	}
+
+}
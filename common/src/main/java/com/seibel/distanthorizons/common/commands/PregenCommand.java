@@ -4,6 +4,7 @@ import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.seibel.distanthorizons.common.wrappers.world.ServerLevelWrapper;
+import com.seibel.distanthorizons.common.wrappers.worldGeneration.GenerationEventScheduler;
 import com.seibel.distanthorizons.core.generation.PregenManager;
 import com.seibel.distanthorizons.core.pos.blockPos.DhBlockPos2D;
 import net.minecraft.commands.CommandSourceStack;
@@ -68,6 +69,12 @@ public class PregenCommand extends AbstractCommand
 		ColumnPos origin = ColumnPosArgument.getColumnPos(c, "origin");
 		int chunkRadius = getInteger(c, "chunkRadius");
 		
+		// keeps the scheduler from canceling pregen events when no player is nearby
+		GenerationEventScheduler.PregenArea pregenArea = GenerationEventScheduler.addPregenArea(level,
+				#if MC_VER >= MC_1_19_2 origin.x() #else origin.x #endif >> 4,
+				#if MC_VER >= MC_1_19_2 origin.z() #else origin.z #endif >> 4,
+				chunkRadius);
+		
 		CompletableFuture<Void> future = this.pregenManager.startPregen(
 				ServerLevelWrapper.getWrapper(level),
 				new DhBlockPos2D(#if MC_VER >= MC_1_19_2 origin.x(), origin.z() #else origin.x, origin.z #endif),
@@ -75,6 +82,8 @@ public class PregenCommand extends AbstractCommand
 		);
 		
 		future.whenComplete((result, throwable) -> {
+			GenerationEventScheduler.removePregenArea(pregenArea);
+			
 			if (throwable instanceof CancellationException)
 			{
 				this.sendSuccessResponse(c, "Pregen is cancelled", true);
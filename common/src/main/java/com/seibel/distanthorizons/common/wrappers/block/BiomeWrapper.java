@@ -20,9 +20,14 @@
 package com.seibel.distanthorizons.common.wrappers.block;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -42,6 +47,7 @@ import net.minecraft.core.RegistryAccess;
 import net.minecraft.data.BuiltinRegistries;
 #else
 import net.minecraft.core.Holder;
+import net.minecraft.core.Registry;
 import net.minecraft.core.registries.Registries;
 #endif
 
@@ -67,6 +73,18 @@ public class BiomeWrapper implements IBiomeWrapper
 	
 	public static final ConcurrentHashMap<String, BiomeWrapper> WRAPPER_BY_RESOURCE_LOCATION = new ConcurrentHashMap<>();
 	
+	/**
+	 * Biomes are data driven, so the client and each server have their own registry (and biome IDs),
+	 * each registry gets its own ID lookup table. <br>
+	 * Weak keys so leaving a world doesn't keep its registries loaded.
+	 */
+	private static final Map<net.minecraft.core.RegistryAccess, BiomeIdLookup> ID_LOOKUP_BY_REGISTRY_ACCESS = Collections.synchronizedMap(new WeakHashMap<>());
+	/** the most recently used lookup, so {@link BiomeWrapper#ID_LOOKUP_BY_REGISTRY_ACCESS} doesn't need to be locked for every biome */
+	private static volatile BiomeIdLookup lastIdLookup = null;
+	
+	/** must be defined before EMPTY_WRAPPER so it can be given an ID */
+	private static final WrapperIdTable<BiomeWrapper> WRAPPER_ID_TABLE = new WrapperIdTable<>();
+	
 	public static final String EMPTY_BIOME_STRING = "EMPTY";
 	public static final BiomeWrapper EMPTY_WRAPPER = new BiomeWrapper(null, null);
 	
@@ -95,6 +113,8 @@ public class BiomeWrapper implements IBiomeWrapper
 	/** technically final, but since it requires a method call to generate it can't be marked as such */
 	private String serialString;
 	private final int hashCode;
+	/** compact ID shared by every wrapper with the same serial string, see {@link WrapperIdTable} */
+	private final int wrapperId;
 	
 	
 	
@@ -109,23 +129,43 @@ public class BiomeWrapper implements IBiomeWrapper
 			return EMPTY_WRAPPER;
 		}
 		
-		
-		if (WRAPPER_BY_BIOME.containsKey(biome))
+		// the registry's ID lookup is a single identity hash probe,
+		// which is cheaper than hashing the biome (or holder)
+		BiomeIdLookup idLookup = getIdLookup(levelWrapper);
+		int biomeId = (idLookup != null) ? idLookup.getId(biome) : -1;
+		if (biomeId >= 0)
 		{
-			return WRAPPER_BY_BIOME.get(biome);
+			BiomeWrapper wrapper = idLookup.getWrapper(biomeId, biome);
+			if (wrapper != null)
+			{
+				return wrapper;
+			}
 		}
-		else
+		
+		
+		BiomeWrapper wrapper = WRAPPER_BY_BIOME.get(biome);
+		if (wrapper == null)
 		{
 			BiomeWrapper newWrapper = new BiomeWrapper(biome, levelWrapper);
-			WRAPPER_BY_BIOME.put(biome, newWrapper);
-			return newWrapper;
+			wrapper = WRAPPER_BY_BIOME.putIfAbsent(biome, newWrapper);
+			if (wrapper == null)
+			{
+				wrapper = newWrapper;
+			}
 		}
+		
+		if (biomeId >= 0)
+		{
+			idLookup.setWrapper(biomeId, wrapper);
+		}
+		return wrapper;
 	}
 	private BiomeWrapper(#if MC_VER < MC_1_18_2 Biome #else Holder<Biome> #endif biome, ILevelWrapper levelWrapper)
 	{
 		this.biome = biome;
 		this.serialString = this.serialize(levelWrapper);
 		this.hashCode = Objects.hash(this.serialString);
+		this.wrapperId = WRAPPER_ID_TABLE.getOrCreateId(this.serialString, this);
 		
 		//LOGGER.trace("Created BiomeWrapper ["+this.serialString+"] for ["+biome+"]");
 	}
@@ -136,6 +176,7 @@ public class BiomeWrapper implements IBiomeWrapper
 		this.biome = null;
 		this.serialString = EMPTY_BIOME_STRING;
 		this.hashCode = Objects.hash(this.serialString);
+		this.wrapperId = WRAPPER_ID_TABLE.getOrCreateId(this.serialString, this);
 	}
 	
 	
@@ -172,8 +213,9 @@ public class BiomeWrapper implements IBiomeWrapper
 		}
 		
 		BiomeWrapper that = (BiomeWrapper) obj;
-		// the serialized value is used so we can test the contents instead of the references
-		return Objects.equals(this.getSerialString(), that.getSerialString());
+		// the ID is unique per serialized value, so we can test the contents instead of the references
+		// without having to compare strings
+		return this.wrapperId == that.wrapperId;
 	}
 	
 	@Override
@@ -182,6 +224,16 @@ public class BiomeWrapper implements IBiomeWrapper
 	@Override
 	public String getSerialString() { return this.serialString; }
 	
+	/**
+	 * Can be used instead of the serial string for in memory keys and network messages,
+	 * but isn't stable between sessions so it shouldn't be saved.
+	 * @see BiomeWrapper#fromWrapperId(int)
+	 */
+	public int getWrapperId() { return this.wrapperId; }
+	/** @return null if no wrapper has been given this ID during this session */
+	public static BiomeWrapper fromWrapperId(int wrapperId) { return WRAPPER_ID_TABLE.getWrapper(wrapperId); }
+	public static int getWrapperIdCount() { return WRAPPER_ID_TABLE.size(); }
+	
 	@Override
 	public Object getWrappedMcObject() { return this.biome; }
 	
@@ -220,17 +272,13 @@ public class BiomeWrapper implements IBiomeWrapper
 		// generate the serial string //
 		
 		Level level = (Level)levelWrapper.getWrappedMcObject();
-		net.minecraft.core.RegistryAccess registryAccess = level.registryAccess();
+		Registry<Biome> biomeRegistry = getBiomeRegistry(level.registryAccess());
 		
 		ResourceLocation resourceLocation;
 		#if MC_VER == MC_1_16_5 || MC_VER == MC_1_17_1
-		resourceLocation = registryAccess.registryOrThrow(Registry.BIOME_REGISTRY).getKey(this.biome);
-		#elif MC_VER == MC_1_18_2 || MC_VER == MC_1_19_2
-		resourceLocation = registryAccess.registryOrThrow(Registry.BIOME_REGISTRY).getKey(this.biome.value());
-		#elif MC_VER < MC_1_21_3
-		resourceLocation = registryAccess.registryOrThrow(Registries.BIOME).getKey(this.biome.value());
+		resourceLocation = biomeRegistry.getKey(this.biome);
 		#else
-		resourceLocation = registryAccess.lookupOrThrow(Registries.BIOME).getKey(this.biome.value());
+		resourceLocation = biomeRegistry.getKey(this.biome.value());
 		#endif
 		
 		if (resourceLocation == null)
@@ -368,4 +416,115 @@ public class BiomeWrapper implements IBiomeWrapper
 		}
 	}
 	
+	
+	
+	//================//
+	// helper methods //
+	//================//
+	
+	private static Registry<Biome> getBiomeRegistry(net.minecraft.core.RegistryAccess registryAccess)
+	{
+		#if MC_VER == MC_1_16_5 || MC_VER == MC_1_17_1 || MC_VER == MC_1_18_2 || MC_VER == MC_1_19_2
+		return registryAccess.registryOrThrow(Registry.BIOME_REGISTRY);
+		#elif MC_VER < MC_1_21_3
+		return registryAccess.registryOrThrow(Registries.BIOME);
+		#else
+		return registryAccess.lookupOrThrow(Registries.BIOME);
+		#endif
+	}
+	
+	/** @return null if the level isn't available, in which case only {@link BiomeWrapper#WRAPPER_BY_BIOME} can be used */
+	private static BiomeIdLookup getIdLookup(ILevelWrapper levelWrapper)
+	{
+		if (levelWrapper == null || !(levelWrapper.getWrappedMcObject() instanceof Level))
+		{
+			return null;
+		}
+		
+		net.minecraft.core.RegistryAccess registryAccess = ((Level) levelWrapper.getWrappedMcObject()).registryAccess();
+		BiomeIdLookup idLookup = lastIdLookup;
+		if (idLookup != null && idLookup.registryAccessRef.get() == registryAccess)
+		{
+			return idLookup;
+		}
+		
+		idLookup = ID_LOOKUP_BY_REGISTRY_ACCESS.computeIfAbsent(registryAccess, (access) -> new BiomeIdLookup(access, getBiomeRegistry(access)));
+		lastIdLookup = idLookup;
+		return idLookup;
+	}
+	
+	
+	
+	//================//
+	// helper classes //
+	//================//
+	
+	/** Maps a single registry's biome IDs to their wrappers. */
+	private static class BiomeIdLookup
+	{
+		public final WeakReference<net.minecraft.core.RegistryAccess> registryAccessRef;
+		public final Registry<Biome> registry;
+		
+		/** null entries haven't been looked up yet */
+		private volatile BiomeWrapper[] wrapperById = new BiomeWrapper[0];
+		
+		
+		
+		public BiomeIdLookup(net.minecraft.core.RegistryAccess registryAccess, Registry<Biome> registry)
+		{
+			this.registryAccessRef = new WeakReference<>(registryAccess);
+			this.registry = registry;
+		}
+		
+		
+		
+		/** @return -1 if the biome isn't in this registry */
+		public int getId(#if MC_VER < MC_1_18_2 Biome #else Holder<Biome> #endif biome)
+		{
+			#if MC_VER < MC_1_18_2
+			return this.registry.getId(biome);
+			#else
+			return this.registry.getId(biome.value());
+			#endif
+		}
+		
+		/** @return null if the biome hasn't been wrapped yet */
+		public BiomeWrapper getWrapper(int biomeId, #if MC_VER < MC_1_18_2 Biome #else Holder<Biome> #endif biome)
+		{
+			BiomeWrapper[] wrapperArray = this.wrapperById;
+			if (biomeId < wrapperArray.length)
+			{
+				BiomeWrapper wrapper = wrapperArray[biomeId];
+				// the same biome can be wrapped by different holders, only return the wrapper for this one
+				if (wrapper != null && wrapper.biome == biome)
+				{
+					return wrapper;
+				}
+			}
+			return null;
+		}
+		
+		public void setWrapper(int biomeId, BiomeWrapper wrapper)
+		{
+			BiomeWrapper[] wrapperArray = this.wrapperById;
+			if (biomeId < wrapperArray.length)
+			{
+				// array writes don't need to be synchronized, at worst another thread will look up the same wrapper again
+				wrapperArray[biomeId] = wrapper;
+				return;
+			}
+			
+			synchronized (this)
+			{
+				wrapperArray = this.wrapperById;
+				if (biomeId >= wrapperArray.length)
+				{
+					wrapperArray = Arrays.copyOf(wrapperArray, Math.max(biomeId + 1, this.registry.size()));
+					this.wrapperById = wrapperArray;
+				}
+				wrapperArray[biomeId] = wrapper;
+			}
+		}
+	}
+	
 }
@@ -0,0 +1,242 @@
+/*
+ *    This file is part of the Distant Horizons mod
+ *    licensed under the GNU LGPL v3 License.
+ *
+ *    Copyright (C) 2020 James Seibel
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, version 3.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public License
+ *    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.seibel.distanthorizons.common.wrappers.block;
+
+import com.seibel.distanthorizons.core.util.LodUtil;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.EmptyBlockGetter;
+import net.minecraft.world.level.block.BeaconBeamBlock;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import org.jetbrains.annotations.Nullable;
+
+#if MC_VER < MC_1_19_4
+import net.minecraft.core.Registry;
+#else
+import net.minecraft.core.registries.BuiltInRegistries;
+#endif
+
+/**
+ * Flat table of the block properties DH checks in its hot loops,
+ * indexed by each block state's {@link Block#BLOCK_STATE_REGISTRY} ID. <br>
+ * Each state's properties are packed into a single int, see the BIT constants below. <br><br>
+ *
+ * Some of these properties (IE collision shapes) are fairly expensive to compute,
+ * but there are only a few thousand different block states,
+ * so computing them once per state is much cheaper than once per block. <br><br>
+ *
+ * The table is built the first time it's used and rebuilt if the registry changes size
+ * or {@link BlockStatePropertyTable#invalidate()} is called (IE when a level is loaded,
+ * since some mod loaders remap the registry when joining a server).
+ *
+ * @see BlockStateWrapper
+ */
+public class BlockStatePropertyTable
+{
+	public static final int OPACITY_MASK = 0xFF;
+	public static final int LIGHT_EMISSION_SHIFT = 8;
+	public static final int LIGHT_EMISSION_MASK = 0xF;
+	
+	public static final int AIR_BIT = 1 << 12;
+	public static final int SOLID_BIT = 1 << 13;
+	public static final int LIQUID_BIT = 1 << 14;
+	public static final int BEACON_BIT = 1 << 15;
+	public static final int BEACON_BASE_BIT = 1 << 16;
+	public static final int BEACON_TINT_BIT = 1 << 17;
+	
+	/** used for null states and IDs outside the registry */
+	public static final int AIR_PROPERTIES = AIR_BIT | LodUtil.BLOCK_FULLY_TRANSPARENT;
+	
+	/** null until the table is first used */
+	@Nullable
+	private static volatile int[] propertiesByStateId = null;
+	
+	
+	
+	//=========//
+	// getters //
+	//=========//
+	
+	/** @return the packed properties for the given {@link Block#BLOCK_STATE_REGISTRY} ID */
+	public static int getProperties(int stateId)
+	{
+		int[] table = propertiesByStateId;
+		if (table == null || table.length != Block.BLOCK_STATE_REGISTRY.size())
+		{
+			table = rebuild();
+		}
+		
+		return (stateId >= 0 && stateId < table.length) ? table[stateId] : AIR_PROPERTIES;
+	}
+	
+	public static int getProperties(@Nullable BlockState blockState)
+	{
+		if (blockState == null)
+		{
+			return AIR_PROPERTIES;
+		}
+		
+		int stateId = Block.BLOCK_STATE_REGISTRY.getId(blockState);
+		// unregistered states shouldn't normally happen, but just in case
+		return (stateId >= 0) ? getProperties(stateId) : computeProperties(blockState, getBlockName(blockState));
+	}
+	
+	public static boolean isAir(int properties) { return (properties & AIR_BIT) != 0; }
+	public static boolean isSolid(int properties) { return (properties & SOLID_BIT) != 0; }
+	public static boolean isLiquid(int properties) { return (properties & LIQUID_BIT) != 0; }
+	public static boolean isBeaconBlock(int properties) { return (properties & BEACON_BIT) != 0; }
+	public static boolean isBeaconBaseBlock(int properties) { return (properties & BEACON_BASE_BIT) != 0; }
+	public static boolean isBeaconTintBlock(int properties) { return (properties & BEACON_TINT_BIT) != 0; }
+	public static int getOpacity(int properties) { return properties & OPACITY_MASK; }
+	public static int getLightEmission(int properties) { return (properties >>> LIGHT_EMISSION_SHIFT) & LIGHT_EMISSION_MASK; }
+	
+	
+	
+	//==========//
+	// building //
+	//==========//
+	
+	/** The table will be rebuilt the next time it's used. */
+	public static void invalidate() { propertiesByStateId = null; }
+	
+	private static synchronized int[] rebuild()
+	{
+		// another thread may have already rebuilt the table
+		int[] table = propertiesByStateId;
+		if (table != null && table.length == Block.BLOCK_STATE_REGISTRY.size())
+		{
+			return table;
+		}
+		
+		table = new int[Block.BLOCK_STATE_REGISTRY.size()];
+		for (int i = 0; i < table.length; i++)
+		{
+			BlockState blockState = Block.BLOCK_STATE_REGISTRY.byId(i);
+			table[i] = (blockState != null) ? computeProperties(blockState, getBlockName(blockState)) : AIR_PROPERTIES;
+		}
+		
+		propertiesByStateId = table;
+		return table;
+	}
+	
+	private static String getBlockName(BlockState blockState)
+	{
+		#if MC_VER < MC_1_19_4
+		return Registry.BLOCK.getKey(blockState.getBlock()).toString();
+		#else
+		return BuiltInRegistries.BLOCK.getKey(blockState.getBlock()).toString();
+		#endif
+	}
+	
+	/**
+	 * @param blockName the block's resource location or serial string,
+	 *                  only used to check for beacon blocks.
+	 */
+	public static int computeProperties(@Nullable BlockState blockState, String blockName)
+	{
+		if (blockState == null || blockState.isAir())
+		{
+			return AIR_PROPERTIES;
+		}
+		
+		
+		int properties = 0;
+		
+		#if MC_VER < MC_1_20_1
+		boolean isSolid = blockState.getMaterial().isSolid();
+		boolean isLiquid = blockState.getMaterial().isLiquid() || !blockState.getFluidState().isEmpty();
+		#else
+		boolean isSolid = !blockState.getCollisionShape(EmptyBlockGetter.INSTANCE, BlockPos.ZERO).isEmpty();
+		boolean isLiquid = !blockState.getFluidState().isEmpty();
+		#endif
+		if (isSolid)
+		{
+			properties |= SOLID_BIT;
+		}
+		if (isLiquid)
+		{
+			properties |= LIQUID_BIT;
+		}
+		
+		properties |= computeOpacity(blockState, isLiquid) & OPACITY_MASK;
+		properties |= (blockState.getLightEmission() & LIGHT_EMISSION_MASK) << LIGHT_EMISSION_SHIFT;
+		
+		
+		// beacon blocks
+		String lowercaseName = blockName.toLowerCase();
+		for (int i = 0; i < LodUtil.BEACON_BASE_BLOCK_NAME_LIST.size(); i++)
+		{
+			if (lowercaseName.contains(LodUtil.BEACON_BASE_BLOCK_NAME_LIST.get(i)))
+			{
+				properties |= BEACON_BASE_BIT;
+				break;
+			}
+		}
+		
+		boolean isBeaconBlock = lowercaseName.contains("minecraft:beacon");
+		if (isBeaconBlock)
+		{
+			properties |= BEACON_BIT;
+		}
+		// beacon blocks also show up here, but since they block the beacon beam we don't want their color
+		else if (blockState.getBlock() instanceof BeaconBeamBlock)
+		{
+			properties |= BEACON_TINT_BIT;
+		}
+		
+		return properties;
+	}
+	
+	private static int computeOpacity(BlockState blockState, boolean isLiquid)
+	{
+		boolean canOcclude = blockState.canOcclude();
+		
+		#if MC_VER < MC_1_21_3
+		boolean propagatesSkyLightDown = blockState.propagatesSkylightDown(EmptyBlockGetter.INSTANCE, BlockPos.ZERO);
+		#else
+		boolean propagatesSkyLightDown = blockState.propagatesSkylightDown();
+		#endif
+		
+		
+		// this method isn't perfect, but works well enough for our use case
+		if (isLiquid && !canOcclude)
+		{
+			// probably not a waterlogged block (which should block light entirely)
+			
+			// +1 to indicate that the block is translucent (in between transparent and opaque)
+			return LodUtil.BLOCK_FULLY_TRANSPARENT + 1;
+		}
+		else if (propagatesSkyLightDown && !canOcclude)
+		{
+			// probably glass or some other fully transparent block
+			
+			// !canOcclude is required to ignore stairs and slabs since
+			// propagateSkyLightDown is true for them, but they're solid and don't actually let light through
+			
+			return LodUtil.BLOCK_FULLY_TRANSPARENT;
+		}
+		else
+		{
+			// default for all other blocks
+			return LodUtil.BLOCK_FULLY_OPAQUE;
+		}
+	}
+
+}
@@ -76,6 +76,16 @@ public class BlockStateWrapper implements IBlockStateWrapper
 	
     public static final ConcurrentHashMap<BlockState, BlockStateWrapper> WRAPPER_BY_BLOCK_STATE = new ConcurrentHashMap<>();
     public static final ConcurrentHashMap<String, BlockStateWrapper> WRAPPER_BY_RESOURCE_LOCATION = new ConcurrentHashMap<>();
+	/**
+	 * Indexed by each block state's {@link Block#BLOCK_STATE_REGISTRY} ID,
+	 * allows looking up most wrappers with a single array read instead of going through {@link BlockStateWrapper#WRAPPER_BY_BLOCK_STATE}. <br>
+	 * Null entries haven't been looked up yet.
+	 * Replaced with a larger copy if a block state's ID is outside the array (IE if the registry grows).
+	 */
+	private static volatile BlockStateWrapper[] wrapperByStateId = new BlockStateWrapper[0];
+	private static final Object WRAPPER_BY_STATE_ID_LOCK = new Object();
+	/** must be defined before AIR so it can be given an ID */
+	private static final WrapperIdTable<BlockStateWrapper> WRAPPER_ID_TABLE = new WrapperIdTable<>();
 	
 	public static final String AIR_STRING = "AIR";
 	public static final BlockStateWrapper AIR = new BlockStateWrapper(null, null);
@@ -97,16 +107,16 @@ public class BlockStateWrapper implements IBlockStateWrapper
 	/** technically final, but since it requires a method call to generate it can't be marked as such */
 	private String serialString;
 	private final int hashCode;
+	/** compact ID shared by every wrapper with the same serial string, see {@link WrapperIdTable} */
+	private final int wrapperId;
 	/** 
-	 * Cached opacity value, -1 if not populated. <br>
-	 * Should be between {@link LodUtil#BLOCK_FULLY_OPAQUE} and {@link LodUtil#BLOCK_FULLY_OPAQUE}
+	 * Solid, liquid, opacity and light emission values packed by {@link BlockStatePropertyTable}. <br>
+	 * Computed once since some of them (IE the collision shape) are expensive to calculate.
 	 */
-	private int opacity = -1;
+	private final int properties;
 	/** used by the Iris shader mod to determine how each LOD should be rendered */
 	private byte blockMaterialId = 0;
 	
-	private final boolean isBeaconBlock; 
-	private final boolean isBeaconBaseBlock;
 	/** null if this block can't tint beacons */
 	private final Color beaconTintColor; 
 	private final Color mapColor;
@@ -124,16 +134,78 @@ public class BlockStateWrapper implements IBlockStateWrapper
 			return AIR;
 		}
 		
-		
-		if (WRAPPER_BY_BLOCK_STATE.containsKey(blockState))
+		// the registry's ID lookup is a single identity hash probe
+		int stateId = Block.BLOCK_STATE_REGISTRY.getId(blockState);
+		BlockStateWrapper[] wrapperArray = wrapperByStateId;
+		if (stateId >= 0 && stateId < wrapperArray.length)
 		{
-			return WRAPPER_BY_BLOCK_STATE.get(blockState);
+			BlockStateWrapper wrapper = wrapperArray[stateId];
+			// IDs can be remapped when the registry is synced with a server
+			if (wrapper != null && wrapper.blockState == blockState)
+			{
+				return wrapper;
+			}
 		}
-		else
+		
+		
+		BlockStateWrapper wrapper = WRAPPER_BY_BLOCK_STATE.get(blockState);
+		if (wrapper == null)
 		{
 			BlockStateWrapper newWrapper = new BlockStateWrapper(blockState, levelWrapper);
-			WRAPPER_BY_BLOCK_STATE.put(blockState, newWrapper);
-			return newWrapper;
+			wrapper = WRAPPER_BY_BLOCK_STATE.putIfAbsent(blockState, newWrapper);
+			if (wrapper == null)
+			{
+				wrapper = newWrapper;
+			}
+		}
+		
+		if (stateId >= 0)
+		{
+			setWrapperForStateId(stateId, wrapper);
+		}
+		return wrapper;
+	}
+	
+	/**
+	 * Equivalent to {@link BlockStateWrapper#fromBlockState(BlockState, ILevelWrapper)}
+	 * for callers that already have the state's {@link Block#BLOCK_STATE_REGISTRY} ID. 
+	 */
+	public static BlockStateWrapper fromBlockStateId(int stateId, ILevelWrapper levelWrapper)
+	{
+		BlockState blockState = Block.BLOCK_STATE_REGISTRY.byId(stateId);
+		BlockStateWrapper[] wrapperArray = wrapperByStateId;
+		if (stateId >= 0 && stateId < wrapperArray.length)
+		{
+			BlockStateWrapper wrapper = wrapperArray[stateId];
+			if (wrapper != null && wrapper.blockState == blockState)
+			{
+				return wrapper;
+			}
+		}
+		
+		return fromBlockState(blockState, levelWrapper);
+	}
+	
+	private static void setWrapperForStateId(int stateId, BlockStateWrapper wrapper)
+	{
+		BlockStateWrapper[] wrapperArray = wrapperByStateId;
+		if (stateId < wrapperArray.length)
+		{
+			// array writes don't need to be synchronized, at worst another thread will create the same wrapper again
+			wrapperArray[stateId] = wrapper;
+			return;
+		}
+		
+		synchronized (WRAPPER_BY_STATE_ID_LOCK)
+		{
+			wrapperArray = wrapperByStateId;
+			if (stateId >= wrapperArray.length)
+			{
+				int newLength = Math.max(stateId + 1, Block.BLOCK_STATE_REGISTRY.size());
+				wrapperArray = Arrays.copyOf(wrapperArray, newLength);
+				wrapperByStateId = wrapperArray;
+			}
+			wrapperArray[stateId] = wrapper;
 		}
 	}
 	
@@ -162,41 +234,23 @@ public class BlockStateWrapper implements IBlockStateWrapper
 		this.blockState = blockState;
 		this.serialString = this.serialize(levelWrapper);
 		this.hashCode = Objects.hash(this.serialString);
+		this.properties = BlockStatePropertyTable.computeProperties(blockState, this.serialString);
 		this.blockMaterialId = this.calculateEDhApiBlockMaterialId().index;
 		
-		// beacon blocks
-		String lowercaseSerial = this.serialString.toLowerCase();
-		boolean isBeaconBaseBlock = false;
-		for (int i = 0; i < LodUtil.BEACON_BASE_BLOCK_NAME_LIST.size(); i++)
-		{
-			String baseBlockName = LodUtil.BEACON_BASE_BLOCK_NAME_LIST.get(i);
-			if (lowercaseSerial.contains(baseBlockName))
-			{
-				isBeaconBaseBlock = true;
-				break;
-			}
-		}
-		this.isBeaconBaseBlock = isBeaconBaseBlock;
-		this.isBeaconBlock = lowercaseSerial.contains("minecraft:beacon");
-		
 		// beacon tint color
+		// the beacon flags are handled by BlockStatePropertyTable, only the color needs to be stored
 		Color beaconTintColor = null;
-		if (this.blockState != null
-			// beacon blocks also show up here, but since they block the beacon beam we don't want their color		
-			&& !this.isBeaconBlock)
-		{
-			Block block = this.blockState.getBlock();
-			if (block instanceof BeaconBeamBlock)
-			{
-				int colorInt;
-				#if MC_VER <= MC_1_19_4
-				colorInt = ((BeaconBeamBlock) block).getColor().getMaterialColor().col;
-				#else 
-				colorInt = ((BeaconBeamBlock) block).getColor().getMapColor().col;
-				#endif
-				
-				beaconTintColor = ColorUtil.toColorObjRGB(colorInt);
-			}
+		if (BlockStatePropertyTable.isBeaconTintBlock(this.properties))
+		{
+			BeaconBeamBlock block = (BeaconBeamBlock) this.blockState.getBlock();
+			int colorInt;
+			#if MC_VER <= MC_1_19_4
+			colorInt = block.getColor().getMaterialColor().col;
+			#else 
+			colorInt = block.getColor().getMapColor().col;
+			#endif
+			
+			beaconTintColor = ColorUtil.toColorObjRGB(colorInt);
 		}
 		this.beaconTintColor = beaconTintColor;
 		
@@ -216,6 +270,9 @@ public class BlockStateWrapper implements IBlockStateWrapper
 			this.mapColor = new Color(0,0,0,0);
 		}
 		
+		// done last since this may make the wrapper visible to other threads
+		this.wrapperId = WRAPPER_ID_TABLE.getOrCreateId(this.serialString, this);
+		
 		//LOGGER.trace("Created BlockStateWrapper ["+this.serialString+"] for ["+blockState+"] with material ID ["+this.EDhApiBlockMaterialId+"]");
 	}
 	
@@ -344,70 +401,25 @@ public class BlockStateWrapper implements IBlockStateWrapper
 	//=================//
 	
 	@Override
-	public int getOpacity()
-	{
-		// use the cached opacity value if possible
-		if (this.opacity != -1)
-		{
-			return this.opacity;
-		}
-		
-		
-		// get block properties (default to the values used by air)
-		boolean canOcclude = false;
-		boolean propagatesSkyLightDown = true;
-		if (this.blockState != null)
-		{
-			canOcclude = this.blockState.canOcclude();
-			
-			#if MC_VER < MC_1_21_3
-			propagatesSkyLightDown = this.blockState.propagatesSkylightDown(EmptyBlockGetter.INSTANCE, BlockPos.ZERO);
-			#else
-			propagatesSkyLightDown = this.blockState.propagatesSkylightDown();
-			#endif
-		}
-		
-		
-		
-		// this method isn't perfect, but works well enough for our use case
-		int opacity;
-		if (this.isAir())
-		{
-			opacity = LodUtil.BLOCK_FULLY_TRANSPARENT;
-		}
-		else if (this.isLiquid() && !canOcclude)
-		{
-			// probably not a waterlogged block (which should block light entirely)
-			
-			// +1 to indicate that the block is translucent (in between transparent and opaque) 
-			opacity = LodUtil.BLOCK_FULLY_TRANSPARENT + 1;
-		}
-		else if (propagatesSkyLightDown && !canOcclude)
-		{
-			// probably glass or some other fully transparent block
-			
-			// !canOcclude is required to ignore stairs and slabs since
-			// propagateSkyLightDown is true for them, but they're solid and don't actually let light through
-			
-			opacity = LodUtil.BLOCK_FULLY_TRANSPARENT;
-		}
-		else
-		{
-			// default for all other blocks
-			opacity = LodUtil.BLOCK_FULLY_OPAQUE;
-		}
-		
-		
-		this.opacity = opacity;
-		return this.opacity;
-	}
+	public int getOpacity() { return BlockStatePropertyTable.getOpacity(this.properties); }
 	
 	@Override
-	public int getLightEmission() { return (this.blockState != null) ? this.blockState.getLightEmission() : 0; }
+	public int getLightEmission() { return BlockStatePropertyTable.getLightEmission(this.properties); }
 	
 	@Override
 	public String getSerialString() { return this.serialString; }
 	
+	/**
+	 * Can be used instead of the serial string for in memory keys and network messages,
+	 * but isn't stable between sessions so it shouldn't be saved.
+	 * @see BlockStateWrapper#fromWrapperId(int)
+	 */
+	public int getWrapperId() { return this.wrapperId; }
+	/** @return null if no wrapper has been given this ID during this session */
+	@Nullable
+	public static BlockStateWrapper fromWrapperId(int wrapperId) { return WRAPPER_ID_TABLE.getWrapper(wrapperId); }
+	public static int getWrapperIdCount() { return WRAPPER_ID_TABLE.size(); }
+	
 	@Override
 	public boolean equals(Object obj)
 	{
@@ -422,8 +434,9 @@ public class BlockStateWrapper implements IBlockStateWrapper
 		}
 		
 		BlockStateWrapper that = (BlockStateWrapper) obj;
-		// the serialized value is used so we can test the contents instead of the references
-		return Objects.equals(this.getSerialString(), that.getSerialString());
+		// the ID is unique per serialized value, so we can test the contents instead of the references
+		// without having to compare strings
+		return this.wrapperId == that.wrapperId;
 	}
 	
 	@Override
@@ -438,41 +451,17 @@ public class BlockStateWrapper implements IBlockStateWrapper
 	public boolean isAir(BlockState blockState) { return blockState == null || blockState.isAir(); }
 	
 	@Override
-	public boolean isSolid()
-	{
-		if (this.isAir())
-		{
-			return false;
-		}
-		
-        #if MC_VER < MC_1_20_1
-		return this.blockState.getMaterial().isSolid();
-        #else
-		return !this.blockState.getCollisionShape(EmptyBlockGetter.INSTANCE, BlockPos.ZERO).isEmpty();
-        #endif
-	}
+	public boolean isSolid() { return BlockStatePropertyTable.isSolid(this.properties); }
 	
 	@Override
-	public boolean isLiquid()
-	{
-		if (this.isAir())
-		{
-			return false;
-		}
-		
-        #if MC_VER < MC_1_20_1
-		return this.blockState.getMaterial().isLiquid() || !this.blockState.getFluidState().isEmpty();
-        #else
-		return !this.blockState.getFluidState().isEmpty();
-        #endif
-	}
+	public boolean isLiquid() { return BlockStatePropertyTable.isLiquid(this.properties); }
 	
 	@Override
-	public boolean isBeaconBlock() { return this.isBeaconBlock; }
+	public boolean isBeaconBlock() { return BlockStatePropertyTable.isBeaconBlock(this.properties); }
 	@Override
-	public boolean isBeaconBaseBlock() { return this.isBeaconBaseBlock; }
+	public boolean isBeaconBaseBlock() { return BlockStatePropertyTable.isBeaconBaseBlock(this.properties); }
 	@Override
-	public boolean isBeaconTintBlock() { return this.beaconTintColor != null; }
+	public boolean isBeaconTintBlock() { return BlockStatePropertyTable.isBeaconTintBlock(this.properties); }
 	
 	@Override
 	public Color getMapColor() { return this.mapColor; }
@@ -41,9 +41,9 @@ import java.util.Random;
 import net.minecraft.world.level.block.state.BlockState;
 import org.apache.logging.log4j.Logger;
 
-import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This stores and calculates the colors
@@ -56,19 +56,9 @@ public class ClientBlockStateColorCache
 {
 	private static final Logger LOGGER = DhLoggerBuilder.getLogger();
 	
-	private static final HashSet<BlockState> BLOCK_STATES_THAT_NEED_LEVEL = new HashSet<>();
-	private static final HashSet<BlockState> BROKEN_BLOCK_STATES = new HashSet<>();
-	
-	/** 
-	 * Methods using MC's "RandomSource" object aren't thread safe <br>
-	 * so we need to put locks around that logic. <br>
-	 * specifically:
-	 * <code>
-	 * getBlockModel(this.blockState).getQuads(this.blockState, direction, RANDOM)
-	 * </code>
-	 */
-	private static final ReentrantLock RESOLVE_LOCK = new ReentrantLock();
-	
+	/** concurrent since these are read and written by every LOD builder thread */
+	private static final Set<BlockState> BLOCK_STATES_THAT_NEED_LEVEL = ConcurrentHashMap.newKeySet();
+	private static final Set<BlockState> BROKEN_BLOCK_STATES = ConcurrentHashMap.newKeySet();
 	
 	/** This is the order each direction on a block is processed when attempting to get the texture/color */
 	private static final Direction[] COLOR_RESOLUTION_DIRECTION_ORDER = { Direction.UP, Direction.NORTH, Direction.EAST, Direction.WEST, Direction.SOUTH, Direction.DOWN };
@@ -77,11 +67,16 @@ public class ClientBlockStateColorCache
 	
 	
 	
+	/**
+	 * MC's random objects aren't thread safe, so each thread gets its own. <br>
+	 * This allows different block states to be resolved in parallel
+	 * instead of every LOD builder thread waiting on a shared lock. <br>
+	 * Use {@link ClientBlockStateColorCache#getSeededRandom()} to get it.
+	 */
 	#if MC_VER < MC_1_19_2
-	private static final Random RANDOM = new Random(0);
+	private static final ThreadLocal<Random> RANDOM_REF = ThreadLocal.withInitial(() -> new Random(0));
 	#else
-	/** Note: this object isn't thread safe and must be put in a lock */
-	private static final RandomSource RANDOM = RandomSource.create();
+	private static final ThreadLocal<RandomSource> RANDOM_REF = ThreadLocal.withInitial(() -> RandomSource.create(0));
 	#endif
 	
 	private final IClientLevelWrapper levelWrapper;
@@ -185,74 +180,85 @@ public class ClientBlockStateColorCache
 			return;
 		}
 		
-		try
+		if (this.blockState.getFluidState().isEmpty())
 		{
-			// getQuads() isn't thread safe so we need to put this logic in a lock
-			RESOLVE_LOCK.lock();
-			
-			if (this.blockState.getFluidState().isEmpty())
+			// look for the first non-empty direction
+			List<BakedQuad> quads = null;
+			for (Direction direction : COLOR_RESOLUTION_DIRECTION_ORDER)
 			{
-				// look for the first non-empty direction
-				List<BakedQuad> quads = null;
-				for (Direction direction : COLOR_RESOLUTION_DIRECTION_ORDER)
-				{
-					quads = Minecraft.getInstance().getModelManager().getBlockModelShaper().
-							getBlockModel(this.blockState).getQuads(this.blockState, direction, RANDOM);
-					
-					if (quads != null && !quads.isEmpty()
-						&& !(
-							this.blockState.getBlock() instanceof RotatedPillarBlock
-							&& direction == Direction.UP
-							)
-						)
-					{
-						break;
-					}
-				}
+				quads = Minecraft.getInstance().getModelManager().getBlockModelShaper().
+						getBlockModel(this.blockState).getQuads(this.blockState, direction, getSeededRandom());
 				
-				if (quads == null || quads.isEmpty())
+				if (quads != null && !quads.isEmpty()
+					&& !(
+						this.blockState.getBlock() instanceof RotatedPillarBlock
+						&& direction == Direction.UP
+						)
+					)
 				{
-					quads = Minecraft.getInstance().getModelManager().getBlockModelShaper().
-							getBlockModel(this.blockState).getQuads(this.blockState, null, RANDOM);
+					break;
 				}
-				
-				if (quads != null && !quads.isEmpty())
-				{
-					this.needPostTinting = quads.get(0).isTinted();
-					this.needShade = quads.get(0).isShade();
-					this.tintIndex = quads.get(0).getTintIndex();
-					this.baseColor = calculateColorFromTexture(
+			}
+			
+			if (quads == null || quads.isEmpty())
+			{
+				quads = Minecraft.getInstance().getModelManager().getBlockModelShaper().
+						getBlockModel(this.blockState).getQuads(this.blockState, null, getSeededRandom());
+			}
+			
+			if (quads != null && !quads.isEmpty())
+			{
+				this.needPostTinting = quads.get(0).isTinted();
+				this.needShade = quads.get(0).isShade();
+				this.tintIndex = quads.get(0).getTintIndex();
+				this.baseColor = calculateColorFromTexture(
 	                        #if MC_VER < MC_1_17_1 quads.get(0).sprite,
-							#else quads.get(0).getSprite(), #endif
-							ColorMode.getColorMode(this.blockState.getBlock()));
-				}
-				else
-				{
-					// Backup method.
-					this.needPostTinting = false;
-					this.needShade = false;
-					this.tintIndex = 0;
-					this.baseColor = calculateColorFromTexture(Minecraft.getInstance().getModelManager().getBlockModelShaper().getParticleIcon(this.blockState),
-							ColorMode.getColorMode(this.blockState.getBlock()));
-				}
+						#else quads.get(0).getSprite(), #endif
+						ColorMode.getColorMode(this.blockState.getBlock()));
 			}
 			else
 			{
-				// Liquid Block
-				this.needPostTinting = true;
+				// Backup method.
+				this.needPostTinting = false;
 				this.needShade = false;
 				this.tintIndex = 0;
 				this.baseColor = calculateColorFromTexture(Minecraft.getInstance().getModelManager().getBlockModelShaper().getParticleIcon(this.blockState),
 						ColorMode.getColorMode(this.blockState.getBlock()));
 			}
-			
-			this.isColorResolved = true;
 		}
-		finally
+		else
 		{
-			RESOLVE_LOCK.unlock();
+			// Liquid Block
+			this.needPostTinting = true;
+			this.needShade = false;
+			this.tintIndex = 0;
+			this.baseColor = calculateColorFromTexture(Minecraft.getInstance().getModelManager().getBlockModelShaper().getParticleIcon(this.blockState),
+					ColorMode.getColorMode(this.blockState.getBlock()));
 		}
+		
+		this.isColorResolved = true;
+	}
+	
+	/**
+	 * Reseeded before each use so the model variant chosen (IE for blocks with random rotations)
+	 * is the same no matter which thread resolves the color or what it resolved before.
+	 */
+	#if MC_VER < MC_1_19_2
+	private static Random getSeededRandom()
+	{
+		Random random = RANDOM_REF.get();
+		random.setSeed(0);
+		return random;
 	}
+	#else
+	private static RandomSource getSeededRandom()
+	{
+		RandomSource random = RANDOM_REF.get();
+		random.setSeed(0);
+		return random;
+	}
+	#endif
+	
 	//TODO: Perhaps make this not just use the first frame?
 	private static int calculateColorFromTexture(TextureAtlasSprite texture, ColorMode colorMode)
 	{
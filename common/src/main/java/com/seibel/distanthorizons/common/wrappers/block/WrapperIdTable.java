@@ -0,0 +1,110 @@
+/*
+ *    This file is part of the Distant Horizons mod
+ *    licensed under the GNU LGPL v3 License.
+ *
+ *    Copyright (C) 2020 James Seibel
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, version 3.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public License
+ *    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.seibel.distanthorizons.common.wrappers.block;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns each distinct serial string a compact integer ID,
+ * so wrappers can be compared, used as keys and sent around as ints instead of strings. <br>
+ * Wrappers with the same serial string will always share an ID. <br><br>
+ *
+ * IDs are assigned in the order wrappers are created and are only valid for the current session,
+ * they should never be written to disk. Persisted data should keep using the serial strings.
+ *
+ * @param <T> the wrapper type
+ *
+ * @see BlockStateWrapper
+ * @see BiomeWrapper
+ */
+public class WrapperIdTable<T>
+{
+	private static final int INITIAL_CAPACITY = 256;
+	
+	private final ConcurrentHashMap<String, Integer> idBySerialString = new ConcurrentHashMap<>();
+	/** the first wrapper created for each ID */
+	private volatile Object[] wrapperById = new Object[INITIAL_CAPACITY];
+	/** also the number of IDs that have been assigned */
+	private volatile int nextId = 0;
+	
+	
+	
+	//=========//
+	// methods //
+	//=========//
+	
+	/**
+	 * Should only be called once the wrapper is fully constructed,
+	 * since it may be returned by {@link WrapperIdTable#getWrapper(int)} on other threads.
+	 *
+	 * @return the ID already used by this serial string, or a new ID if this is the first wrapper with it
+	 */
+	public int getOrCreateId(String serialString, T wrapper)
+	{
+		Integer id = this.idBySerialString.get(serialString);
+		if (id != null)
+		{
+			return id;
+		}
+		
+		synchronized (this)
+		{
+			id = this.idBySerialString.get(serialString);
+			if (id != null)
+			{
+				return id;
+			}
+			
+			int newId = this.nextId;
+			Object[] wrapperArray = this.wrapperById;
+			if (newId >= wrapperArray.length)
+			{
+				wrapperArray = Arrays.copyOf(wrapperArray, wrapperArray.length * 2);
+			}
+			wrapperArray[newId] = wrapper;
+			
+			// publish the array before the ID so readers can't see an ID without its wrapper
+			this.wrapperById = wrapperArray;
+			this.nextId = newId + 1;
+			this.idBySerialString.put(serialString, newId);
+			return newId;
+		}
+	}
+	
+	/** @return null if no wrapper has been given this ID */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public T getWrapper(int id)
+	{
+		if (id < 0 || id >= this.nextId)
+		{
+			return null;
+		}
+		
+		return (T) this.wrapperById[id];
+	}
+	
+	/** @return the number of IDs that have been assigned */
+	public int size() { return this.nextId; }
+
+}
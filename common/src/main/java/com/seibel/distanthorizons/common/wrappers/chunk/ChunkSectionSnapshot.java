@@ -0,0 +1,203 @@
+/*
+ *    This file is part of the Distant Horizons mod
+ *    licensed under the GNU LGPL v3 License.
+ *
+ *    Copyright (C) 2020 James Seibel
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, version 3.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public License
+ *    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.seibel.distanthorizons.common.wrappers.chunk;
+
+import com.seibel.distanthorizons.common.wrappers.block.BlockStatePropertyTable;
+import com.seibel.distanthorizons.common.wrappers.block.BlockStateWrapper;
+import com.seibel.distanthorizons.core.wrapperInterfaces.world.ILevelWrapper;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+
+import java.util.ArrayList;
+
+/**
+ * An immutable copy of a {@link LevelChunkSection}'s blocks,
+ * stored as a palette of DH wrappers and one palette index per block. <br><br>
+ *
+ * Reading from a snapshot doesn't touch MC's chunk,
+ * so the server can keep modifying the chunk while DH builds LODs or lighting from it,
+ * and each block read is just two array lookups. <br>
+ * Indexes are stored as bytes when the palette is small enough (which is almost always),
+ * so a snapshot is generally 4 KB per section.
+ * Uniform sections (IE all stone or all water) don't store any indexes.
+ *
+ * @see ChunkWrapper#snapshotSections()
+ */
+public class ChunkSectionSnapshot
+{
+	public static final int BLOCKS_PER_SECTION = 16 * 16 * 16;
+	
+	/** reused between snapshots to avoid allocating an index array that then has to be shrunk */
+	private static final ThreadLocal<short[]> INDEX_BUFFER_REF = ThreadLocal.withInitial(() -> new short[BLOCKS_PER_SECTION]);
+	
+	public final BlockStateWrapper[] palette;
+	/** packed by {@link BlockStatePropertyTable}, same order as {@link ChunkSectionSnapshot#palette} */
+	public final int[] paletteProperties;
+	
+	/** null if the palette has more than 256 entries or if the section is uniform */
+	private final byte[] byteIndexes;
+	/** null if {@link ChunkSectionSnapshot#byteIndexes} is used or if the section is uniform */
+	private final short[] shortIndexes;
+	
+	
+	
+	//=============//
+	// constructor //
+	//=============//
+	
+	public static ChunkSectionSnapshot create(LevelChunkSection section, ILevelWrapper levelWrapper)
+	{
+		if (isSectionUniform(section))
+		{
+			BlockStateWrapper[] palette = { BlockStateWrapper.fromBlockState(section.getBlockState(0, 0, 0), levelWrapper) };
+			return new ChunkSectionSnapshot(palette, null);
+		}
+		
+		
+		ArrayList<BlockStateWrapper> paletteList = new ArrayList<>();
+		Reference2IntOpenHashMap<BlockState> paletteIndexByState = new Reference2IntOpenHashMap<>();
+		paletteIndexByState.defaultReturnValue(-1);
+		
+		short[] indexBuffer = INDEX_BUFFER_REF.get();
+		
+		// neighboring blocks are generally the same state,
+		// so the last state is checked before going to the map
+		BlockState lastState = null;
+		int lastIndex = -1;
+		for (int y = 0; y < 16; y++)
+		{
+			for (int z = 0; z < 16; z++)
+			{
+				for (int x = 0; x < 16; x++)
+				{
+					BlockState blockState = section.getBlockState(x, y, z);
+					if (blockState != lastState)
+					{
+						int paletteIndex = paletteIndexByState.getInt(blockState);
+						if (paletteIndex == -1)
+						{
+							paletteIndex = paletteList.size();
+							paletteList.add(BlockStateWrapper.fromBlockState(blockState, levelWrapper));
+							paletteIndexByState.put(blockState, paletteIndex);
+						}
+						
+						lastState = blockState;
+						lastIndex = paletteIndex;
+					}
+					
+					indexBuffer[getIndex(x, y, z)] = (short) lastIndex;
+				}
+			}
+		}
+		
+		return new ChunkSectionSnapshot(paletteList.toArray(new BlockStateWrapper[0]), indexBuffer);
+	}
+	/** @param indexBuffer only used if the palette has more than one entry */
+	private ChunkSectionSnapshot(BlockStateWrapper[] palette, short[] indexBuffer)
+	{
+		this.palette = palette;
+		
+		this.paletteProperties = new int[palette.length];
+		for (int i = 0; i < palette.length; i++)
+		{
+			this.paletteProperties[i] = BlockStatePropertyTable.getProperties((BlockState) palette[i].getWrappedMcObject());
+		}
+		
+		if (palette.length == 1)
+		{
+			// every block is the same, no indexes needed
+			this.byteIndexes = null;
+			this.shortIndexes = null;
+		}
+		else if (palette.length <= 256)
+		{
+			this.byteIndexes = new byte[BLOCKS_PER_SECTION];
+			for (int i = 0; i < BLOCKS_PER_SECTION; i++)
+			{
+				this.byteIndexes[i] = (byte) indexBuffer[i];
+			}
+			this.shortIndexes = null;
+		}
+		else
+		{
+			this.byteIndexes = null;
+			this.shortIndexes = indexBuffer.clone();
+		}
+	}
+	
+	
+	
+	//=========//
+	// getters //
+	//=========//
+	
+	/** @param x, y, z relative to the section, 0-15 */
+	public BlockStateWrapper getBlockState(int x, int y, int z) { return this.palette[this.getPaletteIndex(x, y, z)]; }
+	
+	/** @return the block's properties packed by {@link BlockStatePropertyTable} */
+	public int getBlockProperties(int x, int y, int z) { return this.paletteProperties[this.getPaletteIndex(x, y, z)]; }
+	
+	public int getPaletteIndex(int x, int y, int z)
+	{
+		int index = getIndex(x, y, z);
+		if (this.byteIndexes != null)
+		{
+			return this.byteIndexes[index] & 0xFF;
+		}
+		else if (this.shortIndexes != null)
+		{
+			return this.shortIndexes[index];
+		}
+		else
+		{
+			return 0;
+		}
+	}
+	
+	/** @return true if every block in this section is the same block state */
+	public boolean isUniform() { return this.palette.length == 1; }
+	
+	/** uses the same YZX order as Minecraft's block containers */
+	public static int getIndex(int x, int y, int z) { return (y << 8) | (z << 4) | x; }
+	
+	
+	
+	//================//
+	// static helpers //
+	//================//
+	
+	/**
+	 * Only checks the section's palette, so this is much faster than reading each block. <br>
+	 * May return false for uniform sections if the palette contains states that are no longer used,
+	 * or if this MC version's palettes can't be checked.
+	 *
+	 * @return true if every block in the section is the same block state
+	 */
+	public static boolean isSectionUniform(LevelChunkSection section)
+	{
+		#if MC_VER < MC_1_18_2
+		return false;
+		#else
+		BlockState firstState = section.getBlockState(0, 0, 0);
+		return !section.maybeHas((blockState) -> blockState != firstState);
+		#endif
+	}
+	
+}
@@ -19,6 +19,7 @@
 package com.seibel.distanthorizons.common.wrappers.chunk;
 
 import com.seibel.distanthorizons.common.wrappers.block.BiomeWrapper;
+import com.seibel.distanthorizons.common.wrappers.block.BlockStatePropertyTable;
 import com.seibel.distanthorizons.common.wrappers.block.BlockStateWrapper;
 import com.seibel.distanthorizons.common.wrappers.misc.MutableBlockPosWrapper;
 import com.seibel.distanthorizons.core.config.Config;
@@ -33,6 +34,7 @@ import com.seibel.distanthorizons.core.wrapperInterfaces.misc.IMutableBlockPosWr
 import com.seibel.distanthorizons.core.wrapperInterfaces.world.IBiomeWrapper;
 
 import com.seibel.distanthorizons.core.wrapperInterfaces.world.ILevelWrapper;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import net.minecraft.core.BlockPos;
 import net.minecraft.world.level.chunk.ChunkAccess;
 import net.minecraft.world.level.chunk.ProtoChunk;
@@ -46,6 +48,11 @@ import java.util.*;
 import net.minecraft.core.QuartPos;
 #endif
 
+#if MC_VER >= MC_1_18_2
+import net.minecraft.core.Holder;
+#endif
+import net.minecraft.world.level.biome.Biome;
+
 #if MC_VER == MC_1_16_5
 import net.minecraft.world.level.chunk.LevelChunkSection;
 #endif
@@ -81,6 +88,11 @@ public class ChunkWrapper implements IChunkWrapper
 	private static final ThreadLocal<BlockPos.MutableBlockPos> MUTABLE_BLOCK_POS_REF = ThreadLocal.withInitial(() -> new BlockPos.MutableBlockPos());
 	private static final ThreadLocal<MutableBlockPosWrapper> MUTABLE_BLOCK_POS_WRAPPER_REF = ThreadLocal.withInitial(() -> new MutableBlockPosWrapper());
 	
+	/** each chunk section has a 4x4x4 grid of biomes, one for each 4x4x4 block "quart" */
+	public static final int BIOMES_PER_SECTION = 4 * 4 * 4;
+	/** used by {@link ChunkWrapper#getUniformSectionProperties()}, never a valid set of packed properties */
+	public static final int MIXED_SECTION = -1;
+	
 	
 	private final ChunkAccess chunk;
 	private final DhChunkPos chunkPos;
@@ -92,7 +104,9 @@ public class ChunkWrapper implements IChunkWrapper
 	private ChunkLightStorage blockLightStorage;
 	private ChunkLightStorage skyLightStorage;
 	
-	private ArrayList<DhBlockPos> blockLightPosList = null;
+	private volatile ArrayList<DhBlockPos> blockLightPosList = null;
+	/** world block positions packed via {@link BlockPos#asLong(int, int, int)}, null until first requested */
+	private volatile long[] blockLightSourcePositions = null;
 	
 	private int minNonEmptyHeight = Integer.MIN_VALUE;
 	private int maxNonEmptyHeight = Integer.MAX_VALUE;
@@ -102,6 +116,27 @@ public class ChunkWrapper implements IChunkWrapper
 	/** will be null if we are using MC heightmaps */
 	private final int[][] lightBlockingHeightMap;
 	
+	/**
+	 * Null until {@link ChunkWrapper#snapshotSections()} is called,
+	 * after that block reads will use these snapshots instead of the live chunk. <br>
+	 * Null entries are empty sections.
+	 */
+	private volatile ChunkSectionSnapshot[] sectionSnapshots = null;
+	/** set before {@link ChunkWrapper#sectionSnapshots} so it's visible to any thread that sees the snapshots */
+	private int snapshotMinBuildHeight = 0;
+	/** 
+	 * Null until {@link ChunkWrapper#snapshotSections()} is called,
+	 * after that biome reads will use these {@link BiomeWrapper#getWrapperId()}s instead of the live chunk. <br>
+	 * Indexed by section, then by {@link ChunkWrapper#getSectionBiomeIndex(int, int, int)}.
+	 */
+	private volatile int[][] sectionBiomeIds = null;
+	/**
+	 * Null until {@link ChunkWrapper#getUniformSectionProperties()} is called. <br>
+	 * Contains the packed {@link BlockStatePropertyTable} properties for uniform and empty sections
+	 * or {@link ChunkWrapper#MIXED_SECTION} for sections with more than one block state.
+	 */
+	private volatile int[] uniformSectionProperties = null;
+	
 	
 	
 	//=============//
@@ -248,6 +283,141 @@ public class ChunkWrapper implements IChunkWrapper
 	}
 	private int getChunkSectionMinHeight(int index) { return (index * 16) + this.getInclusiveMinBuildHeight(); }
 	
+	/**
+	 * Copies every non-empty section into a {@link ChunkSectionSnapshot},
+	 * after which block reads will use the snapshots instead of the live chunk. <br>
+	 * This is faster for code that reads every block (IE LOD building and lighting)
+	 * and means the chunk can be modified by MC while DH is reading it. <br><br>
+	 *
+	 * Should only be called once the chunk is done generating,
+	 * since any later changes won't be visible through this wrapper.
+	 * Can be called again to refresh the snapshots.
+	 */
+	public void snapshotSections()
+	{
+		try
+		{
+			LevelChunkSection[] sections = this.chunk.getSections();
+			ChunkSectionSnapshot[] snapshots = new ChunkSectionSnapshot[sections.length];
+			for (int i = 0; i < sections.length; i++)
+			{
+				LevelChunkSection section = sections[i];
+				if (section != null && !isChunkSectionEmpty(section))
+				{
+					snapshots[i] = ChunkSectionSnapshot.create(section, this.wrappedLevel);
+				}
+			}
+			
+			this.snapshotMinBuildHeight = this.getInclusiveMinBuildHeight();
+			this.sectionBiomeIds = this.snapshotSectionBiomeIds(sections.length);
+			this.sectionSnapshots = snapshots;
+			// reclassify using the snapshots, since they're exact and may be newer
+			this.uniformSectionProperties = null;
+		}
+		catch (Exception e)
+		{
+			// can happen if MC modifies the chunk while we're copying it,
+			// in that case blocks will just be read from the live chunk
+			LOGGER.debug("Unable to snapshot chunk ["+this.chunkPos+"], error: ["+e.getMessage()+"].", e);
+		}
+	}
+	
+	/** @return null if the biomes couldn't be read, in which case biomes will be read from the live chunk */
+	private int[][] snapshotSectionBiomeIds(int sectionCount)
+	{
+		try
+		{
+			int[][] biomeIds = new int[sectionCount][];
+			for (int i = 0; i < sectionCount; i++)
+			{
+				biomeIds[i] = this.getSectionBiomeIds(i, new int[BIOMES_PER_SECTION]);
+			}
+			return biomeIds;
+		}
+		catch (Exception e)
+		{
+			// can happen if the chunk's biomes haven't been generated yet
+			LOGGER.debug("Unable to snapshot biomes for chunk ["+this.chunkPos+"], error: ["+e.getMessage()+"].", e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Classifies each section as empty, uniform (IE all stone or all water) or mixed,
+	 * using the section snapshots if present, otherwise MC's palettes. <br>
+	 * This lets code that walks the chunk handle uniform sections in a single step.
+	 *
+	 * @return one entry per chunk section,
+	 * 		containing the packed {@link BlockStatePropertyTable} properties for empty/uniform sections
+	 * 		or {@link ChunkWrapper#MIXED_SECTION} if the section contains more than one block state.
+	 */
+	public int[] getUniformSectionProperties()
+	{
+		int[] uniformSectionProperties = this.uniformSectionProperties;
+		if (uniformSectionProperties != null)
+		{
+			return uniformSectionProperties;
+		}
+		
+		
+		ChunkSectionSnapshot[] snapshots = this.sectionSnapshots;
+		if (snapshots != null)
+		{
+			uniformSectionProperties = new int[snapshots.length];
+			for (int i = 0; i < snapshots.length; i++)
+			{
+				ChunkSectionSnapshot snapshot = snapshots[i];
+				if (snapshot == null)
+				{
+					uniformSectionProperties[i] = BlockStatePropertyTable.AIR_PROPERTIES;
+				}
+				else
+				{
+					uniformSectionProperties[i] = snapshot.isUniform() ? snapshot.paletteProperties[0] : MIXED_SECTION;
+				}
+			}
+		}
+		else
+		{
+			LevelChunkSection[] sections = this.chunk.getSections();
+			uniformSectionProperties = new int[sections.length];
+			for (int i = 0; i < sections.length; i++)
+			{
+				LevelChunkSection section = sections[i];
+				try
+				{
+					if (section == null || isChunkSectionEmpty(section))
+					{
+						uniformSectionProperties[i] = BlockStatePropertyTable.AIR_PROPERTIES;
+					}
+					else if (ChunkSectionSnapshot.isSectionUniform(section))
+					{
+						uniformSectionProperties[i] = BlockStatePropertyTable.getProperties(section.getBlockState(0, 0, 0));
+					}
+					else
+					{
+						uniformSectionProperties[i] = MIXED_SECTION;
+					}
+				}
+				catch (Exception e)
+				{
+					// can happen if MC is modifying the section, treating it as mixed is always safe
+					uniformSectionProperties[i] = MIXED_SECTION;
+				}
+			}
+		}
+		
+		this.uniformSectionProperties = uniformSectionProperties;
+		return uniformSectionProperties;
+	}
+	
+	/** @return null if the section is empty */
+	private ChunkSectionSnapshot getSectionSnapshot(ChunkSectionSnapshot[] snapshots, int y)
+	{
+		int index = (y - this.snapshotMinBuildHeight) >> 4;
+		return (index >= 0 && index < snapshots.length) ? snapshots[index] : null;
+	}
+	
 	/** Will only run if the config says the MC heightmaps shouldn't be trusted. */
 	public void recalculateDhHeightMapsIfNeeded()
 	{
@@ -259,6 +429,11 @@ public class ChunkWrapper implements IChunkWrapper
 		// recalculate heightmaps if needed
 		if (this.solidHeightMap != null)
 		{
+			// the chunk may have changed since it was last classified
+			this.uniformSectionProperties = null;
+			int[] uniformSectionProperties = this.getUniformSectionProperties();
+			int inclusiveMinBuildHeight = this.getInclusiveMinBuildHeight();
+			
 			for (int x = 0; x < LodUtil.CHUNK_WIDTH; x++)
 			{
 				for (int z = 0; z < LodUtil.CHUNK_WIDTH; z++)
@@ -270,29 +445,47 @@ public class ChunkWrapper implements IChunkWrapper
 					
 					
 					int y = this.getMaxNonEmptyHeight(); //this.getExclusiveMaxBuildHeight();
-					IBlockStateWrapper block = this.getBlockState(x, y, z);
 					while (// go down until we reach the minimum build height
 							y > minInclusiveBuildHeight
 							// keep going until we find both height map values
 							&& (solidHeight == minInclusiveBuildHeight || lightBlockingHeight == minInclusiveBuildHeight))
 					{
+						// every block in a uniform (or empty) section is the same,
+						// so only the top block needs to be checked
+						int sectionIndex = (y - inclusiveMinBuildHeight) >> 4;
+						int blockProperties = (sectionIndex >= 0 && sectionIndex < uniformSectionProperties.length) ? uniformSectionProperties[sectionIndex] : BlockStatePropertyTable.AIR_PROPERTIES;
+						boolean isUniformSection = (blockProperties != MIXED_SECTION);
+						if (!isUniformSection)
+						{
+							// the packed properties are used instead of block wrappers
+							// so we don't have to look up a wrapper for every block
+							blockProperties = this.getBlockProperties(x, y, z);
+						}
+						
 						// is this block solid?
 						if (solidHeight == minInclusiveBuildHeight
-							&& block.isSolid())
+							&& BlockStatePropertyTable.isSolid(blockProperties))
 						{
 							solidHeight = y;
 						}
 						
 						// is this block light blocking?
 						if (lightBlockingHeight == minInclusiveBuildHeight
-							&& block.getOpacity() != LodUtil.BLOCK_FULLY_TRANSPARENT)
+							&& BlockStatePropertyTable.getOpacity(blockProperties) != LodUtil.BLOCK_FULLY_TRANSPARENT)
 						{
 							lightBlockingHeight = y;
 						}
 						
 						// get the next block down
-						y--;
-						block = this.getBlockState(x, y, z);
+						if (isUniformSection)
+						{
+							// skip to the top of the next section down
+							y = inclusiveMinBuildHeight + (sectionIndex * 16) - 1;
+						}
+						else
+						{
+							y--;
+						}
 					}
 					
 					this.solidHeightMap[x][z] = solidHeight;
@@ -337,6 +530,16 @@ public class ChunkWrapper implements IChunkWrapper
 	@Override
 	public IBiomeWrapper getBiome(int relX, int relY, int relZ)
 	{
+		int[][] biomeIds = this.sectionBiomeIds;
+		if (biomeIds != null)
+		{
+			int sectionIndex = (relY - this.snapshotMinBuildHeight) >> 4;
+			if (sectionIndex >= 0 && sectionIndex < biomeIds.length)
+			{
+				return BiomeWrapper.fromWrapperId(biomeIds[sectionIndex][getSectionBiomeIndex(relX >> 2, (relY & 15) >> 2, relZ >> 2)]);
+			}
+		}
+		
 		#if MC_VER < MC_1_17_1
 		return BiomeWrapper.getBiomeWrapper(this.chunk.getBiomes().getNoiseBiome(
 				relX >> 2, relY >> 2, relZ >> 2),
@@ -357,18 +560,75 @@ public class ChunkWrapper implements IChunkWrapper
 		#endif
 	}
 	
+	/**
+	 * Returns the {@link BiomeWrapper#getWrapperId()} for every quart in the given chunk section at once,
+	 * which is significantly faster than calling {@link ChunkWrapper#getBiome(int, int, int)} for each block. <br>
+	 * Neighboring quarts generally share the same biome, so each run of identical biomes is only wrapped once. <br>
+	 * Used by {@link ChunkWrapper#snapshotSections()} so the LOD builder's biome reads are just array lookups.
+	 *
+	 * @param sectionIndex the index into the chunk's section array, 0 is the lowest section
+	 * @param biomeIds an array of at least {@link ChunkWrapper#BIOMES_PER_SECTION} length,
+	 *               indexed by {@link ChunkWrapper#getSectionBiomeIndex(int, int, int)}
+	 * @return the passed in array
+	 */
+	public int[] getSectionBiomeIds(int sectionIndex, int[] biomeIds)
+	{
+		#if MC_VER < MC_1_18_2
+		int minQuartY = this.getChunkSectionMinHeight(sectionIndex) >> 2;
+		Biome lastBiome = null;
+		#else
+		LevelChunkSection section = this.chunk.getSections()[sectionIndex];
+		Holder<Biome> lastBiome = null;
+		#endif
+		int lastBiomeId = BiomeWrapper.EMPTY_WRAPPER.getWrapperId();
+		
+		for (int quartY = 0; quartY < 4; quartY++)
+		{
+			for (int quartZ = 0; quartZ < 4; quartZ++)
+			{
+				for (int quartX = 0; quartX < 4; quartX++)
+				{
+					#if MC_VER < MC_1_18_2
+					Biome biome = this.chunk.getBiomes().getNoiseBiome(quartX, minQuartY + quartY, quartZ);
+					#else
+					Holder<Biome> biome = section.getNoiseBiome(quartX, quartY, quartZ);
+					#endif
+					
+					if (biome != lastBiome)
+					{
+						lastBiome = biome;
+						lastBiomeId = ((BiomeWrapper) BiomeWrapper.getBiomeWrapper(biome, this.wrappedLevel)).getWrapperId();
+					}
+					biomeIds[getSectionBiomeIndex(quartX, quartY, quartZ)] = lastBiomeId;
+				}
+			}
+		}
+		
+		return biomeIds;
+	}
+	/** uses the same YZX order as Minecraft's biome containers */
+	public static int getSectionBiomeIndex(int quartX, int quartY, int quartZ) { return (quartY << 4) | (quartZ << 2) | quartX; }
+	
 	@Override
 	public IBlockStateWrapper getBlockState(int relX, int relY, int relZ)
 	{
 		this.throwIndexOutOfBoundsIfRelativePosOutsideChunkBounds(relX, relY, relZ);
 		
+		ChunkSectionSnapshot[] snapshots = this.sectionSnapshots;
+		if (snapshots != null)
+		{
+			ChunkSectionSnapshot snapshot = this.getSectionSnapshot(snapshots, relY);
+			return (snapshot != null) ? snapshot.getBlockState(relX, relY & 15, relZ) : BlockStateWrapper.AIR;
+		}
+		
 		BlockPos.MutableBlockPos blockPos = MUTABLE_BLOCK_POS_REF.get();
 		
 		blockPos.setX(relX);
 		blockPos.setY(relY);
 		blockPos.setZ(relZ);
 		
-		// TODO copy into pooled array, this isn't thread safe and can cause MC to throw errors if the chunk is loaded
+		// this isn't thread safe and can cause MC to throw errors if the chunk is loaded,
+		// snapshotSections() should be called first if that's a concern
 		return BlockStateWrapper.fromBlockState(this.chunk.getBlockState(blockPos), this.wrappedLevel);
 	}
 	
@@ -377,6 +637,14 @@ public class ChunkWrapper implements IChunkWrapper
 	{
 		this.throwIndexOutOfBoundsIfRelativePosOutsideChunkBounds(relX, relY, relZ);
 		
+		ChunkSectionSnapshot[] snapshots = this.sectionSnapshots;
+		if (snapshots != null)
+		{
+			// the snapshot is already just an array lookup, so the guess isn't needed
+			ChunkSectionSnapshot snapshot = this.getSectionSnapshot(snapshots, relY);
+			return (snapshot != null) ? snapshot.getBlockState(relX, relY & 15, relZ) : BlockStateWrapper.AIR;
+		}
+		
 		BlockPos.MutableBlockPos pos = (BlockPos.MutableBlockPos)mcBlockPos.getWrappedMcObject();
 		pos.setX(relX);
 		pos.setY(relY);
@@ -385,6 +653,27 @@ public class ChunkWrapper implements IChunkWrapper
 		return BlockStateWrapper.fromBlockState(this.chunk.getBlockState(pos), this.wrappedLevel, guess);
 	}
 	
+	/** @return the block's properties packed by {@link BlockStatePropertyTable} */
+	public int getBlockProperties(int relX, int relY, int relZ)
+	{
+		this.throwIndexOutOfBoundsIfRelativePosOutsideChunkBounds(relX, relY, relZ);
+		
+		ChunkSectionSnapshot[] snapshots = this.sectionSnapshots;
+		if (snapshots != null)
+		{
+			ChunkSectionSnapshot snapshot = this.getSectionSnapshot(snapshots, relY);
+			return (snapshot != null) ? snapshot.getBlockProperties(relX, relY & 15, relZ) : BlockStatePropertyTable.AIR_PROPERTIES;
+		}
+		
+		BlockPos.MutableBlockPos blockPos = MUTABLE_BLOCK_POS_REF.get();
+		
+		blockPos.setX(relX);
+		blockPos.setY(relY);
+		blockPos.setZ(relZ);
+		
+		return BlockStatePropertyTable.getProperties(this.chunk.getBlockState(blockPos));
+	}
+	
 	/**
 	
 	 // Commented out experimental LevelChunkSection cloning logic to fix extremely rare concurrency modification issue
@@ -581,38 +870,135 @@ public class ChunkWrapper implements IChunkWrapper
 	
 	
 	/** 
-	 * FIXME synchronized is necessary for a rare issue where this method is called from two separate threads at the same time
-	 *  before the list has finished populating.
+	 * Built from {@link ChunkWrapper#getBlockLightSourcePositions()}. <br>
+	 * The list is only populated once, if multiple threads get here at the same time they'll just create identical lists.
 	 */
 	@Override
-	public synchronized ArrayList<DhBlockPos> getWorldBlockLightPosList()
+	public ArrayList<DhBlockPos> getWorldBlockLightPosList()
 	{
-		// only populate the list once
-		if (this.blockLightPosList == null)
+		ArrayList<DhBlockPos> blockLightPosList = this.blockLightPosList;
+		if (blockLightPosList == null)
 		{
-			this.blockLightPosList = new ArrayList<>();
-			
+			long[] packedPositions = this.getBlockLightSourcePositions();
+			blockLightPosList = new ArrayList<>(packedPositions.length);
+			for (int i = 0; i < packedPositions.length; i++)
+			{
+				long packedPos = packedPositions[i];
+				blockLightPosList.add(new DhBlockPos(BlockPos.getX(packedPos), BlockPos.getY(packedPos), BlockPos.getZ(packedPos)));
+			}
 			
-			#if MC_VER < MC_1_20_1
-			this.chunk.getLights().forEach((blockPos) ->
+			this.blockLightPosList = blockLightPosList;
+		}
+		
+		return blockLightPosList;
+	}
+	
+	/**
+	 * Primitive version of {@link ChunkWrapper#getWorldBlockLightPosList()}
+	 * that doesn't allocate an object per light source. <br><br>
+	 *
+	 * Only sections whose palette contains a light emitting block state are scanned,
+	 * which is generally a small minority of them.
+	 *
+	 * @return the world position of every light emitting block in this chunk,
+	 * 		packed via {@link BlockPos#asLong(int, int, int)}. The returned array shouldn't be modified.
+	 */
+	public long[] getBlockLightSourcePositions()
+	{
+		long[] blockLightSourcePositions = this.blockLightSourcePositions;
+		if (blockLightSourcePositions != null)
+		{
+			return blockLightSourcePositions;
+		}
+		
+		
+		LongArrayList positionList = new LongArrayList();
+		int minBlockX = this.getMinBlockX();
+		int minBlockZ = this.getMinBlockZ();
+		
+		ChunkSectionSnapshot[] snapshots = this.sectionSnapshots;
+		if (snapshots != null)
+		{
+			for (int i = 0; i < snapshots.length; i++)
 			{
-				this.blockLightPosList.add(new DhBlockPos(blockPos.getX(), blockPos.getY(), blockPos.getZ()));
-			});
-			#else
-			this.chunk.findBlockLightSources((blockPos, blockState) ->
+				if (snapshots[i] != null)
+				{
+					addSnapshotLightSources(snapshots[i], minBlockX, this.snapshotMinBuildHeight + (i * 16), minBlockZ, positionList);
+				}
+			}
+		}
+		else
+		{
+			LevelChunkSection[] sections = this.chunk.getSections();
+			for (int i = 0; i < sections.length; i++)
 			{
-				DhBlockPos pos = new DhBlockPos(blockPos.getX(), blockPos.getY(), blockPos.getZ());
-				
-				// this can be uncommented if MC decides to return relative block positions in the future instead of world positions
-				//pos.mutateToChunkRelativePos(pos);
-				//pos.mutateOffset(this.chunkPos.getMinBlockX(), 0, this.chunkPos.getMinBlockZ(), pos);
-				
-				this.blockLightPosList.add(pos);
-			});
-			#endif
+				LevelChunkSection section = sections[i];
+				if (section != null && !isChunkSectionEmpty(section))
+				{
+					addSectionLightSources(section, minBlockX, this.getChunkSectionMinHeight(i), minBlockZ, positionList);
+				}
+			}
 		}
 		
-		return this.blockLightPosList;
+		blockLightSourcePositions = positionList.toLongArray();
+		this.blockLightSourcePositions = blockLightSourcePositions;
+		return blockLightSourcePositions;
+	}
+	private static void addSnapshotLightSources(ChunkSectionSnapshot snapshot, int minBlockX, int minBlockY, int minBlockZ, LongArrayList positionList)
+	{
+		// determine which palette entries emit light
+		int[] paletteProperties = snapshot.paletteProperties;
+		boolean[] emitsLight = new boolean[paletteProperties.length];
+		boolean anyEmitLight = false;
+		for (int i = 0; i < paletteProperties.length; i++)
+		{
+			emitsLight[i] = BlockStatePropertyTable.getLightEmission(paletteProperties[i]) > 0;
+			anyEmitLight |= emitsLight[i];
+		}
+		
+		if (!anyEmitLight)
+		{
+			return;
+		}
+		
+		
+		for (int y = 0; y < 16; y++)
+		{
+			for (int z = 0; z < 16; z++)
+			{
+				for (int x = 0; x < 16; x++)
+				{
+					if (emitsLight[snapshot.getPaletteIndex(x, y, z)])
+					{
+						positionList.add(BlockPos.asLong(minBlockX + x, minBlockY + y, minBlockZ + z));
+					}
+				}
+			}
+		}
+	}
+	private static void addSectionLightSources(LevelChunkSection section, int minBlockX, int minBlockY, int minBlockZ, LongArrayList positionList)
+	{
+		#if MC_VER >= MC_1_18_2
+		// only checks the palette, most sections don't contain any light sources
+		if (!section.maybeHas((blockState) -> blockState.getLightEmission() > 0))
+		{
+			return;
+		}
+		#endif
+		
+		for (int y = 0; y < 16; y++)
+		{
+			for (int z = 0; z < 16; z++)
+			{
+				for (int x = 0; x < 16; x++)
+				{
+					if (section.getBlockState(x, y, z).getLightEmission() > 0)
+					{
+						positionList.add(BlockPos.asLong(minBlockX + x, minBlockY + y, minBlockZ + z));
+					}
+				}
+			}
+		}
 	}
 	
 	
@@ -0,0 +1,807 @@
+/*
+ *    This file is part of the Distant Horizons mod
+ *    licensed under the GNU LGPL v3 License.
+ *
+ *    Copyright (C) 2020 James Seibel
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, version 3.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public License
+ *    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.seibel.distanthorizons.common.wrappers.chunk;
+
+import com.seibel.distanthorizons.common.wrappers.block.BiomeWrapper;
+import com.seibel.distanthorizons.common.wrappers.block.BlockStateWrapper;
+import com.seibel.distanthorizons.common.wrappers.misc.MutableBlockPosWrapper;
+import com.seibel.distanthorizons.common.wrappers.worldGeneration.mimicObject.ChunkLoader;
+import com.seibel.distanthorizons.common.wrappers.worldGeneration.mimicObject.PaletteEntryCache;
+import com.seibel.distanthorizons.core.config.Config;
+import com.seibel.distanthorizons.core.logging.DhLoggerBuilder;
+import com.seibel.distanthorizons.core.pos.blockPos.DhBlockPos;
+import com.seibel.distanthorizons.core.pos.DhChunkPos;
+import com.seibel.distanthorizons.core.util.LodUtil;
+import com.seibel.distanthorizons.core.wrapperInterfaces.block.IBlockStateWrapper;
+import com.seibel.distanthorizons.core.wrapperInterfaces.chunk.ChunkLightStorage;
+import com.seibel.distanthorizons.core.wrapperInterfaces.chunk.IChunkWrapper;
+import com.seibel.distanthorizons.core.wrapperInterfaces.misc.IMutableBlockPosWrapper;
+import com.seibel.distanthorizons.core.wrapperInterfaces.world.IBiomeWrapper;
+import com.seibel.distanthorizons.core.wrapperInterfaces.world.ILevelWrapper;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.world.level.ChunkPos;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+#if MC_VER <= MC_1_20_4
+import org.jetbrains.annotations.Nullable;
+#else
+import javax.annotation.Nullable;
+#endif
+
+/**
+ * An {@link IChunkWrapper} that is read directly from a chunk's NBT section palettes
+ * without creating a {@link net.minecraft.world.level.chunk.LevelChunk}. <br>
+ * Each section only holds its palette (converted to DH wrappers) and the packed long array
+ * that indexes into it, which is much smaller than MC's {@link net.minecraft.world.level.chunk.LevelChunkSection}s
+ * and avoids running every block through MC's codecs. <br><br>
+ *
+ * This is only used for pre-existing chunks that are being converted into LODs,
+ * chunks that need world generation still need to go through {@link ChunkLoader}. <br>
+ * Only supports the MC 1.18+ chunk format.
+ *
+ * @see ChunkWrapper
+ */
+public class PaletteChunkWrapper implements IChunkWrapper
+{
+	private static final Logger LOGGER = DhLoggerBuilder.getLogger();
+	
+	private static final ThreadLocal<MutableBlockPosWrapper> MUTABLE_BLOCK_POS_WRAPPER_REF = ThreadLocal.withInitial(() -> new MutableBlockPosWrapper());
+	
+	/** MC always stores 16x16x16 blocks per section */
+	private static final int BLOCKS_PER_SECTION = 16 * 16 * 16;
+	/** MC always stores 4x4x4 biomes per section */
+	private static final int BIOMES_PER_SECTION = 4 * 4 * 4;
+	
+	
+	private final DhChunkPos chunkPos;
+	private final int minBlockX;
+	private final int minBlockZ;
+	private final ILevelWrapper wrappedLevel;
+	
+	private final int minBuildHeight;
+	private final int maxBuildHeight;
+	
+	/**
+	 * Indexed from the bottom of the world up. <br>
+	 * Null if the section was missing from the chunk's data.
+	 */
+	private final PaletteSection[] sections;
+	/** used for sections that are missing from the chunk's data */
+	private final IBiomeWrapper defaultBiome;
+	/** false if this chunk didn't exist on disk */
+	private final boolean preExisting;
+	
+	private boolean isDhBlockLightCorrect = false;
+	private boolean isDhSkyLightCorrect = false;
+	
+	private ChunkLightStorage blockLightStorage;
+	private ChunkLightStorage skyLightStorage;
+	
+	private ArrayList<DhBlockPos> blockLightPosList = null;
+	
+	private final int minNonEmptyHeight;
+	private final int maxNonEmptyHeight;
+	
+	private final int[][] solidHeightMap = new int[LodUtil.CHUNK_WIDTH][LodUtil.CHUNK_WIDTH];
+	private final int[][] lightBlockingHeightMap = new int[LodUtil.CHUNK_WIDTH][LodUtil.CHUNK_WIDTH];
+	
+	
+	
+	//=============//
+	// constructor //
+	//=============//
+	
+	private PaletteChunkWrapper(ChunkPos chunkPos, ILevelWrapper wrappedLevel, PaletteSection[] sections, IBiomeWrapper defaultBiome, boolean preExisting)
+	{
+		this.chunkPos = new DhChunkPos(chunkPos.x, chunkPos.z);
+		this.minBlockX = chunkPos.getMinBlockX();
+		this.minBlockZ = chunkPos.getMinBlockZ();
+		this.wrappedLevel = wrappedLevel;
+		this.minBuildHeight = wrappedLevel.getMinHeight();
+		this.maxBuildHeight = this.minBuildHeight + wrappedLevel.getMaxHeight();
+		this.sections = sections;
+		this.defaultBiome = defaultBiome;
+		this.preExisting = preExisting;
+		
+		
+		// determine the lowest non-empty section (bottom up)
+		int minNonEmptyHeight = this.minBuildHeight;
+		for (int index = 0; index < this.sections.length; index++)
+		{
+			if (this.sections[index] != null && !this.sections[index].hasOnlyAir())
+			{
+				minNonEmptyHeight = this.getSectionMinHeight(index);
+				break;
+			}
+		}
+		this.minNonEmptyHeight = minNonEmptyHeight;
+		
+		// determine the highest non-empty section (top down)
+		int maxNonEmptyHeight = this.minBuildHeight;
+		for (int index = this.sections.length - 1; index >= 0; index--)
+		{
+			if (this.sections[index] != null && !this.sections[index].hasOnlyAir())
+			{
+				maxNonEmptyHeight = this.getSectionMinHeight(index) + 16;
+				break;
+			}
+		}
+		this.maxNonEmptyHeight = maxNonEmptyHeight;
+		
+		this.calculateHeightMaps();
+	}
+	
+	/** @return a wrapper that only contains air, used for chunks that don't exist on disk */
+	public static PaletteChunkWrapper createEmpty(ChunkPos chunkPos, ILevelWrapper levelWrapper)
+	{
+		int sectionCount = levelWrapper.getMaxHeight() / 16;
+		return new PaletteChunkWrapper(chunkPos, levelWrapper, new PaletteSection[sectionCount], getDefaultBiome(levelWrapper), false);
+	}
+	private static IBiomeWrapper getDefaultBiome(ILevelWrapper levelWrapper)
+	{
+		try
+		{
+			// MC defaults to plains when a section is missing its biomes
+			return BiomeWrapper.deserialize(BiomeWrapper.PLAINS_RESOURCE_LOCATION_STRING, levelWrapper);
+		}
+		catch (IOException e)
+		{
+			return BiomeWrapper.EMPTY_WRAPPER;
+		}
+	}
+	
+	/**
+	 * @return null if the chunk data isn't a finished chunk
+	 *          or can't be parsed without going through {@link ChunkLoader}.
+	 */
+	@Nullable
+	public static PaletteChunkWrapper tryRead(CompoundTag chunkData, ChunkPos chunkPos, ILevelWrapper levelWrapper)
+	{
+		#if MC_VER < MC_1_18_2
+		// the pre 1.18 section format is handled by ChunkLoader
+		return null;
+		#else
+		
+		try
+		{
+			//==================//
+			// validate the tag //
+			//==================//
+			
+			ChunkPos actualPos = new ChunkPos(chunkData.getInt("xPos"), chunkData.getInt("zPos"));
+			if (!actualPos.equals(chunkPos)
+				&& !actualPos.equals(ChunkPos.ZERO))
+			{
+				// ChunkLoader handles logging the error
+				return null;
+			}
+			
+			// unfinished chunks may need world generation or blending
+			String status = chunkData.getString("Status");
+			if (!status.substring(status.indexOf(':') + 1).equals("full"))
+			{
+				return null;
+			}
+			
+			
+			
+			//===============//
+			// read sections //
+			//===============//
+			
+			int minBuildHeight = levelWrapper.getMinHeight();
+			int sectionCount = levelWrapper.getMaxHeight() / 16;
+			int minSectionY = minBuildHeight >> 4;
+			
+			IBiomeWrapper defaultBiome = getDefaultBiome(levelWrapper);
+			PaletteSection[] sections = new PaletteSection[sectionCount];
+			ListTag sectionTagList = chunkData.getList("sections", Tag.TAG_COMPOUND);
+			for (int i = 0; i < sectionTagList.size(); i++)
+			{
+				CompoundTag sectionTag = sectionTagList.getCompound(i);
+				int sectionIndex = sectionTag.getByte("Y") - minSectionY;
+				if (sectionIndex < 0 || sectionIndex >= sectionCount
+					|| !sectionTag.contains("block_states", Tag.TAG_COMPOUND))
+				{
+					// lighting only section
+					continue;
+				}
+				
+				PaletteSection section = PaletteSection.tryRead(sectionTag, levelWrapper, defaultBiome);
+				if (section == null)
+				{
+					// the section data is malformed, let ChunkLoader handle it
+					return null;
+				}
+				sections[sectionIndex] = section;
+			}
+			
+			PaletteChunkWrapper wrapper = new PaletteChunkWrapper(chunkPos, levelWrapper, sections, defaultBiome, true);
+			
+			
+			
+			//===============//
+			// read lighting //
+			//===============//
+			
+			if (Config.Common.LodBuilding.pullLightingForPregeneratedChunks.get())
+			{
+				wrapper.readLight(sectionTagList);
+			}
+			
+			return wrapper;
+		}
+		catch (Exception e)
+		{
+			LOGGER.debug("Unable to read chunk [" + chunkPos + "] palettes, error: [" + e.getMessage() + "].", e);
+			return null;
+		}
+		#endif
+	}
+	/** @see ChunkLoader#readLight */
+	private void readLight(ListTag sectionTagList)
+	{
+		ChunkLoader.CombinedChunkLightStorage combinedStorage = new ChunkLoader.CombinedChunkLightStorage(this.minBuildHeight, this.maxBuildHeight);
+		
+		// if any sky light was found then all lights above will be max brightness
+		boolean foundSkyLight = false;
+		for (int i = 0; i < sectionTagList.size(); i++)
+		{
+			CompoundTag sectionTag = sectionTagList.getCompound(i);
+			int sectionMinY = sectionTag.getByte("Y") * 16;
+			if (sectionMinY < this.minBuildHeight || sectionMinY >= this.maxBuildHeight)
+			{
+				continue;
+			}
+			
+			// if empty all lights = 0
+			byte[] blockLightNibbleArray = sectionTag.getByteArray("BlockLight");
+			byte[] skyLightNibbleArray = sectionTag.getByteArray("SkyLight");
+			if (skyLightNibbleArray.length != 0)
+			{
+				foundSkyLight = true;
+			}
+			
+			for (int index = 0; index < BLOCKS_PER_SECTION; index++)
+			{
+				int relX = index & 15;
+				int relZ = (index >> 4) & 15;
+				int y = sectionMinY + (index >> 8);
+				
+				int blockLight = (blockLightNibbleArray.length == 0) ? 0 : getNibbleAtIndex(blockLightNibbleArray, index);
+				int skyLight;
+				if (skyLightNibbleArray.length != 0)
+				{
+					skyLight = getNibbleAtIndex(skyLightNibbleArray, index);
+				}
+				else
+				{
+					skyLight = foundSkyLight ? LodUtil.MAX_MC_LIGHT : 0;
+				}
+				
+				combinedStorage.blockLightStorage.set(relX, y, relZ, blockLight);
+				combinedStorage.skyLightStorage.set(relX, y, relZ, skyLight);
+			}
+		}
+		
+		this.blockLightStorage = combinedStorage.blockLightStorage;
+		this.skyLightStorage = combinedStorage.skyLightStorage;
+		this.isDhBlockLightCorrect = true;
+		this.isDhSkyLightCorrect = true;
+	}
+	/** source: https://minecraft.wiki/w/Chunk_format#Block_Format */
+	private static int getNibbleAtIndex(byte[] arr, int index)
+	{
+		int value = arr[index >> 1];
+		return ((index & 1) == 0) ? (value & 0x0F) : ((value >> 4) & 0x0F);
+	}
+	
+	
+	
+	//============//
+	// heightmaps //
+	//============//
+	
+	/** uses the same logic as {@link ChunkWrapper#recalculateDhHeightMapsIfNeeded()} */
+	private void calculateHeightMaps()
+	{
+		for (int x = 0; x < LodUtil.CHUNK_WIDTH; x++)
+		{
+			for (int z = 0; z < LodUtil.CHUNK_WIDTH; z++)
+			{
+				// if no blocks are found the height map will be at the bottom of the world
+				int solidHeight = this.minNonEmptyHeight;
+				int lightBlockingHeight = this.minNonEmptyHeight;
+				
+				int y = this.maxNonEmptyHeight;
+				while (// go down until we reach the minimum build height
+						y > this.minNonEmptyHeight
+						// keep going until we find both height map values
+						&& (solidHeight == this.minNonEmptyHeight || lightBlockingHeight == this.minNonEmptyHeight))
+				{
+					// every block in a uniform (or empty) section is the same,
+					// so only the top block needs to be checked
+					int sectionIndex = (y - this.minBuildHeight) >> 4;
+					IBlockStateWrapper uniformBlock = this.getUniformSectionBlockState(sectionIndex);
+					boolean isUniformSection = (uniformBlock != null);
+					IBlockStateWrapper block = isUniformSection ? uniformBlock : this.getBlockStateInternal(x, y, z);
+					
+					if (solidHeight == this.minNonEmptyHeight
+						&& block.isSolid())
+					{
+						solidHeight = y;
+					}
+					
+					if (lightBlockingHeight == this.minNonEmptyHeight
+						&& block.getOpacity() != LodUtil.BLOCK_FULLY_TRANSPARENT)
+					{
+						lightBlockingHeight = y;
+					}
+					
+					// get the next block down
+					if (isUniformSection)
+					{
+						// skip to the top of the next section down
+						y = this.getSectionMinHeight(sectionIndex) - 1;
+					}
+					else
+					{
+						y--;
+					}
+				}
+				
+				this.solidHeightMap[x][z] = solidHeight;
+				this.lightBlockingHeightMap[x][z] = lightBlockingHeight;
+			}
+		}
+	}
+	/** @return null if the section contains more than one block state */
+	@Nullable
+	private IBlockStateWrapper getUniformSectionBlockState(int sectionIndex)
+	{
+		if (sectionIndex < 0 || sectionIndex >= this.sections.length)
+		{
+			return BlockStateWrapper.AIR;
+		}
+		
+		PaletteSection section = this.sections[sectionIndex];
+		if (section == null || section.hasOnlyAir())
+		{
+			return BlockStateWrapper.AIR;
+		}
+		
+		return section.getUniformBlockState();
+	}
+	
+	
+	
+	//=========//
+	// getters //
+	//=========//
+	
+	@Override
+	public int getHeight() { return this.maxBuildHeight - this.minBuildHeight; }
+	
+	@Override
+	public int getInclusiveMinBuildHeight() { return this.minBuildHeight; }
+	
+	@Override
+	public int getExclusiveMaxBuildHeight() { return this.maxBuildHeight; }
+	
+	@Override
+	public int getMinNonEmptyHeight() { return this.minNonEmptyHeight; }
+	
+	@Override
+	public int getMaxNonEmptyHeight() { return this.maxNonEmptyHeight; }
+	
+	private int getSectionMinHeight(int index) { return (index * 16) + this.minBuildHeight; }
+	
+	@Override
+	public int getSolidHeightMapValue(int xRel, int zRel)
+	{
+		this.throwIndexOutOfBoundsIfRelativePosOutsideChunkBounds(xRel, zRel);
+		return this.solidHeightMap[xRel][zRel];
+	}
+	
+	@Override
+	public int getLightBlockingHeightMapValue(int xRel, int zRel)
+	{
+		this.throwIndexOutOfBoundsIfRelativePosOutsideChunkBounds(xRel, zRel);
+		return this.lightBlockingHeightMap[xRel][zRel];
+	}
+	
+	
+	@Override
+	public IBiomeWrapper getBiome(int relX, int relY, int relZ)
+	{
+		// MC clamps biome lookups to the world height
+		int sectionIndex = Math.max(0, Math.min((relY - this.minBuildHeight) >> 4, this.sections.length - 1));
+		PaletteSection section = this.sections[sectionIndex];
+		if (section == null)
+		{
+			return this.defaultBiome;
+		}
+		
+		int quartY = (relY < this.minBuildHeight) ? 0 : (relY >= this.maxBuildHeight) ? 3 : ((relY & 15) >> 2);
+		return section.getBiome((relX & 15) >> 2, quartY, (relZ & 15) >> 2);
+	}
+	
+	@Override
+	public IBlockStateWrapper getBlockState(int relX, int relY, int relZ)
+	{
+		this.throwIndexOutOfBoundsIfRelativePosOutsideChunkBounds(relX, relY, relZ);
+		return this.getBlockStateInternal(relX, relY, relZ);
+	}
+	
+	@Override
+	public IBlockStateWrapper getBlockState(int relX, int relY, int relZ, IMutableBlockPosWrapper mcBlockPos, IBlockStateWrapper guess)
+	{
+		// the palette already holds the wrappers, so neither the block pos nor guess are needed
+		this.throwIndexOutOfBoundsIfRelativePosOutsideChunkBounds(relX, relY, relZ);
+		return this.getBlockStateInternal(relX, relY, relZ);
+	}
+	
+	private IBlockStateWrapper getBlockStateInternal(int relX, int y, int relZ)
+	{
+		int sectionIndex = (y - this.minBuildHeight) >> 4;
+		if (sectionIndex < 0 || sectionIndex >= this.sections.length)
+		{
+			return BlockStateWrapper.AIR;
+		}
+		
+		PaletteSection section = this.sections[sectionIndex];
+		if (section == null || section.hasOnlyAir())
+		{
+			return BlockStateWrapper.AIR;
+		}
+		
+		return section.getBlockState(relX & 15, y & 15, relZ & 15);
+	}
+	
+	
+	
+	@Override
+	public IMutableBlockPosWrapper getMutableBlockPosWrapper() { return MUTABLE_BLOCK_POS_WRAPPER_REF.get(); }
+	
+	@Override
+	public DhChunkPos getChunkPos() { return this.chunkPos; }
+	
+	/** @return false if this chunk didn't exist on disk and only contains air */
+	public boolean isPreExisting() { return this.preExisting; }
+	
+	@Override
+	public int getMaxBlockX() { return this.minBlockX + 15; }
+	@Override
+	public int getMaxBlockZ() { return this.minBlockZ + 15; }
+	@Override
+	public int getMinBlockX() { return this.minBlockX; }
+	@Override
+	public int getMinBlockZ() { return this.minBlockZ; }
+	
+	
+	
+	//==========//
+	// lighting //
+	//==========//
+	
+	@Override
+	public void setIsDhSkyLightCorrect(boolean isDhLightCorrect) { this.isDhSkyLightCorrect = isDhLightCorrect; }
+	@Override
+	public void setIsDhBlockLightCorrect(boolean isDhLightCorrect) { this.isDhBlockLightCorrect = isDhLightCorrect; }
+	
+	@Override
+	public boolean isDhBlockLightingCorrect() { return this.isDhBlockLightCorrect; }
+	@Override
+	public boolean isDhSkyLightCorrect() { return this.isDhSkyLightCorrect; }
+	
+	
+	@Override
+	public int getDhBlockLight(int relX, int y, int relZ)
+	{
+		this.throwIndexOutOfBoundsIfRelativePosOutsideChunkBounds(relX, y, relZ);
+		return this.getBlockLightStorage().get(relX, y, relZ);
+	}
+	@Override
+	public void setDhBlockLight(int relX, int y, int relZ, int lightValue)
+	{
+		this.throwIndexOutOfBoundsIfRelativePosOutsideChunkBounds(relX, y, relZ);
+		this.getBlockLightStorage().set(relX, y, relZ, lightValue);
+	}
+	
+	private ChunkLightStorage getBlockLightStorage()
+	{
+		if (this.blockLightStorage == null)
+		{
+			this.blockLightStorage = ChunkLightStorage.createBlockLightStorage(this);
+		}
+		return this.blockLightStorage;
+	}
+	@Override
+	public void clearDhBlockLighting() { this.getBlockLightStorage().clear(); }
+	
+	
+	@Override
+	public int getDhSkyLight(int relX, int y, int relZ)
+	{
+		this.throwIndexOutOfBoundsIfRelativePosOutsideChunkBounds(relX, y, relZ);
+		return this.getSkyLightStorage().get(relX, y, relZ);
+	}
+	@Override
+	public void setDhSkyLight(int relX, int y, int relZ, int lightValue)
+	{
+		this.throwIndexOutOfBoundsIfRelativePosOutsideChunkBounds(relX, y, relZ);
+		this.getSkyLightStorage().set(relX, y, relZ, lightValue);
+	}
+	@Override
+	public void clearDhSkyLighting() { this.getSkyLightStorage().clear(); }
+	
+	private ChunkLightStorage getSkyLightStorage()
+	{
+		if (this.skyLightStorage == null)
+		{
+			this.skyLightStorage = ChunkLightStorage.createSkyLightStorage(this);
+		}
+		return this.skyLightStorage;
+	}
+	
+	
+	/**
+	 * Only sections whose palette contains a light emitting block are checked. <br>
+	 * Synchronized since the list is stored before it's populated,
+	 * so other threads could otherwise see an incomplete list.
+	 */
+	@Override
+	public synchronized ArrayList<DhBlockPos> getWorldBlockLightPosList()
+	{
+		// only populate the list once
+		if (this.blockLightPosList == null)
+		{
+			this.blockLightPosList = new ArrayList<>();
+			
+			int minBlockX = this.getMinBlockX();
+			int minBlockZ = this.getMinBlockZ();
+			for (int sectionIndex = 0; sectionIndex < this.sections.length; sectionIndex++)
+			{
+				PaletteSection section = this.sections[sectionIndex];
+				if (section == null || !section.hasLightEmitter())
+				{
+					continue;
+				}
+				
+				int sectionMinY = this.getSectionMinHeight(sectionIndex);
+				for (int index = 0; index < BLOCKS_PER_SECTION; index++)
+				{
+					int relX = index & 15;
+					int relZ = (index >> 4) & 15;
+					int relY = index >> 8;
+					if (section.getBlockState(relX, relY, relZ).getLightEmission() > 0)
+					{
+						this.blockLightPosList.add(new DhBlockPos(minBlockX + relX, sectionMinY + relY, minBlockZ + relZ));
+					}
+				}
+			}
+		}
+		
+		return this.blockLightPosList;
+	}
+	
+	
+	
+	//===============//
+	// other methods //
+	//===============//
+	
+	@Override
+	public boolean isStillValid() { return this.wrappedLevel.tryGetChunk(this.chunkPos) == this; }
+	
+	
+	
+	//================//
+	// base overrides //
+	//================//
+	
+	@Override
+	public String toString() { return this.getClass().getSimpleName() + this.chunkPos; }
+	
+	
+	
+	//================//
+	// helper classes //
+	//================//
+	
+	/**
+	 * A single 16x16x16 chunk section. <br>
+	 * The data arrays use MC's 1.16+ packing, where values never span multiple longs.
+	 *
+	 * @see <a href="https://minecraft.wiki/w/Chunk_format#Block_Format">Chunk format</a>
+	 */
+	private static class PaletteSection
+	{
+		private final IBlockStateWrapper[] blockPalette;
+		/** null if the palette only has one entry */
+		private final long[] blockData;
+		private final int blockBits;
+		
+		private final IBiomeWrapper[] biomePalette;
+		/** null if the palette only has one entry */
+		private final long[] biomeData;
+		private final int biomeBits;
+		
+		private final boolean hasOnlyAir;
+		private final boolean hasLightEmitter;
+		
+		
+		
+		private PaletteSection(
+				IBlockStateWrapper[] blockPalette, long[] blockData, int blockBits,
+				IBiomeWrapper[] biomePalette, long[] biomeData, int biomeBits)
+		{
+			this.blockPalette = blockPalette;
+			this.blockData = blockData;
+			this.blockBits = blockBits;
+			
+			this.biomePalette = biomePalette;
+			this.biomeData = biomeData;
+			this.biomeBits = biomeBits;
+			
+			boolean hasOnlyAir = true;
+			boolean hasLightEmitter = false;
+			for (int i = 0; i < blockPalette.length; i++)
+			{
+				hasOnlyAir &= blockPalette[i].isAir();
+				hasLightEmitter |= (blockPalette[i].getLightEmission() > 0);
+			}
+			this.hasOnlyAir = hasOnlyAir;
+			this.hasLightEmitter = hasLightEmitter;
+		}
+		
+		/** @return null if the section is malformed */
+		@Nullable
+		public static PaletteSection tryRead(CompoundTag sectionTag, ILevelWrapper levelWrapper, IBiomeWrapper defaultBiome) throws IOException
+		{
+			//========//
+			// blocks //
+			//========//
+			
+			CompoundTag blockStatesTag = sectionTag.getCompound("block_states");
+			ListTag blockPaletteTag = blockStatesTag.getList("palette", Tag.TAG_COMPOUND);
+			if (blockPaletteTag.isEmpty())
+			{
+				return null;
+			}
+			
+			IBlockStateWrapper[] blockPalette = new IBlockStateWrapper[blockPaletteTag.size()];
+			for (int i = 0; i < blockPalette.length; i++)
+			{
+				// unknown blocks are treated as air, the same as MC
+				blockPalette[i] = PaletteEntryCache.getBlockStateWrapper(blockPaletteTag.getCompound(i), levelWrapper);
+			}
+			
+			// MC always uses at least 4 bits for block states
+			int blockBits = (blockPalette.length <= 1) ? 0 : Math.max(4, ceilLog2(blockPalette.length));
+			long[] blockData = readDataArray(blockStatesTag, blockBits, BLOCKS_PER_SECTION);
+			if (blockBits != 0 && blockData == null)
+			{
+				return null;
+			}
+			
+			
+			
+			//========//
+			// biomes //
+			//========//
+			
+			IBiomeWrapper[] biomePalette;
+			int biomeBits;
+			long[] biomeData;
+			
+			CompoundTag biomesTag = sectionTag.getCompound("biomes");
+			ListTag biomePaletteTag = biomesTag.getList("palette", Tag.TAG_STRING);
+			if (!biomePaletteTag.isEmpty())
+			{
+				biomePalette = new IBiomeWrapper[biomePaletteTag.size()];
+				for (int i = 0; i < biomePalette.length; i++)
+				{
+					biomePalette[i] = BiomeWrapper.deserialize(biomePaletteTag.getString(i), levelWrapper);
+				}
+				
+				biomeBits = (biomePalette.length <= 1) ? 0 : ceilLog2(biomePalette.length);
+				biomeData = readDataArray(biomesTag, biomeBits, BIOMES_PER_SECTION);
+				if (biomeBits != 0 && biomeData == null)
+				{
+					return null;
+				}
+			}
+			else
+			{
+				biomePalette = new IBiomeWrapper[] { defaultBiome };
+				biomeBits = 0;
+				biomeData = null;
+			}
+			
+			return new PaletteSection(
+					blockPalette, blockData, blockBits,
+					biomePalette, biomeData, biomeBits);
+		}
+		/** @return null if the data array is missing or the wrong length */
+		@Nullable
+		private static long[] readDataArray(CompoundTag containerTag, int bits, int valueCount)
+		{
+			if (bits == 0)
+			{
+				return null;
+			}
+			
+			long[] data = containerTag.getLongArray("data");
+			int valuesPerLong = 64 / bits;
+			int expectedLength = (valueCount + valuesPerLong - 1) / valuesPerLong;
+			return (data.length == expectedLength) ? data : null;
+		}
+		private static int ceilLog2(int value) { return 32 - Integer.numberOfLeadingZeros(value - 1); }
+		
+		
+		
+		public IBlockStateWrapper getBlockState(int relX, int relY, int relZ)
+		{
+			if (this.blockData == null)
+			{
+				return this.blockPalette[0];
+			}
+			
+			int paletteIndex = getPackedValue(this.blockData, this.blockBits, (relY << 8) | (relZ << 4) | relX);
+			// invalid indices are treated as air, the same as MC
+			return (paletteIndex < this.blockPalette.length) ? this.blockPalette[paletteIndex] : BlockStateWrapper.AIR;
+		}
+		
+		public IBiomeWrapper getBiome(int quartX, int quartY, int quartZ)
+		{
+			if (this.biomeData == null)
+			{
+				return this.biomePalette[0];
+			}
+			
+			int paletteIndex = getPackedValue(this.biomeData, this.biomeBits, (((quartY << 2) | quartZ) << 2) | quartX);
+			return (paletteIndex < this.biomePalette.length) ? this.biomePalette[paletteIndex] : this.biomePalette[0];
+		}
+		
+		private static int getPackedValue(long[] data, int bits, int index)
+		{
+			int valuesPerLong = 64 / bits;
+			int longIndex = index / valuesPerLong;
+			int bitOffset = (index - (longIndex * valuesPerLong)) * bits;
+			return (int) ((data[longIndex] >>> bitOffset) & ((1L << bits) - 1));
+		}
+		
+		
+		
+		/** @return null if the palette has more than one entry */
+		@Nullable
+		public IBlockStateWrapper getUniformBlockState() { return (this.blockData == null) ? this.blockPalette[0] : null; }
+		public boolean hasOnlyAir() { return this.hasOnlyAir; }
+		public boolean hasLightEmitter() { return this.hasLightEmitter; }
+	
+	}
+
+}
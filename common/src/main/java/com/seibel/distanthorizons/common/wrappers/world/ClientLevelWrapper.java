@@ -4,6 +4,7 @@ import com.seibel.distanthorizons.api.enums.worldGeneration.EDhApiLevelType;
 import com.seibel.distanthorizons.api.interfaces.render.IDhApiCustomRenderRegister;
 import com.seibel.distanthorizons.common.wrappers.McObjectConverter;
 import com.seibel.distanthorizons.common.wrappers.block.BiomeWrapper;
+import com.seibel.distanthorizons.common.wrappers.block.BlockStatePropertyTable;
 import com.seibel.distanthorizons.common.wrappers.block.BlockStateWrapper;
 import com.seibel.distanthorizons.common.wrappers.block.ClientBlockStateColorCache;
 import com.seibel.distanthorizons.common.wrappers.chunk.ChunkWrapper;
@@ -68,7 +69,13 @@ public class ClientLevelWrapper implements IClientLevelWrapper
 	// constructor //
 	//=============//
 	
-	protected ClientLevelWrapper(ClientLevel level) { this.level = level; }
+	protected ClientLevelWrapper(ClientLevel level)
+	{
+		this.level = level;
+		
+		// block state IDs may have been remapped when joining a server
+		BlockStatePropertyTable.invalidate();
+	}
 	
 	
 	
@@ -38,15 +38,18 @@ import com.seibel.distanthorizons.core.util.gridList.ArrayGridList;
 import com.seibel.distanthorizons.core.wrapperInterfaces.chunk.ChunkLightStorage;
 import com.seibel.distanthorizons.core.wrapperInterfaces.chunk.IChunkWrapper;
 import com.seibel.distanthorizons.core.wrapperInterfaces.modAccessor.IModChecker;
+import com.seibel.distanthorizons.core.wrapperInterfaces.world.ILevelWrapper;
 import com.seibel.distanthorizons.core.wrapperInterfaces.worldGeneration.AbstractBatchGenerationEnvironmentWrapper;
 import com.seibel.distanthorizons.common.wrappers.chunk.ChunkWrapper;
+import com.seibel.distanthorizons.common.wrappers.chunk.PaletteChunkWrapper;
 
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
-import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -118,6 +121,40 @@ public final class BatchGenerationEnvironment extends AbstractBatchGenerationEnv
 	private static final IModChecker MOD_CHECKER = SingletonInjector.INSTANCE.get(IModChecker.class);
 	
 	
+	/** 
+	 * If true each world gen step will be run by its own {@link GenerationPipeline} stage,
+	 * allowing different steps of different events to run at the same time. <br>
+	 * If false each event will be generated from start to finish on a single thread. <br>
+	 * Both modes generate each event's region passes in the same order. <br><br>
+	 * 
+	 * Can be changed at runtime via "/dh debug pipelinedWorldGen", 
+	 * events that have already started will finish using the mode they started with.
+	 */
+	private static volatile boolean usePipelinedGeneration = true;
+	public static boolean isPipelinedGenerationEnabled() { return usePipelinedGeneration; }
+	public static void setPipelinedGenerationEnabled(boolean enabled) { usePipelinedGeneration = enabled; }
+	/** 
+	 * If true pre-existing chunks that only need to be converted into LODs 
+	 * (IE {@link EDhApiWorldGenerationStep#EMPTY} events) will be read directly into {@link PaletteChunkWrapper}s
+	 * instead of being loaded as MC chunks via {@link ChunkLoader}. <br>
+	 * Only used for MC 1.18.2 and newer.
+	 */
+	public static final boolean USE_PALETTE_CHUNK_READING = true;
+	/** 
+	 * If true each event's pre-existing chunks will be read together, grouped by region file 
+	 * and sorted by where they're stored in each file. <br>
+	 * This helps a lot on slow disks (IE spinning disks or network storage) 
+	 * since reads will be mostly sequential instead of random.
+	 */
+	public static final boolean USE_BATCHED_CHUNK_READING = true;
+	/** 
+	 * If true each pre-existing chunk's region file timestamp is recorded once its event has finished,
+	 * and chunks that haven't been saved since are skipped. <br>
+	 * Disabled since DH only requests LODs it doesn't have, 
+	 * so this should only be enabled when the existing LOD data is known to still be present (IE when refreshing LODs).
+	 */
+	public static final boolean SKIP_UNCHANGED_PRE_EXISTING_CHUNKS = false;
+	
 	private final IDhServerLevel serverlevel;
 	
 	/** 
@@ -139,6 +176,10 @@ public final class BatchGenerationEnvironment extends AbstractBatchGenerationEnv
 	public final StepNoise stepNoise = new StepNoise(this);
 	public final StepSurface stepSurface = new StepSurface(this);
 	public final StepFeatures stepFeatures = new StepFeatures(this);
+	public final GenerationPipeline generationPipeline = new GenerationPipeline(this);
+	public final GenerationEventScheduler eventScheduler = new GenerationEventScheduler(this);
+	/** shared between every event so overlapping border chunks only need to be loaded once */
+	public final GenerationChunkCache borderChunkCache = new GenerationChunkCache();
 	public boolean unsafeThreadingRecorded = false;
 	public static final long EXCEPTION_TIMER_RESET_TIME = TimeUnit.NANOSECONDS.convert(1, TimeUnit.SECONDS);
 	public static final int EXCEPTION_COUNTER_TRIGGER = 20;
@@ -152,7 +193,7 @@ public final class BatchGenerationEnvironment extends AbstractBatchGenerationEnv
 		RegionFileStorageExternalCache cache = this.regionFileStorageCacheRef.get();
 		if (cache == null)
 		{
-			cache = new RegionFileStorageExternalCache(storage);
+			cache = new RegionFileStorageExternalCache(storage, this.serverlevel.getLevelWrapper().getDhSaveFolder());
 			if (!this.regionFileStorageCacheRef.compareAndSet(null, cache))
 			{
 				cache = this.regionFileStorageCacheRef.get();
@@ -160,6 +201,24 @@ public final class BatchGenerationEnvironment extends AbstractBatchGenerationEnv
 		}
 		return cache;
 	}
+	/** @return null if Minecraft's region file storage can't be accessed directly (IE if C2ME is installed) */
+	@Nullable
+	private RegionFileStorageExternalCache tryGetRegionFileCache()
+	{
+		#if MC_VER > MC_1_18_2
+		IOWorker ioWorker = this.params.level.getChunkSource().chunkMap.worker;
+		if (!this.pullExistingChunkAsync && ioWorker.storage != null)
+		{
+			return this.getOrCreateRegionFileCache(ioWorker.storage);
+		}
+		#endif
+		
+		return null;
+	}
+	
+	/** chunks waiting to be released back to the internal server, see {@link BatchGenerationEnvironment#releaseChunksToServer} */
+	private final ConcurrentLinkedQueue<PendingTicketRelease> pendingTicketReleases = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean ticketReleaseScheduled = new AtomicBoolean(false);
 	
 	public static ThreadLocal<Boolean> isDistantGeneratorThread = new ThreadLocal<>();
 	public static boolean isCurrentThreadDistantGeneratorThread() { return (isDistantGeneratorThread.get() != null); }
@@ -357,15 +416,30 @@ public final class BatchGenerationEnvironment extends AbstractBatchGenerationEnv
 			return this.generateChunksViaInternalServerAsync(genEvent);
 		}
 		
+		#if MC_VER >= MC_1_18_2
+		if (USE_PALETTE_CHUNK_READING
+			&& genEvent.targetGenerationStep == EDhApiWorldGenerationStep.EMPTY)
+		{
+			return this.generatePreExistingLodsAsync(genEvent, executor);
+		}
+		#endif
+		
+		return this.generateLodFromChunksAsync(genEvent, executor, new HashSet<>());
+	}
+	/** 
+	 * Loads or creates each chunk in and around the event so MC's world generators can be run on them. 
+	 * 
+	 * @param unchangedChunkPosSet chunks (packed via {@link ChunkPos#toLong()}) that already have up-to-date LODs 
+	 *                             and won't be passed to the event's result consumer
+	 */
+	private CompletableFuture<Void> generateLodFromChunksAsync(GenerationEvent genEvent, Executor executor, HashSet<Long> unchangedChunkPosSet) throws RejectedExecutionException
+	{
 		int borderSize = MAX_WORLD_GEN_CHUNK_BORDER_NEEDED;
 		// genEvent.size - 1 converts the even width size to an odd number for MC compatability
 		int refSize = (genEvent.size - 1) + (borderSize * 2);
 		int refPosX = genEvent.minPos.getX() - borderSize;
 		int refPosZ = genEvent.minPos.getZ() - borderSize;
 		
-		LightGetterAdaptor lightGetterAdaptor = new LightGetterAdaptor(this.params.level);
-		DummyLightEngine dummyLightEngine = new DummyLightEngine(lightGetterAdaptor);
-		
 		
 		
 		//====================================//
@@ -373,159 +447,354 @@ public final class BatchGenerationEnvironment extends AbstractBatchGenerationEnv
 		//====================================//
 		
 		// reused data between each offset
-		Map<DhChunkPos, ChunkLightStorage> chunkSkyLightingByDhPos = Collections.synchronizedMap(new HashMap<>());
-		Map<DhChunkPos, ChunkLightStorage> chunkBlockLightingByDhPos = Collections.synchronizedMap(new HashMap<>());
-		Map<DhChunkPos, ChunkAccess> generatedChunkByDhPos = Collections.synchronizedMap(new HashMap<>());
-		Map<DhChunkPos, ChunkWrapper> chunkWrappersByDhPos = Collections.synchronizedMap(new HashMap<>());
+		// the extra radius of 8 is to account for structure references which need a chunk radius of 8
+		GenerationChunkArena chunkArena = GenerationChunkArena.createForEvent(genEvent, 8);
 		
-		// futures to handle getting empty chunks
-		CompletableFuture<?>[] readFutures = 
-				// the extra radius of 8 is to account for structure references which need a chunk radius of 8
-				getChunkPosToGenerateStream(genEvent.minPos.getX(), genEvent.minPos.getZ(), genEvent.size, 8)
-				.map((chunkPos) -> this.createEmptyOrPreExistingChunkAsync(chunkPos.x, chunkPos.z, chunkSkyLightingByDhPos, chunkBlockLightingByDhPos, generatedChunkByDhPos))
-				.toArray(CompletableFuture[]::new);
+		// future to handle getting empty chunks
+		CompletableFuture<Void> readFuture = this.createEmptyOrPreExistingChunksAsync(chunkArena, getChunkStatusForStep(genEvent.targetGenerationStep));
+		
+		
+		if (usePipelinedGeneration)
+		{
+			// each world gen step is handled by its own stage, 
+			// allowing multiple events to be processed at the same time
+			return readFuture
+				.thenComposeAsync((voidObj) ->
+				{
+					List<RegionPass> regionPasses = this.createRegionPasses(genEvent, refPosX, refPosZ, refSize, chunkArena);
+					return this.generationPipeline.submit(genEvent, regionPasses, executor);
+				}, executor)
+				.thenRun(() -> this.submitGeneratedChunks(genEvent, chunkArena, unchangedChunkPosSet));
+		}
 		
 		
 		// future chain for generation
-		return CompletableFuture.allOf(readFutures)
+		return readFuture
 			.thenRunAsync(() -> 
 			{
-				// offset 1 chunk in both X and Z direction so we can generate an even number of chunks wide
-				// while still submitting an odd number width to MC's internal generators
-				for (int xOffset = 0; xOffset < 2; xOffset++)
+				List<RegionPass> regionPasses = this.createRegionPasses(genEvent, refPosX, refPosZ, refSize, chunkArena);
+				
+				for (int i = 0; i < regionPasses.size(); i++)
 				{
-					// final is so the offset can be used in lambdas
-					final int xOffsetFinal = xOffset;
-					for (int zOffset = 0; zOffset < 2; zOffset++)
+					RegionPass regionPass = regionPasses.get(i);
+					genEvent.threadedParam.makeStructFeat(regionPass.region, this.params);
+					
+					try
 					{
-						final int zOffsetFinal = zOffset;
-						
-						
-						
-						//================//
-						// variable setup //
-						//================//
-						
-						int radius = refSize / 2;
-						int centerX = refPosX + radius + xOffset;
-						int centerZ = refPosZ + radius + zOffset;
-						
-						// get/create the list of chunks we're going to generate
-						IEmptyChunkRetrievalFunc fallbackFunc = 
-								(chunkPosX, chunkPosZ) -> Objects.requireNonNull(
-											generatedChunkByDhPos.get(new DhChunkPos(chunkPosX, chunkPosZ)), 
-											() -> String.format("Requested chunk [%d, %d] unavailable during world generation", chunkPosX, chunkPosZ));
-						
-						ArrayGridList<ChunkAccess> regionChunks = new ArrayGridList<>(
-								refSize,
-								(relX, relZ) -> fallbackFunc.getChunk(
-										relX + refPosX + xOffsetFinal,
-										relZ + refPosZ + zOffsetFinal));
-						
-						ChunkAccess centerChunk = regionChunks.stream()
-								.filter((chunk) -> chunk.getPos().x == centerX && chunk.getPos().z == centerZ)
-								.findFirst()
-								.orElseGet(() -> regionChunks.getFirst());
-						
-						genEvent.refreshTimeout();
-						DhLitWorldGenRegion region = new DhLitWorldGenRegion(
-								centerX, centerZ,
-								centerChunk,
-								this.params.level, dummyLightEngine, regionChunks,
-								ChunkStatus.STRUCTURE_STARTS, radius,
-								// this method shouldn't be necessary since we're passing in a pre-populated
-								// list of chunks, but just in case
-								fallbackFunc
-							);
-						lightGetterAdaptor.setRegion(region);
-						genEvent.threadedParam.makeStructFeat(region, this.params);
-						
-						
-						
-						//=============================//
-						// create chunk wrappers       //
-						// and process existing chunks //
-						//=============================//
-						
-						ArrayGridList<ChunkWrapper> chunkWrapperList = new ArrayGridList<>(regionChunks.gridSize);
-						regionChunks.forEachPos((relX, relZ) ->
-						{
-							// ArrayGridList's use relative positions and don't have a center position
-							// so we need to use the offsetFinal to select the correct position
-							DhChunkPos chunkPos = new DhChunkPos(relX + refPosX + xOffsetFinal, relZ + refPosZ + zOffsetFinal);
-							ChunkAccess chunk = regionChunks.get(relX, relZ);
-							
-							if (chunkWrappersByDhPos.containsKey(chunkPos))
-							{
-								chunkWrapperList.set(relX, relZ, chunkWrappersByDhPos.get(chunkPos));
-							}
-							else if (chunk != null)
-							{
-								// wrap the chunk
-								ChunkWrapper chunkWrapper = new ChunkWrapper(chunk, this.serverlevel.getLevelWrapper());
-								chunkWrapperList.set(relX, relZ, chunkWrapper);
-								
-								// try setting the wrapper's lighting
-								if (chunkBlockLightingByDhPos.containsKey(chunkWrapper.getChunkPos()))
-								{
-									chunkWrapper.setBlockLightStorage(chunkBlockLightingByDhPos.get(chunkWrapper.getChunkPos()));
-									chunkWrapper.setSkyLightStorage(chunkSkyLightingByDhPos.get(chunkWrapper.getChunkPos()));
-									chunkWrapper.setIsDhBlockLightCorrect(true);
-									chunkWrapper.setIsDhSkyLightCorrect(true);
-								}
-								
-								chunkWrappersByDhPos.put(chunkPos, chunkWrapper);
-							}
-							else //if (chunk == null)
-							{
-								LodUtil.assertNotReach("Programmer Error: No chunk found in grid list, position offset is likely wrong.");
-							}
-						});
-						
-						
-						
-						//=================//
-						// generate chunks //
-						//=================//
-						
-						try
-						{
-							this.generateDirect(genEvent, chunkWrapperList, region);
-						}
-						catch (InterruptedException e)
-						{
-							throw new CompletionException(e);
-						}
-						
-						genEvent.timer.nextEvent("cleanup");
+						this.generateDirect(genEvent, regionPass.chunkWrappers, regionPass.region);
 					}
+					catch (InterruptedException e)
+					{
+						throw new CompletionException(e);
+					}
+					
+					genEvent.timer.nextEvent("cleanup");
 				}
 				
-				genEvent.timer.nextEvent("cleanup");
+				this.submitGeneratedChunks(genEvent, chunkArena, unchangedChunkPosSet);
+			}, executor);
+	}
+	/** 
+	 * Reads the event's chunks directly into {@link PaletteChunkWrapper}s, 
+	 * skipping {@link ChunkLoader} and MC's chunk objects entirely. <br>
+	 * If any chunk can't be read this way (IE it's unfinished or uses an unexpected format)
+	 * the whole event falls back to {@link BatchGenerationEnvironment#generateLodFromChunksAsync}. <br><br>
+	 * 
+	 * Unchanged chunks are only skipped and recorded if {@link BatchGenerationEnvironment#SKIP_UNCHANGED_PRE_EXISTING_CHUNKS} is true.
+	 */
+	private CompletableFuture<Void> generatePreExistingLodsAsync(GenerationEvent genEvent, Executor executor) throws RejectedExecutionException
+	{
+		ILevelWrapper levelWrapper = this.serverlevel.getLevelWrapper();
+		int minX = genEvent.minPos.getX();
+		int minZ = genEvent.minPos.getZ();
+		int size = genEvent.size;
+		
+		@Nullable
+		RegionFileStorageExternalCache regionFileCache = this.tryGetRegionFileCache();
+		boolean skipUnchangedChunks = regionFileCache != null && SKIP_UNCHANGED_PRE_EXISTING_CHUNKS;
+		
+		ArrayList<ChunkPos> chunkPosList = new ArrayList<>(size * size);
+		HashSet<Long> unchangedChunkPosSet = new HashSet<>();
+		for (int i = 0; i < size * size; i++)
+		{
+			ChunkPos chunkPos = new ChunkPos(minX + (i % size), minZ + (i / size));
+			if (skipUnchangedChunks && regionFileCache.isChunkUnchangedSinceImport(chunkPos))
+			{
+				// this chunk's LOD is already up to date
+				unchangedChunkPosSet.add(chunkPos.toLong());
+				continue;
+			}
+			
+			chunkPosList.add(chunkPos);
+		}
+		
+		if (chunkPosList.isEmpty())
+		{
+			this.completeEventTimer(genEvent);
+			return CompletableFuture.completedFuture(null);
+		}
+		
+		// timestamps are captured before the chunks are read,
+		// that way if a chunk is saved while we're reading it, it'll be imported again next time
+		int[] regionTimestamps = new int[chunkPosList.size()];
+		if (skipUnchangedChunks)
+		{
+			for (int i = 0; i < chunkPosList.size(); i++)
+			{
+				regionTimestamps[i] = regionFileCache.getChunkTimestamp(chunkPosList.get(i));
+			}
+		}
+		
+		return this.getChunkNbtDataBatchAsync(chunkPosList)
+			.thenComposeAsync((chunkDataByPos) ->
+			{
+				if (skipUnchangedChunks)
+				{
+					// only recorded if the whole event finishes successfully,
+					// so chunks from canceled or failed events will be imported again
+					genEvent.future.thenRun(() -> recordImportTimestamps(regionFileCache, chunkPosList, regionTimestamps, chunkDataByPos));
+				}
 				
+				PaletteChunkWrapper[] chunkWrappers = new PaletteChunkWrapper[chunkPosList.size()];
+				for (int i = 0; i < chunkWrappers.length; i++)
+				{
+					ChunkPos chunkPos = chunkPosList.get(i);
+					CompoundTag chunkData = chunkDataByPos.get(chunkPos.toLong());
+					chunkWrappers[i] = (chunkData != null)
+							? PaletteChunkWrapper.tryRead(chunkData, chunkPos, levelWrapper)
+							: PaletteChunkWrapper.createEmpty(chunkPos, levelWrapper);
+				}
 				
+				// only light chunks that exist, the same as lightGeneratedChunks()
+				ArrayList<IChunkWrapper> preExistingChunkList = new ArrayList<>(chunkWrappers.length);
+				for (int i = 0; i < chunkWrappers.length; i++)
+				{
+					if (chunkWrappers[i] == null)
+					{
+						// this chunk needs MC's full chunk loading logic
+						return this.generateLodFromChunksAsync(genEvent, executor, unchangedChunkPosSet);
+					}
+					
+					if (chunkWrappers[i].isPreExisting())
+					{
+						preExistingChunkList.add(chunkWrappers[i]);
+					}
+				}
 				
-				//=========================//
-				// submit generated chunks //
-				//=========================//
+				try
+				{
+					this.lightPreExistingChunks(genEvent, preExistingChunkList);
+				}
+				catch (InterruptedException e)
+				{
+					throw new CompletionException(e);
+				}
 				
-				Iterator<ChunkPos> iterator = getChunkPosToGenerateStream(genEvent.minPos.getX(), genEvent.minPos.getZ(), genEvent.size, 0).iterator();
-				while (iterator.hasNext())
+				genEvent.timer.nextEvent("cleanup");
+				for (int i = 0; i < chunkWrappers.length; i++)
 				{
-					ChunkPos pos = iterator.next();
-					DhChunkPos dhPos = new DhChunkPos(pos.x, pos.z);
-					ChunkWrapper wrappedChunk = chunkWrappersByDhPos.get(dhPos);
-					genEvent.resultConsumer.accept(wrappedChunk);
+					genEvent.resultConsumer.accept(chunkWrappers[i]);
 				}
 				
-				genEvent.timer.complete();
+				this.completeEventTimer(genEvent);
+				return CompletableFuture.completedFuture(null);
+			}, executor);
+	}
+	/** 
+	 * The timestamps are only kept in memory until the region file cache is closed,
+	 * that way they're written to disk after the level's LODs have been saved. 
+	 */
+	private static void recordImportTimestamps(RegionFileStorageExternalCache regionFileCache, ArrayList<ChunkPos> chunkPosList, int[] regionTimestamps, Map<Long, CompoundTag> chunkDataByPos)
+	{
+		for (int i = 0; i < chunkPosList.size(); i++)
+		{
+			ChunkPos chunkPos = chunkPosList.get(i);
+			if (chunkDataByPos.get(chunkPos.toLong()) != null)
+			{
+				regionFileCache.markChunkImported(chunkPos, regionTimestamps[i]);
+			}
+		}
+	}
+	/** 
+	 * Offsets 1 chunk in both the X and Z direction so we can generate an even number of chunks wide
+	 * while still submitting an odd number width to MC's internal generators. <br>
+	 * This means each event is made up of 4 overlapping regions that need to be generated in order.
+	 */
+	private List<RegionPass> createRegionPasses(
+			GenerationEvent genEvent,
+			int refPosX, int refPosZ, int refSize,
+			GenerationChunkArena chunkArena)
+	{
+		ArrayList<RegionPass> regionPasses = new ArrayList<>(4);
+		
+		for (int xOffset = 0; xOffset < 2; xOffset++)
+		{
+			// final is so the offset can be used in lambdas
+			final int xOffsetFinal = xOffset;
+			for (int zOffset = 0; zOffset < 2; zOffset++)
+			{
+				final int zOffsetFinal = zOffset;
+				
+				
+				
+				//================//
+				// variable setup //
+				//================//
+				
+				int radius = refSize / 2;
+				int centerX = refPosX + radius + xOffset;
+				int centerZ = refPosZ + radius + zOffset;
+				
+				// get/create the list of chunks we're going to generate
+				IEmptyChunkRetrievalFunc fallbackFunc = 
+						(chunkPosX, chunkPosZ) -> Objects.requireNonNull(
+									chunkArena.contains(chunkPosX, chunkPosZ) ? chunkArena.getChunk(chunkPosX, chunkPosZ) : null, 
+									() -> String.format("Requested chunk [%d, %d] unavailable during world generation", chunkPosX, chunkPosZ));
+				
+				ArrayGridList<ChunkAccess> regionChunks = new ArrayGridList<>(
+						refSize,
+						(relX, relZ) -> fallbackFunc.getChunk(
+								relX + refPosX + xOffsetFinal,
+								relZ + refPosZ + zOffsetFinal));
+				
+				ChunkAccess centerChunk = regionChunks.stream()
+						.filter((chunk) -> chunk.getPos().x == centerX && chunk.getPos().z == centerZ)
+						.findFirst()
+						.orElseGet(() -> regionChunks.getFirst());
+				
 				genEvent.refreshTimeout();
-				if (PREF_LOGGER.canMaybeLog())
+				
+				// each region gets its own light getter so regions can be generated on separate threads
+				LightGetterAdaptor lightGetterAdaptor = new LightGetterAdaptor(this.params.level);
+				DummyLightEngine dummyLightEngine = new DummyLightEngine(lightGetterAdaptor);
+				DhLitWorldGenRegion region = new DhLitWorldGenRegion(
+						centerX, centerZ,
+						centerChunk,
+						this.params.level, dummyLightEngine, regionChunks,
+						ChunkStatus.STRUCTURE_STARTS, radius,
+						// this method shouldn't be necessary since we're passing in a pre-populated
+						// list of chunks, but just in case
+						fallbackFunc
+					);
+				lightGetterAdaptor.setRegion(region);
+				
+				
+				
+				//=============================//
+				// create chunk wrappers       //
+				// and process existing chunks //
+				//=============================//
+				
+				ArrayGridList<ChunkWrapper> chunkWrapperList = new ArrayGridList<>(regionChunks.gridSize);
+				regionChunks.forEachPos((relX, relZ) ->
 				{
-					genEvent.threadedParam.perf.recordEvent(genEvent.timer);
-					PREF_LOGGER.debugInc(genEvent.timer.toString());
+					// ArrayGridList's use relative positions and don't have a center position
+					// so we need to use the offsetFinal to select the correct position
+					int chunkPosX = relX + refPosX + xOffsetFinal;
+					int chunkPosZ = relZ + refPosZ + zOffsetFinal;
+					ChunkAccess chunk = regionChunks.get(relX, relZ);
+					
+					ChunkWrapper existingWrapper = chunkArena.getChunkWrapper(chunkPosX, chunkPosZ);
+					if (existingWrapper != null)
+					{
+						chunkWrapperList.set(relX, relZ, existingWrapper);
+					}
+					else if (chunk != null)
+					{
+						// wrap the chunk
+						ChunkWrapper chunkWrapper = new ChunkWrapper(chunk, this.serverlevel.getLevelWrapper());
+						
+						// try setting the wrapper's lighting
+						ChunkLightStorage blockLight = chunkArena.getBlockLight(chunkPosX, chunkPosZ);
+						if (blockLight != null)
+						{
+							chunkWrapper.setBlockLightStorage(blockLight);
+							chunkWrapper.setSkyLightStorage(chunkArena.getSkyLight(chunkPosX, chunkPosZ));
+							chunkWrapper.setIsDhBlockLightCorrect(true);
+							chunkWrapper.setIsDhSkyLightCorrect(true);
+						}
+						
+						chunkWrapperList.set(relX, relZ, chunkArena.setChunkWrapperIfAbsent(chunkPosX, chunkPosZ, chunkWrapper));
+					}
+					else //if (chunk == null)
+					{
+						LodUtil.assertNotReach("Programmer Error: No chunk found in grid list, position offset is likely wrong.");
+					}
+				});
+				
+				regionPasses.add(new RegionPass(region, chunkWrapperList));
+			}
+		}
+		
+		return regionPasses;
+	}
+	private void submitGeneratedChunks(GenerationEvent genEvent, GenerationChunkArena chunkArena, HashSet<Long> unchangedChunkPosSet)
+	{
+		genEvent.timer.nextEvent("cleanup");
+		
+		int minX = genEvent.minPos.getX();
+		int minZ = genEvent.minPos.getZ();
+		for (int x = minX; x < minX + genEvent.size; x++)
+		{
+			for (int z = minZ; z < minZ + genEvent.size; z++)
+			{
+				if (unchangedChunkPosSet.contains(ChunkPos.asLong(x, z)))
+				{
+					// this chunk's LOD is already up to date
+					continue;
 				}
-			}, executor);
+				
+				// every region pass is done, so the chunk won't change anymore,
+				// snapshotting it here means the LOD builder doesn't have to read MC's chunk sections block by block
+				ChunkWrapper chunkWrapper = chunkArena.getChunkWrapper(x, z);
+				if (chunkWrapper != null)
+				{
+					chunkWrapper.snapshotSections();
+				}
+				genEvent.resultConsumer.accept(chunkWrapper);
+			}
+		}
+		
+		this.returnBorderChunksToCache(genEvent, chunkArena);
+		this.completeEventTimer(genEvent);
+	}
+	private void completeEventTimer(GenerationEvent genEvent)
+	{
+		genEvent.timer.complete();
+		genEvent.refreshTimeout();
+		if (PREF_LOGGER.canMaybeLog())
+		{
+			genEvent.threadedParam.perf.recordEvent(genEvent.timer);
+			PREF_LOGGER.debugInc(genEvent.timer.toString());
+		}
+	}
+	/** 
+	 * Border chunks are never submitted as LODs, so they can be safely re-used by later events. <br>
+	 * Chunks inside the generation area are skipped since they may still be in use by the LOD builder.
+	 */
+	private void returnBorderChunksToCache(GenerationEvent genEvent, GenerationChunkArena chunkArena)
+	{
+		int minX = genEvent.minPos.getX();
+		int minZ = genEvent.minPos.getZ();
+		int maxX = minX + genEvent.size;
+		int maxZ = minZ + genEvent.size;
+		
+		for (int i = 0; i < chunkArena.size(); i++)
+		{
+			int chunkX = chunkArena.getChunkXForIndex(i);
+			int chunkZ = chunkArena.getChunkZForIndex(i);
+			if (chunkX >= minX && chunkX < maxX
+				&& chunkZ >= minZ && chunkZ < maxZ)
+			{
+				continue;
+			}
+			
+			ChunkAccess chunk = chunkArena.getChunk(chunkX, chunkZ);
+			if (chunk != null)
+			{
+				this.borderChunkCache.put(chunk, chunkArena.getSkyLight(chunkX, chunkZ), chunkArena.getBlockLight(chunkX, chunkZ));
+			}
+		}
 	}
 	/** @param extraRadius in both the positive and negative directions */
 	private static Stream<ChunkPos> getChunkPosToGenerateStream(int genMinX, int genMinZ, int width, int extraRadius)
@@ -539,58 +808,163 @@ public final class BatchGenerationEnvironment extends AbstractBatchGenerationEnv
 		//);
 	}
 	/** 
-	 * If the given chunk pos already exists in the world, that chunk will be returned,
-	 * otherwise this will return an empty chunk.
+	 * Fills the arena with each chunk that already exists in the world, 
+	 * any chunks that don't exist will be empty. <br>
+	 * Every chunk that has to be read from disk is read in a single batch,
+	 * see {@link BatchGenerationEnvironment#getChunkNbtDataBatchAsync}.
 	 */
-	private CompletableFuture<ChunkAccess> createEmptyOrPreExistingChunkAsync(
-			int x, int z,
-			Map<DhChunkPos, ChunkLightStorage> chunkSkyLightingByDhPos,
-			Map<DhChunkPos, ChunkLightStorage> chunkBlockLightingByDhPos,
-			Map<DhChunkPos, ChunkAccess> generatedChunkByDhPos)
+	private CompletableFuture<Void> createEmptyOrPreExistingChunksAsync(GenerationChunkArena chunkArena, ChunkStatus targetStatus)
 	{
-		ChunkPos chunkPos = new ChunkPos(x, z);
-		DhChunkPos dhChunkPos = new DhChunkPos(x, z);
-		
-		if (generatedChunkByDhPos.containsKey(dhChunkPos))
+		ArrayList<ChunkPos> chunkPosToReadList = new ArrayList<>(chunkArena.size());
+		for (int i = 0; i < chunkArena.size(); i++)
 		{
-			return CompletableFuture.completedFuture(generatedChunkByDhPos.get(dhChunkPos));
+			int x = chunkArena.getChunkXForIndex(i);
+			int z = chunkArena.getChunkZForIndex(i);
+			if (!this.tryGetAlreadyLoadedChunk(x, z, chunkArena, targetStatus))
+			{
+				chunkPosToReadList.add(new ChunkPos(x, z));
+			}
 		}
 		
-		return this.getChunkNbtDataAsync(chunkPos)
-			.thenApply((chunkData) -> 
+		return this.getChunkNbtDataBatchAsync(chunkPosToReadList)
+			.thenAccept((chunkDataByPos) ->
 			{
-				ChunkAccess newChunk = this.loadOrMakeChunk(chunkPos, chunkData);
-				
-				if (Config.Common.LodBuilding.pullLightingForPregeneratedChunks.get())
+				for (int i = 0; i < chunkPosToReadList.size(); i++)
 				{
-					// attempt to get chunk lighting
-					ChunkLoader.CombinedChunkLightStorage combinedLights = ChunkLoader.readLight(newChunk, chunkData);
-					if (combinedLights != null)
-					{
-						chunkSkyLightingByDhPos.put(dhChunkPos, combinedLights.skyLightStorage);
-						chunkBlockLightingByDhPos.put(dhChunkPos, combinedLights.blockLightStorage);
-					}
+					ChunkPos chunkPos = chunkPosToReadList.get(i);
+					this.loadChunkIntoArena(chunkPos, chunkDataByPos.get(chunkPos.toLong()), chunkArena);
 				}
-				
-				return newChunk;
-			})
-			// separate handle so we can cleanly handle missing chunks and/or thrown errors 
-			.handle((newChunk, throwable) -> 
+			});
+	}
+	/** @return true if the chunk was already in the arena or could be pulled from {@link BatchGenerationEnvironment#borderChunkCache} */
+	private boolean tryGetAlreadyLoadedChunk(int x, int z, GenerationChunkArena chunkArena, ChunkStatus targetStatus)
+	{
+		if (chunkArena.getChunk(x, z) != null)
+		{
+			return true;
+		}
+		
+		// a previous event may have already loaded/generated this chunk
+		GenerationChunkCache.CachedChunk cachedChunk = this.borderChunkCache.take(x, z, targetStatus);
+		if (cachedChunk != null)
+		{
+			chunkArena.setChunk(x, z, cachedChunk.chunk, cachedChunk.skyLight, cachedChunk.blockLight);
+			return true;
+		}
+		
+		return false;
+	}
+	/** @return the {@link ChunkStatus} a chunk will have once the given step has been run on it */
+	private static ChunkStatus getChunkStatusForStep(EDhApiWorldGenerationStep step)
+	{
+		switch (step)
+		{
+			case EMPTY:
+				return ChunkStatus.EMPTY;
+			case STRUCTURE_START:
+				return ChunkStatus.STRUCTURE_STARTS;
+			case STRUCTURE_REFERENCE:
+				return ChunkStatus.STRUCTURE_REFERENCES;
+			case BIOMES:
+				return ChunkStatus.BIOMES;
+			case NOISE:
+				return ChunkStatus.NOISE;
+			case SURFACE:
+				return ChunkStatus.SURFACE;
+			case CARVERS:
+				return ChunkStatus.CARVERS;
+			case LIQUID_CARVERS:
+				#if MC_VER <= MC_1_20_4
+				return ChunkStatus.LIQUID_CARVERS;
+				#else
+				// liquid carvers were merged into the carvers step
+				return ChunkStatus.CARVERS;
+				#endif
+			case FEATURES:
+				return ChunkStatus.FEATURES;
+			case LIGHT:
+			default:
+				return ChunkStatus.LIGHT;
+		}
+	}
+	/** @param chunkData null if the chunk doesn't exist, in which case an empty chunk will be created */
+	private void loadChunkIntoArena(ChunkPos chunkPos, @Nullable CompoundTag chunkData, GenerationChunkArena chunkArena)
+	{
+		// separate try so we can cleanly handle missing chunks and/or thrown errors 
+		try
+		{
+			ChunkAccess newChunk = this.loadOrMakeChunk(chunkPos, chunkData);
+			
+			ChunkLoader.CombinedChunkLightStorage combinedLights = null;
+			if (chunkData != null && Config.Common.LodBuilding.pullLightingForPregeneratedChunks.get())
+			{
+				// attempt to get chunk lighting
+				combinedLights = ChunkLoader.readLight(newChunk, chunkData);
+			}
+			
+			if (combinedLights != null)
+			{
+				chunkArena.setChunk(chunkPos.x, chunkPos.z, newChunk, combinedLights.skyLightStorage, combinedLights.blockLightStorage);
+			}
+			else
 			{
-				if (newChunk != null)
+				chunkArena.setChunk(chunkPos.x, chunkPos.z, newChunk, null, null);
+			}
+		}
+		catch (Exception e)
+		{
+			ChunkAccess emptyChunk = CreateEmptyChunk(this.params.level, chunkPos);
+			chunkArena.setChunk(chunkPos.x, chunkPos.z, emptyChunk, null, null);
+		}
+	}
+	/** 
+	 * If {@link BatchGenerationEnvironment#USE_BATCHED_CHUNK_READING} is enabled and the chunks can be read synchronously
+	 * every chunk is read at once via {@link RegionFileStorageExternalCache#readBatch},
+	 * which reads chunks in the order they are stored on disk. <br>
+	 * Otherwise each chunk is read separately.
+	 * 
+	 * @return chunk data keyed by {@link ChunkPos#toLong()}, chunks that don't exist won't be present
+	 */
+	private CompletableFuture<Map<Long, CompoundTag>> getChunkNbtDataBatchAsync(List<ChunkPos> chunkPosList)
+	{
+		#if MC_VER > MC_1_18_2
+		if (USE_BATCHED_CHUNK_READING)
+		{
+			IOWorker ioWorker = this.params.level.getChunkSource().chunkMap.worker;
+			
+			// storage will be null if C2ME is installed
+			if (!this.pullExistingChunkAsync && ioWorker.storage != null)
+			{
+				try
 				{
-					return newChunk;
+					RegionFileStorageExternalCache cache = this.getOrCreateRegionFileCache(ioWorker.storage);
+					return CompletableFuture.completedFuture(cache.readBatch(chunkPosList));
 				}
-				else
+				catch (RuntimeException e)
 				{
-					return CreateEmptyChunk(this.params.level, chunkPos);	
+					EVENT_LOGGER.error("Unexpected issue batch reading pre-existing chunks, falling back to reading each chunk separately.", e);
 				}
-			})
-			.thenApply((newChunk) -> 
-			{
-				generatedChunkByDhPos.put(dhChunkPos, newChunk);
-				return newChunk;
-			});
+			}
+		}
+		#endif
+		
+		
+		ConcurrentHashMap<Long, CompoundTag> chunkDataByPos = new ConcurrentHashMap<>(chunkPosList.size());
+		CompletableFuture<?>[] readFutures = new CompletableFuture[chunkPosList.size()];
+		for (int i = 0; i < chunkPosList.size(); i++)
+		{
+			ChunkPos chunkPos = chunkPosList.get(i);
+			readFutures[i] = this.getChunkNbtDataAsync(chunkPos)
+				.thenAccept((chunkData) ->
+				{
+					if (chunkData != null)
+					{
+						chunkDataByPos.put(chunkPos.toLong(), chunkData);
+					}
+				});
+		}
+		
+		return CompletableFuture.allOf(readFutures).thenApply((voidObj) -> chunkDataByPos);
 	}
 	private CompletableFuture<CompoundTag> getChunkNbtDataAsync(ChunkPos chunkPos)
 	{
@@ -745,34 +1119,36 @@ public final class BatchGenerationEnvironment extends AbstractBatchGenerationEnv
 		// create generation queue runnables //
 		//===================================//
 		
-		// request each chunk pos from the server
-		CompletableFuture<?>[] requestFutures =
-			getChunkPosToGenerateStream(genEvent.minPos.getX(), genEvent.minPos.getZ(), genEvent.size, 0)
-				.map(chunkPos ->
+		// request every chunk pos from the server in a single batch
+		List<ChunkPos> chunkPosList = getChunkPosToGenerateStream(genEvent.minPos.getX(), genEvent.minPos.getZ(), genEvent.size, 0).collect(Collectors.toList());
+		List<CompletableFuture<ChunkAccess>> chunkFutures = this.requestChunksFromServerAsync(chunkPosList, true);
+		
+		CompletableFuture<?>[] requestFutures = new CompletableFuture[chunkPosList.size()];
+		for (int i = 0; i < chunkPosList.size(); i++)
+		{
+			ChunkPos chunkPos = chunkPosList.get(i);
+			requestFutures[i] = chunkFutures.get(i)
+				.whenCompleteAsync((chunk, throwable) ->
 				{
-					return requestChunkFromServerAsync(this.params.level, chunkPos, true)
-						.whenCompleteAsync((chunk, throwable) ->
-						{
-							// unwrap the CompletionException if necessary
-							Throwable actualThrowable = throwable;
-							while (actualThrowable instanceof CompletionException)
-							{
-								actualThrowable = actualThrowable.getCause();
-							}
-							
-							if (throwable != null)
-							{
-								LOAD_LOGGER.warn("DistantHorizons: Couldn't load chunk [" + chunkPos + "] from server, error: [" + actualThrowable.getMessage() + "].", actualThrowable);
-							}
-							
-							if (chunk != null)
-							{
-								ChunkWrapper chunkWrapper = new ChunkWrapper(chunk, this.serverlevel.getLevelWrapper());
-								chunkWrappersByDhPos.put(new DhChunkPos(chunkPos.x, chunkPos.z), chunkWrapper);
-							}
-						}, runnableQueue::add);
-				})
-				.toArray(CompletableFuture[]::new);
+					// unwrap the CompletionException if necessary
+					Throwable actualThrowable = throwable;
+					while (actualThrowable instanceof CompletionException)
+					{
+						actualThrowable = actualThrowable.getCause();
+					}
+					
+					if (throwable != null)
+					{
+						LOAD_LOGGER.warn("DistantHorizons: Couldn't load chunk [" + chunkPos + "] from server, error: [" + actualThrowable.getMessage() + "].", actualThrowable);
+					}
+					
+					if (chunk != null)
+					{
+						ChunkWrapper chunkWrapper = new ChunkWrapper(chunk, this.serverlevel.getLevelWrapper());
+						chunkWrappersByDhPos.put(new DhChunkPos(chunkPos.x, chunkPos.z), chunkWrapper);
+					}
+				}, runnableQueue::add);
+		}
 		
 		// handle each generated chunk
 		CompletableFuture<Void> processGeneratedChunksFuture = 
@@ -784,6 +1160,14 @@ public final class BatchGenerationEnvironment extends AbstractBatchGenerationEnv
 					int maxSkyLight = this.serverlevel.getServerLevelWrapper().hasSkyLight() ? LodUtil.MAX_MC_LIGHT : LodUtil.MIN_MC_LIGHT;
 					
 					ArrayList<IChunkWrapper> generatedChunks = new ArrayList<>(chunkWrappersByDhPos.values());
+					
+					// these chunks are live on the server, so snapshot them
+					// to prevent the server from modifying them while we're reading
+					for (IChunkWrapper iChunkWrapper : generatedChunks)
+					{
+						((ChunkWrapper) iChunkWrapper).snapshotSections();
+					}
+					
 					for (IChunkWrapper iChunkWrapper : generatedChunks)
 					{
 						((ChunkWrapper) iChunkWrapper).recalculateDhHeightMapsIfNeeded();
@@ -807,13 +1191,7 @@ public final class BatchGenerationEnvironment extends AbstractBatchGenerationEnv
 				{
 					// cleanup
 					// release the generated chunks
-					
-					Iterator<ChunkPos> iterator = getChunkPosToGenerateStream(genEvent.minPos.getX(), genEvent.minPos.getZ(), genEvent.size, 0).iterator();
-					while (iterator.hasNext())
-					{
-						ChunkPos chunkPos = iterator.next();
-						releaseChunkToServer(this.params.level, chunkPos, true);
-					}
+					this.releaseChunksToServer(chunkPosList, true);
 					
 					genEvent.timer.complete();
 					genEvent.refreshTimeout();
@@ -845,12 +1223,7 @@ public final class BatchGenerationEnvironment extends AbstractBatchGenerationEnv
 			catch (InterruptedException e)
 			{
 				// interrupted, release chunk to server
-				Iterator<ChunkPos> iterator = getChunkPosToGenerateStream(genEvent.minPos.getX(), genEvent.minPos.getZ(), genEvent.size, 0).iterator();
-				while (iterator.hasNext())
-				{
-					ChunkPos chunkPos = iterator.next();
-					releaseChunkToServer(this.params.level, chunkPos, true);
-				}
+				this.releaseChunksToServer(chunkPosList, true);
 				
 				throw e;
 			}
@@ -858,70 +1231,178 @@ public final class BatchGenerationEnvironment extends AbstractBatchGenerationEnv
 		
 		return processGeneratedChunksFuture;
 	}
-	/** @param generateUpToFeatures if false this generate the chunk up to "FULL" status */
-	private static CompletableFuture<ChunkAccess> requestChunkFromServerAsync(ServerLevel level, ChunkPos pos, boolean generateUpToFeatures)
+	/** 
+	 * Adds a ticket for every given position in a single main thread task,
+	 * that way the distance manager only needs to be updated once per batch.
+	 * 
+	 * @param generateUpToFeatures if false this generate the chunk up to "FULL" status
+	 * @return a future for each position, in the same order as the given positions
+	 */
+	private List<CompletableFuture<ChunkAccess>> requestChunksFromServerAsync(List<ChunkPos> posList, boolean generateUpToFeatures)
 	{
-		return CompletableFuture.supplyAsync(() -> 
+		ServerLevel level = this.params.level;
+		
+		ArrayList<CompletableFuture<ChunkAccess>> chunkFutures = new ArrayList<>(posList.size());
+		for (int i = 0; i < posList.size(); i++)
 		{
-			int chunkLevel;
-			#if MC_VER <= MC_1_19_4
-			// 33 is equivalent to FULL Chunk
-			chunkLevel = generateUpToFeatures ? 33 + ChunkStatus.getDistance(ChunkStatus.FEATURES) : 33;
-			#else
-			// 33 is equivalent to FULL Chunk
-			chunkLevel = generateUpToFeatures ? ChunkLevel.byStatus(ChunkStatus.FEATURES) : 33;
-			#endif
-			
-			level.getChunkSource().distanceManager.addTicket(DH_SERVER_GEN_TICKET, pos, chunkLevel, pos);
-			level.getChunkSource().distanceManager.runAllUpdates(level.getChunkSource().chunkMap); // probably not the most optimal to run updates here, but fast enough
-			ChunkHolder holder = level.getChunkSource().chunkMap.getUpdatingChunkIfPresent(pos.toLong());
-			if (holder == null)
+			chunkFutures.add(new CompletableFuture<>());
+		}
+		
+		try
+		{
+			level.getChunkSource().chunkMap.mainThreadExecutor.execute(() ->
+			{
+				try
+				{
+					int chunkLevel = getServerTicketLevel(generateUpToFeatures);
+					for (int i = 0; i < posList.size(); i++)
+					{
+						ChunkPos pos = posList.get(i);
+						level.getChunkSource().distanceManager.addTicket(DH_SERVER_GEN_TICKET, pos, chunkLevel, pos);
+					}
+					level.getChunkSource().distanceManager.runAllUpdates(level.getChunkSource().chunkMap);
+					
+					for (int i = 0; i < posList.size(); i++)
+					{
+						CompletableFuture<ChunkAccess> chunkFuture = chunkFutures.get(i);
+						ChunkHolder holder = level.getChunkSource().chunkMap.getUpdatingChunkIfPresent(posList.get(i).toLong());
+						if (holder == null)
+						{
+							chunkFuture.completeExceptionally(new IllegalStateException("No chunk holder after ticket has been added"));
+							continue;
+						}
+						
+						try
+						{
+							getFeatureChunkFuture(level, holder).whenComplete((chunk, throwable) ->
+							{
+								if (throwable != null)
+								{
+									chunkFuture.completeExceptionally(throwable);
+								}
+								else
+								{
+									chunkFuture.complete(chunk);
+								}
+							});
+						}
+						catch (Exception e)
+						{
+							chunkFuture.completeExceptionally(e);
+						}
+					}
+				}
+				catch (Exception e)
+				{
+					// does nothing for any futures that were already completed
+					for (int i = 0; i < chunkFutures.size(); i++)
+					{
+						chunkFutures.get(i).completeExceptionally(e);
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			// the server is shutting down
+			for (int i = 0; i < chunkFutures.size(); i++)
 			{
-				throw new IllegalStateException("No chunk holder after ticket has been added");
+				chunkFutures.get(i).completeExceptionally(e);
 			}
-			
-			#if MC_VER <= MC_1_20_4
-			return holder.getOrScheduleFuture(ChunkStatus.FEATURES, level.getChunkSource().chunkMap)
-					.thenApply(result -> result.left().orElseThrow(() -> new RuntimeException(result.right().get().toString()))); // can throw if the server is shutting down
-			#elif MC_VER <= MC_1_20_6
-			return holder.getOrScheduleFuture(ChunkStatus.FEATURES, level.getChunkSource().chunkMap)
-					.thenApply(result -> result.orElseThrow(() -> new RuntimeException(result.toString()))); // can throw if the server is shutting down
-			#else
-			return holder.scheduleChunkGenerationTask(ChunkStatus.FEATURES, level.getChunkSource().chunkMap)
-					.thenApply(result -> result.orElseThrow(() -> new RuntimeException(result.getError()))); // can throw if the server is shutting down
-			#endif
-			
-		}, level.getChunkSource().chunkMap.mainThreadExecutor).thenCompose(Function.identity());
+		}
+		
+		return chunkFutures;
 	}
-	/** @param chunkWasGeneratedUpToFeatures if false this assumes the chunk was generated to "FULL" status */
-	private static void releaseChunkToServer(ServerLevel level, ChunkPos pos, boolean chunkWasGeneratedUpToFeatures)
+	private static CompletableFuture<ChunkAccess> getFeatureChunkFuture(ServerLevel level, ChunkHolder holder)
 	{
-		level.getChunkSource().chunkMap.mainThreadExecutor.execute(() -> 
+		#if MC_VER <= MC_1_20_4
+		return holder.getOrScheduleFuture(ChunkStatus.FEATURES, level.getChunkSource().chunkMap)
+				.thenApply(result -> result.left().orElseThrow(() -> new RuntimeException(result.right().get().toString()))); // can throw if the server is shutting down
+		#elif MC_VER <= MC_1_20_6
+		return holder.getOrScheduleFuture(ChunkStatus.FEATURES, level.getChunkSource().chunkMap)
+				.thenApply(result -> result.orElseThrow(() -> new RuntimeException(result.toString()))); // can throw if the server is shutting down
+		#else
+		return holder.scheduleChunkGenerationTask(ChunkStatus.FEATURES, level.getChunkSource().chunkMap)
+				.thenApply(result -> result.orElseThrow(() -> new RuntimeException(result.getError()))); // can throw if the server is shutting down
+		#endif
+	}
+	/** 
+	 * Queues the given positions' tickets for removal. <br>
+	 * Releases from multiple events are combined into a single main thread task
+	 * so the chunk map only needs to be ticked once per batch.
+	 * 
+	 * @param chunkWasGeneratedUpToFeatures if false this assumes the chunk was generated to "FULL" status 
+	 */
+	private void releaseChunksToServer(List<ChunkPos> posList, boolean chunkWasGeneratedUpToFeatures)
+	{
+		int chunkLevel = getServerTicketLevel(chunkWasGeneratedUpToFeatures);
+		for (int i = 0; i < posList.size(); i++)
+		{
+			this.pendingTicketReleases.add(new PendingTicketRelease(posList.get(i), chunkLevel));
+		}
+		
+		if (this.ticketReleaseScheduled.compareAndSet(false, true))
 		{
 			try
 			{
-				int chunkLevel;
-				#if MC_VER <= MC_1_19_4
-				// 33 is equivalent to FULL Chunk
-				chunkLevel = chunkWasGeneratedUpToFeatures ? 33 + ChunkStatus.getDistance(ChunkStatus.FEATURES) : 33;
-				#else
-				// 33 is equivalent to FULL Chunk
-				chunkLevel = chunkWasGeneratedUpToFeatures ? ChunkLevel.byStatus(ChunkStatus.FEATURES) : 33;
-				#endif
-				
-				level.getChunkSource().distanceManager.removeTicket(DH_SERVER_GEN_TICKET, pos, chunkLevel, pos);
-				
-				// mitigate OOM issues in vanilla chunk system: see https://github.com/pop4959/Chunky/pull/383
-				level.getChunkSource().chunkMap.tick(() -> false);
-				#if MC_VER > MC_1_16_5
-				level.entityManager.tick();
-				#endif
+				this.params.level.getChunkSource().chunkMap.mainThreadExecutor.execute(this::flushTicketReleases);
+			}
+			catch (RejectedExecutionException e)
+			{
+				// the server is shutting down, the tickets will be removed along with the level
+				this.ticketReleaseScheduled.set(false);
+			}
+		}
+	}
+	/** should only be run on the server thread */
+	private void flushTicketReleases()
+	{
+		// cleared before draining so any releases added during the drain will schedule another flush
+		this.ticketReleaseScheduled.set(false);
+		ServerLevel level = this.params.level;
+		
+		boolean ticketRemoved = false;
+		PendingTicketRelease release;
+		while ((release = this.pendingTicketReleases.poll()) != null)
+		{
+			try
+			{
+				level.getChunkSource().distanceManager.removeTicket(DH_SERVER_GEN_TICKET, release.pos, release.chunkLevel, release.pos);
+				ticketRemoved = true;
 			}
 			catch (Exception e)
 			{
 				EVENT_LOGGER.warn("Failed to release chunk back to internal server. Error: ["+e.getMessage()+"]", e);
 			}
-		});
+		}
+		
+		if (!ticketRemoved)
+		{
+			return;
+		}
+		
+		try
+		{
+			// mitigate OOM issues in vanilla chunk system: see https://github.com/pop4959/Chunky/pull/383
+			level.getChunkSource().chunkMap.tick(() -> false);
+			#if MC_VER > MC_1_16_5
+			level.entityManager.tick();
+			#endif
+		}
+		catch (Exception e)
+		{
+			EVENT_LOGGER.warn("Failed to tick internal server chunk map after releasing chunks. Error: ["+e.getMessage()+"]", e);
+		}
+	}
+	private static int getServerTicketLevel(boolean generateUpToFeatures)
+	{
+		#if MC_VER <= MC_1_19_4
+		// 33 is equivalent to FULL Chunk
+		return generateUpToFeatures ? 33 + ChunkStatus.getDistance(ChunkStatus.FEATURES) : 33;
+		#else
+		// 33 is equivalent to FULL Chunk
+		return generateUpToFeatures ? ChunkLevel.byStatus(ChunkStatus.FEATURES) : 33;
+		#endif
 	}
 	
 	public void generateDirect(
@@ -935,16 +1416,7 @@ public final class BatchGenerationEnvironment extends AbstractBatchGenerationEnv
 		
 		try
 		{
-			chunkWrappersToGenerate.forEach((chunkWrapper) ->
-			{
-				ChunkAccess chunk = chunkWrapper.getChunk();
-				if (chunk instanceof ProtoChunk)
-				{
-					ProtoChunk protoChunk = ((ProtoChunk) chunk);
-					
-					protoChunk.setLightEngine(region.getLightEngine());
-				}
-			});
+			setRegionLightEngine(chunkWrappersToGenerate, region);
 			
 			EDhApiWorldGenerationStep step = genEvent.targetGenerationStep;
 			if (step == EDhApiWorldGenerationStep.EMPTY)
@@ -982,7 +1454,7 @@ public final class BatchGenerationEnvironment extends AbstractBatchGenerationEnv
 			
 			genEvent.timer.nextEvent("noise");
 			throwIfThreadInterrupted();
-			this.stepNoise.generateGroup(genEvent.threadedParam, region, GetCutoutFrom(chunkWrappersToGenerate, EDhApiWorldGenerationStep.NOISE));
+			this.stepNoise.generateGroup(genEvent.threadedParam, region, GetCutoutFrom(chunkWrappersToGenerate, EDhApiWorldGenerationStep.NOISE), genEvent.targetGenerationStep);
 			genEvent.refreshTimeout();
 			if (step == EDhApiWorldGenerationStep.NOISE)
 			{
@@ -1013,51 +1485,127 @@ public final class BatchGenerationEnvironment extends AbstractBatchGenerationEnv
 		}
 		finally
 		{
-			genEvent.timer.nextEvent("light");
-			
-			// generate lighting using DH's lighting engine
+			this.lightGeneratedChunks(genEvent, chunkWrappersToGenerate);
+		}
+	}
+	/** Runs a single world gen step for the given region, used by {@link GenerationPipeline}. */
+	public void generateStep(
+			GenerationEvent genEvent, EDhApiWorldGenerationStep step, ThreadedParameters tParams,
+			DhLitWorldGenRegion region, ArrayGridList<ChunkWrapper> chunkWrappersToGenerate) throws InterruptedException
+	{
+		throwIfThreadInterrupted();
+		
+		switch (step)
+		{
+			case STRUCTURE_START:
+				this.stepStructureStart.generateGroup(tParams, region, GetCutoutFrom(chunkWrappersToGenerate, step));
+				break;
+			case STRUCTURE_REFERENCE:
+				this.stepStructureReference.generateGroup(tParams, region, GetCutoutFrom(chunkWrappersToGenerate, step));
+				break;
+			case BIOMES:
+				this.stepBiomes.generateGroup(tParams, region, GetCutoutFrom(chunkWrappersToGenerate, step));
+				break;
+			case NOISE:
+				this.stepNoise.generateGroup(tParams, region, GetCutoutFrom(chunkWrappersToGenerate, step), genEvent.targetGenerationStep);
+				break;
+			case SURFACE:
+				this.stepSurface.generateGroup(tParams, region, GetCutoutFrom(chunkWrappersToGenerate, step));
+				break;
+			case FEATURES:
+				this.stepFeatures.generateGroup(tParams, region, GetCutoutFrom(chunkWrappersToGenerate, step));
+				break;
+			default:
+				// caves can generally be ignored since they aren't generally visible from far away
+				// and the other steps don't have any generation logic
+				break;
+		}
+	}
+	public static void setRegionLightEngine(ArrayGridList<ChunkWrapper> chunkWrappers, DhLitWorldGenRegion region)
+	{
+		chunkWrappers.forEach((chunkWrapper) ->
+		{
+			ChunkAccess chunk = chunkWrapper.getChunk();
+			if (chunk instanceof ProtoChunk)
+			{
+				ProtoChunk protoChunk = ((ProtoChunk) chunk);
 				
-			int maxSkyLight = this.serverlevel.getServerLevelWrapper().hasSkyLight() ? 15 : 0;
+				protoChunk.setLightEngine(region.getLightEngine());
+			}
+		});
+	}
+	public void lightGeneratedChunks(GenerationEvent genEvent, ArrayGridList<ChunkWrapper> chunkWrappersToGenerate) throws InterruptedException
+	{
+		genEvent.timer.nextEvent("light");
+		
+		// generate lighting using DH's lighting engine
 			
-			// only light generated chunks,
-			// attempting to light un-generated chunks will cause lighting issues on bordering generated chunks
-			ArrayList<IChunkWrapper> iChunkWrapperList = new ArrayList<>();
-			for (int i = 0; i < chunkWrappersToGenerate.size(); i++) // regular for loop since enhanced for loops increase GC pressure slightly
+		int maxSkyLight = this.serverlevel.getServerLevelWrapper().hasSkyLight() ? 15 : 0;
+		
+		// only light generated chunks,
+		// attempting to light un-generated chunks will cause lighting issues on bordering generated chunks
+		ArrayList<IChunkWrapper> iChunkWrapperList = new ArrayList<>();
+		for (int i = 0; i < chunkWrappersToGenerate.size(); i++) // regular for loop since enhanced for loops increase GC pressure slightly
+		{
+			ChunkWrapper chunkWrapper = chunkWrappersToGenerate.get(i);
+			if (chunkWrapper.getStatus() != ChunkStatus.EMPTY)
 			{
-				ChunkWrapper chunkWrapper = chunkWrappersToGenerate.get(i);
-				if (chunkWrapper.getStatus() != ChunkStatus.EMPTY)
-				{
-					iChunkWrapperList.add(chunkWrapper);
-				}
+				iChunkWrapperList.add(chunkWrapper);
+			}
+		}
+		
+		// light each chunk in the list
+		for (int i = 0; i < iChunkWrapperList.size(); i++)
+		{
+			ChunkWrapper centerChunk = (ChunkWrapper) iChunkWrapperList.get(i);
+			if (centerChunk == null)
+			{
+				continue;
 			}
 			
-			// light each chunk in the list
-			for (int i = 0; i < iChunkWrapperList.size(); i++)
+			throwIfThreadInterrupted();
+			
+			// make sure the height maps are all properly generated
+			// if this isn't done everything else afterward may fail
+			Heightmap.primeHeightmaps(centerChunk.getChunk(), ChunkStatus.FEATURES.heightmapsAfter());
+			centerChunk.recalculateDhHeightMapsIfNeeded();
+			
+			// pre-generated chunks should have lighting but new ones won't
+			if (!centerChunk.isDhBlockLightingCorrect())
 			{
-				ChunkWrapper centerChunk = (ChunkWrapper) iChunkWrapperList.get(i);
-				if (centerChunk == null)
-				{
-					continue;
-				}
-				
-				throwIfThreadInterrupted();
-				
-				// make sure the height maps are all properly generated
-				// if this isn't done everything else afterward may fail
-				Heightmap.primeHeightmaps(centerChunk.getChunk(), ChunkStatus.FEATURES.heightmapsAfter());
-				centerChunk.recalculateDhHeightMapsIfNeeded();
-				
-				// pre-generated chunks should have lighting but new ones won't
-				if (!centerChunk.isDhBlockLightingCorrect())
-				{
-					DhLightingEngine.INSTANCE.bakeChunkBlockLighting(centerChunk, iChunkWrapperList, maxSkyLight);
-				}
-				
-				this.serverlevel.updateBeaconBeamsForChunk(centerChunk, iChunkWrapperList);
+				DhLightingEngine.INSTANCE.bakeChunkBlockLighting(centerChunk, iChunkWrapperList, maxSkyLight);
 			}
 			
-			genEvent.refreshTimeout();
+			this.serverlevel.updateBeaconBeamsForChunk(centerChunk, iChunkWrapperList);
+		}
+		
+		genEvent.refreshTimeout();
+	}
+	/** 
+	 * Similar to {@link BatchGenerationEnvironment#lightGeneratedChunks} but for {@link PaletteChunkWrapper}s,
+	 * which already have their heightmaps and will generally have their lighting from the chunk's NBT data.
+	 */
+	private void lightPreExistingChunks(GenerationEvent genEvent, ArrayList<IChunkWrapper> chunkWrapperList) throws InterruptedException
+	{
+		genEvent.timer.nextEvent("light");
+		
+		int maxSkyLight = this.serverlevel.getServerLevelWrapper().hasSkyLight() ? 15 : 0;
+		for (int i = 0; i < chunkWrapperList.size(); i++)
+		{
+			IChunkWrapper centerChunk = chunkWrapperList.get(i);
+			
+			throwIfThreadInterrupted();
+			
+			// lighting will be missing if the config doesn't pull lighting for pre-existing chunks
+			if (!centerChunk.isDhBlockLightingCorrect())
+			{
+				DhLightingEngine.INSTANCE.bakeChunkBlockLighting(centerChunk, chunkWrapperList, maxSkyLight);
+			}
+			
+			this.serverlevel.updateBeaconBeamsForChunk(centerChunk, chunkWrapperList);
 		}
+		
+		genEvent.refreshTimeout();
 	}
 	private static <T> ArrayGridList<T> GetCutoutFrom(ArrayGridList<T> total, int border) { return new ArrayGridList<>(total, border, total.gridSize - border); }
 	//private static <T> ArrayGridList<T> GetCutoutFrom(ArrayGridList<T> total, EDhApiWorldGenerationStep step) { return GetCutoutFrom(total, MaxBorderNeeded - WORLD_GEN_CHUNK_BORDER_NEEDED_BY_GEN_STEP.get(step)); }
@@ -1080,6 +1628,9 @@ public final class BatchGenerationEnvironment extends AbstractBatchGenerationEnv
 			event.future.cancel(true);
 			iter.remove();
 		}
+		this.eventScheduler.shutdown();
+		this.generationPipeline.clear();
+		this.borderChunkCache.clear();
 		
 		// clear the chunk cache
 		RegionFileStorageExternalCache regionStorage = this.regionFileStorageCacheRef.get();
@@ -1106,9 +1657,15 @@ public final class BatchGenerationEnvironment extends AbstractBatchGenerationEnv
 	{
 		//System.out.println("GenerationEvent: "+genSize+"@"+minX+","+minZ+" "+targetStep);
 		
+		if (usePipelinedGeneration)
+		{
+			this.generationPipeline.updateWorkerCounts(worldGeneratorThreadPool);
+		}
+		
 		// TODO: Check event overlap via e.tooClose()
-		GenerationEvent genEvent = GenerationEvent.startEvent(new DhChunkPos(minX, minZ), genSize, this, generatorMode, targetStep, resultConsumer, worldGeneratorThreadPool);
+		GenerationEvent genEvent = new GenerationEvent(new DhChunkPos(minX, minZ), genSize, this, generatorMode, targetStep, resultConsumer);
 		this.generationEventList.add(genEvent);
+		this.eventScheduler.submit(genEvent, worldGeneratorThreadPool);
 		return genEvent.future;
 	}
 	
@@ -1143,6 +1700,31 @@ public final class BatchGenerationEnvironment extends AbstractBatchGenerationEnv
 		ChunkAccess getChunk(int chunkPosX, int chunkPosZ);
 	}
 	
+	/** One of the odd width areas that make up a {@link GenerationEvent} */
+	public static class RegionPass
+	{
+		public final DhLitWorldGenRegion region;
+		public final ArrayGridList<ChunkWrapper> chunkWrappers;
+		
+		public RegionPass(DhLitWorldGenRegion region, ArrayGridList<ChunkWrapper> chunkWrappers)
+		{
+			this.region = region;
+			this.chunkWrappers = chunkWrappers;
+		}
+	}
+	
+	private static class PendingTicketRelease
+	{
+		public final ChunkPos pos;
+		public final int chunkLevel;
+		
+		public PendingTicketRelease(ChunkPos pos, int chunkLevel)
+		{
+			this.pos = pos;
+			this.chunkLevel = chunkLevel;
+		}
+	}
+	
 	private static class InclusiveChunkPosStream extends Spliterators.AbstractSpliterator<ChunkPos>
 	{
 		private final int minX;
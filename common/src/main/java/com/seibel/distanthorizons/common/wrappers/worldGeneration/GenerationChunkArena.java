@@ -0,0 +1,164 @@
+/*
+ *    This file is part of the Distant Horizons mod
+ *    licensed under the GNU LGPL v3 License.
+ *
+ *    Copyright (C) 2020 James Seibel
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, version 3.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public License
+ *    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.seibel.distanthorizons.common.wrappers.worldGeneration;
+
+import com.seibel.distanthorizons.common.wrappers.chunk.ChunkWrapper;
+import com.seibel.distanthorizons.core.wrapperInterfaces.chunk.ChunkLightStorage;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Holds every chunk used by a single {@link GenerationEvent}
+ * in flat arrays indexed by the chunk's position relative to {@link GenerationChunkArena#minChunkX}/{@link GenerationChunkArena#minChunkZ}. <br>
+ * This replaces the hash maps previously used so no position objects need to be allocated
+ * and chunks can be read in parallel without contending on a lock. <br><br>
+ *
+ * Thread safety: <br>
+ * Chunks and wrappers are published via {@link AtomicReferenceArray}s.
+ * Lighting is written before its chunk is published, so any thread that
+ * can see a chunk can also see that chunk's lighting.
+ */
+public final class GenerationChunkArena
+{
+	/** inclusive */
+	public final int minChunkX;
+	/** inclusive */
+	public final int minChunkZ;
+	/** the width of the arena in chunks */
+	public final int width;
+	
+	private final AtomicReferenceArray<ChunkAccess> chunks;
+	private final AtomicReferenceArray<ChunkWrapper> chunkWrappers;
+	private final ChunkLightStorage[] skyLights;
+	private final ChunkLightStorage[] blockLights;
+	
+	
+	
+	//=============//
+	// constructor //
+	//=============//
+	
+	/** @param extraRadius how many chunks outside the generation area should also be stored */
+	public static GenerationChunkArena createForEvent(GenerationEvent genEvent, int extraRadius)
+	{
+		return new GenerationChunkArena(
+				genEvent.minPos.getX() - extraRadius, genEvent.minPos.getZ() - extraRadius, 
+				genEvent.size + (extraRadius * 2));
+	}
+	
+	public GenerationChunkArena(int minChunkX, int minChunkZ, int width)
+	{
+		this.minChunkX = minChunkX;
+		this.minChunkZ = minChunkZ;
+		this.width = width;
+		
+		int length = width * width;
+		this.chunks = new AtomicReferenceArray<>(length);
+		this.chunkWrappers = new AtomicReferenceArray<>(length);
+		this.skyLights = new ChunkLightStorage[length];
+		this.blockLights = new ChunkLightStorage[length];
+	}
+	
+	
+	
+	//=========//
+	// indices //
+	//=========//
+	
+	public boolean contains(int chunkX, int chunkZ)
+	{
+		int relX = chunkX - this.minChunkX;
+		int relZ = chunkZ - this.minChunkZ;
+		return relX >= 0 && relX < this.width
+				&& relZ >= 0 && relZ < this.width;
+	}
+	
+	/** @throws IndexOutOfBoundsException if the position is outside this arena */
+	public int getIndex(int chunkX, int chunkZ) throws IndexOutOfBoundsException
+	{
+		if (!this.contains(chunkX, chunkZ))
+		{
+			throw new IndexOutOfBoundsException("Chunk pos [" + chunkX + ", " + chunkZ + "] is outside the generation arena starting at [" + this.minChunkX + ", " + this.minChunkZ + "] with a width of [" + this.width + "].");
+		}
+		
+		return (chunkX - this.minChunkX) + ((chunkZ - this.minChunkZ) * this.width);
+	}
+	
+	/** @return how many chunk positions this arena can hold */
+	public int size() { return this.width * this.width; }
+	
+	public int getChunkXForIndex(int index) { return this.minChunkX + (index % this.width); }
+	public int getChunkZForIndex(int index) { return this.minChunkZ + (index / this.width); }
+	
+	
+	
+	//=========//
+	// getters //
+	//=========//
+	
+	@Nullable
+	public ChunkAccess getChunk(int chunkX, int chunkZ) { return this.chunks.get(this.getIndex(chunkX, chunkZ)); }
+	
+	@Nullable
+	public ChunkWrapper getChunkWrapper(int chunkX, int chunkZ) { return this.chunkWrappers.get(this.getIndex(chunkX, chunkZ)); }
+	
+	/** Should only be called after the chunk at this position has been published. */
+	@Nullable
+	public ChunkLightStorage getSkyLight(int chunkX, int chunkZ) { return this.skyLights[this.getIndex(chunkX, chunkZ)]; }
+	/** Should only be called after the chunk at this position has been published. */
+	@Nullable
+	public ChunkLightStorage getBlockLight(int chunkX, int chunkZ) { return this.blockLights[this.getIndex(chunkX, chunkZ)]; }
+	
+	
+	
+	//=========//
+	// setters //
+	//=========//
+	
+	/**
+	 * Publishes the given chunk and its lighting (if any) so other threads can see them. <br>
+	 * Each position should only be set once.
+	 */
+	public void setChunk(int chunkX, int chunkZ, ChunkAccess chunk, @Nullable ChunkLightStorage skyLight, @Nullable ChunkLightStorage blockLight)
+	{
+		int index = this.getIndex(chunkX, chunkZ);
+		
+		// lighting must be written before the chunk,
+		// the chunk's volatile write makes the lighting visible to any thread that reads the chunk
+		this.skyLights[index] = skyLight;
+		this.blockLights[index] = blockLight;
+		this.chunks.set(index, chunk);
+	}
+	
+	/** @return the wrapper that is stored after this call, which will be the existing wrapper if one was already present */
+	public ChunkWrapper setChunkWrapperIfAbsent(int chunkX, int chunkZ, ChunkWrapper chunkWrapper)
+	{
+		int index = this.getIndex(chunkX, chunkZ);
+		if (this.chunkWrappers.compareAndSet(index, null, chunkWrapper))
+		{
+			return chunkWrapper;
+		}
+		
+		return this.chunkWrappers.get(index);
+	}
+
+}
@@ -0,0 +1,308 @@
+/*
+ *    This file is part of the Distant Horizons mod
+ *    licensed under the GNU LGPL v3 License.
+ *
+ *    Copyright (C) 2020 James Seibel
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, version 3.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public License
+ *    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.seibel.distanthorizons.common.wrappers.worldGeneration;
+
+import com.seibel.distanthorizons.core.wrapperInterfaces.chunk.ChunkLightStorage;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+#if MC_VER <= MC_1_20_4
+import net.minecraft.world.level.chunk.ChunkStatus;
+#else
+import net.minecraft.world.level.chunk.status.ChunkStatus;
+#endif
+
+/**
+ * Holds recently used border chunks so neighboring {@link GenerationEvent}s
+ * don't have to re-read or re-generate the same chunks. <br><br>
+ *
+ * Chunks are keyed by their position and {@link ChunkStatus},
+ * that way each event can pick the cached chunk that best matches its target status. <br><br>
+ *
+ * Chunks are removed from the cache while an event is using them
+ * (see {@link GenerationChunkCache#take}) and are returned once the event finishes,
+ * this way two events can never modify the same chunk at the same time. <br>
+ * If two events need the same chunk at the same time, the second event will
+ * just load the chunk like normal. <br><br>
+ *
+ * Entries are evicted least-recently-used first once
+ * {@link GenerationChunkCache#MAX_CACHE_BYTES} is exceeded,
+ * and any entry older than {@link GenerationChunkCache#MAX_ENTRY_AGE_IN_MS} is dropped.
+ */
+public final class GenerationChunkCache
+{
+	/** Approximate memory limit for all cached chunks */
+	public static final long MAX_CACHE_BYTES = 128L * 1024L * 1024L;
+	/** 
+	 * Chunks older than this will be dropped. <br>
+	 * Prevents using stale border chunks if the server has since generated or modified that area.
+	 */
+	public static final long MAX_ENTRY_AGE_IN_MS = TimeUnit.SECONDS.toMillis(60);
+	/** 
+	 * Checking for expired entries requires walking the whole cache, 
+	 * so it's only done this often.
+	 */
+	private static final long EXPIRY_CHECK_INTERVAL_IN_MS = TimeUnit.SECONDS.toMillis(1);
+	
+	/** rough estimate of a chunk section's block and biome data */
+	private static final int ESTIMATED_BYTES_PER_SECTION = 8 * 1024;
+	/** rough estimate of a chunk section's sky and block lighting */
+	private static final int ESTIMATED_LIGHT_BYTES_PER_SECTION = 4 * 1024;
+	private static final int ESTIMATED_BYTES_PER_CHUNK_OVERHEAD = 2 * 1024;
+	
+	
+	private final ReentrantLock lock = new ReentrantLock();
+	/** access ordered, so the first entry is always the least recently used */
+	private final LinkedHashMap<CacheKey, CachedChunk> cachedChunkByKey = new LinkedHashMap<>(256, 0.75f, true);
+	private long cachedByteCount = 0;
+	private long lastExpiryCheckMs = 0;
+	
+	
+	
+	//=========//
+	// methods //
+	//=========//
+	
+	/**
+	 * Removes and returns the cached chunk at the given position that best matches the target status. <br>
+	 * Chunks that are already at or past the target status are preferred (the closest one first)
+	 * since they don't need any more world gen steps, 
+	 * otherwise the furthest generated chunk below the target status is returned. <br><br>
+	 * 
+	 * The chunk should be returned via {@link GenerationChunkCache#put} once the caller is done with it.
+	 *
+	 * @return null if no chunk is cached for this position
+	 */
+	@Nullable
+	public CachedChunk take(int chunkX, int chunkZ, ChunkStatus targetStatus)
+	{
+		long chunkPos = ChunkPos.asLong(chunkX, chunkZ);
+		List<ChunkStatus> statusList = ChunkStatus.getStatusList();
+		int targetIndex = targetStatus.getIndex();
+		
+		this.lock.lock();
+		try
+		{
+			this.evictExpiredIfNeeded(System.currentTimeMillis());
+			
+			if (this.cachedChunkByKey.isEmpty())
+			{
+				return null;
+			}
+			
+			for (int i = targetIndex; i < statusList.size(); i++)
+			{
+				CachedChunk cachedChunk = this.remove(new CacheKey(chunkPos, i));
+				if (cachedChunk != null)
+				{
+					return cachedChunk;
+				}
+			}
+			
+			for (int i = targetIndex - 1; i >= 0; i--)
+			{
+				CachedChunk cachedChunk = this.remove(new CacheKey(chunkPos, i));
+				if (cachedChunk != null)
+				{
+					return cachedChunk;
+				}
+			}
+			
+			return null;
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+	
+	/** If a chunk is already cached with the same position and status it will be replaced, since the newer chunk is more likely to be up to date. */
+	public void put(ChunkAccess chunk, @Nullable ChunkLightStorage skyLight, @Nullable ChunkLightStorage blockLight)
+	{
+		CachedChunk cachedChunk = new CachedChunk(chunk, skyLight, blockLight, System.currentTimeMillis());
+		CacheKey key = new CacheKey(chunk.getPos().toLong(), cachedChunk.status.getIndex());
+		
+		this.lock.lock();
+		try
+		{
+			CachedChunk replacedChunk = this.cachedChunkByKey.put(key, cachedChunk);
+			if (replacedChunk != null)
+			{
+				this.cachedByteCount -= replacedChunk.estimatedByteCount;
+			}
+			this.cachedByteCount += cachedChunk.estimatedByteCount;
+			
+			this.evictExpiredIfNeeded(cachedChunk.creationTimeMs);
+			
+			// remove least recently used chunks until we're under the size limit
+			Iterator<CachedChunk> iterator = this.cachedChunkByKey.values().iterator();
+			while (this.cachedByteCount > MAX_CACHE_BYTES && iterator.hasNext())
+			{
+				this.cachedByteCount -= iterator.next().estimatedByteCount;
+				iterator.remove();
+			}
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+	
+	public void clear()
+	{
+		this.lock.lock();
+		try
+		{
+			this.cachedChunkByKey.clear();
+			this.cachedByteCount = 0;
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+	
+	/** should only be called while {@link GenerationChunkCache#lock} is held */
+	@Nullable
+	private CachedChunk remove(CacheKey key)
+	{
+		CachedChunk cachedChunk = this.cachedChunkByKey.remove(key);
+		if (cachedChunk != null)
+		{
+			this.cachedByteCount -= cachedChunk.estimatedByteCount;
+		}
+		return cachedChunk;
+	}
+	
+	/** should only be called while {@link GenerationChunkCache#lock} is held */
+	private void evictExpiredIfNeeded(long currentTimeMs)
+	{
+		if (currentTimeMs - this.lastExpiryCheckMs < EXPIRY_CHECK_INTERVAL_IN_MS)
+		{
+			return;
+		}
+		this.lastExpiryCheckMs = currentTimeMs;
+		
+		// the map is in access order, not age order, 
+		// so every entry has to be checked
+		Iterator<CachedChunk> iterator = this.cachedChunkByKey.values().iterator();
+		while (iterator.hasNext())
+		{
+			CachedChunk cachedChunk = iterator.next();
+			if (currentTimeMs - cachedChunk.creationTimeMs >= MAX_ENTRY_AGE_IN_MS)
+			{
+				this.cachedByteCount -= cachedChunk.estimatedByteCount;
+				iterator.remove();
+			}
+		}
+	}
+	
+	
+	
+	//================//
+	// helper classes //
+	//================//
+	
+	private static final class CacheKey
+	{
+		private final long chunkPos;
+		/** see {@link ChunkStatus#getIndex()} */
+		private final int statusIndex;
+		
+		
+		public CacheKey(long chunkPos, int statusIndex)
+		{
+			this.chunkPos = chunkPos;
+			this.statusIndex = statusIndex;
+		}
+		
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof CacheKey))
+			{
+				return false;
+			}
+			
+			CacheKey other = (CacheKey) obj;
+			return this.chunkPos == other.chunkPos
+				&& this.statusIndex == other.statusIndex;
+		}
+		
+		@Override
+		public int hashCode() { return (Long.hashCode(this.chunkPos) * 31) + this.statusIndex; }
+		
+	}
+	
+	public static class CachedChunk
+	{
+		public final ChunkAccess chunk;
+		/** the chunk's status when it was cached */
+		public final ChunkStatus status;
+		@Nullable
+		public final ChunkLightStorage skyLight;
+		@Nullable
+		public final ChunkLightStorage blockLight;
+		
+		public final long creationTimeMs;
+		public final long estimatedByteCount;
+		
+		
+		public CachedChunk(ChunkAccess chunk, @Nullable ChunkLightStorage skyLight, @Nullable ChunkLightStorage blockLight, long creationTimeMs)
+		{
+			this.chunk = chunk;
+			this.status = chunk.getStatus();
+			this.skyLight = skyLight;
+			this.blockLight = blockLight;
+			this.creationTimeMs = creationTimeMs;
+			this.estimatedByteCount = estimateByteCount(chunk, skyLight != null || blockLight != null);
+		}
+		
+		private static long estimateByteCount(ChunkAccess chunk, boolean hasLighting)
+		{
+			int sectionCount = 0;
+			LevelChunkSection[] sections = chunk.getSections();
+			for (int i = 0; i < sections.length; i++)
+			{
+				// sections can be null on older MC versions
+				if (sections[i] != null)
+				{
+					sectionCount++;
+				}
+			}
+			
+			long byteCount = ESTIMATED_BYTES_PER_CHUNK_OVERHEAD + ((long) sectionCount * ESTIMATED_BYTES_PER_SECTION);
+			if (hasLighting)
+			{
+				byteCount += (long) sections.length * ESTIMATED_LIGHT_BYTES_PER_SECTION;
+			}
+			return byteCount;
+		}
+	}
+
+}
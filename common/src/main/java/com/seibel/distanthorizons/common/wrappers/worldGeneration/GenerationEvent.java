@@ -49,7 +49,8 @@ public final class GenerationEvent
 	public EventTimer timer = null;
 	public long inQueueTime;
 	public long timeoutTime = -1;
-	public CompletableFuture<Void> future = null;
+	/** completes once this event has finished generating, or was canceled */
+	public final CompletableFuture<Void> future = new CompletableFuture<>();
 	public final Consumer<IChunkWrapper> resultConsumer;
 	
 	
@@ -70,13 +71,16 @@ public final class GenerationEvent
 	
 	
 	
-	public static GenerationEvent startEvent(
-			DhChunkPos minPos, int size, BatchGenerationEnvironment genEnvironment,
-			EDhApiDistantGeneratorMode generatorMode, EDhApiWorldGenerationStep target, Consumer<IChunkWrapper> resultConsumer,
-			ExecutorService worldGeneratorThreadPool)
+	/**
+	 * Should only be called once, generally by {@link GenerationEventScheduler}.
+	 * 
+	 * @return a future that completes once generation has finished, regardless of whether generation succeeded
+	 * @throws RejectedExecutionException if the thread pool is shutting down
+	 */
+	public CompletableFuture<Void> start(BatchGenerationEnvironment genEnvironment, ExecutorService worldGeneratorThreadPool) throws RejectedExecutionException
 	{
-		GenerationEvent generationEvent = new GenerationEvent(minPos, size, genEnvironment, generatorMode, target, resultConsumer);
-		generationEvent.future = CompletableFuture.supplyAsync(() ->
+		GenerationEvent generationEvent = this;
+		CompletableFuture<Void> generationFuture = CompletableFuture.supplyAsync(() ->
 		{
 			long runStartTime = System.nanoTime();
 			generationEvent.timeoutTime = runStartTime;
@@ -87,7 +91,7 @@ public final class GenerationEvent
 			
 			try
 			{
-				genEnvironment.generateLodFromListAsync(generationEvent, (runnable) -> 
+				return genEnvironment.generateLodFromListAsync(generationEvent, (runnable) -> 
 				{
 					worldGeneratorThreadPool.execute(() ->
 					{
@@ -124,9 +128,21 @@ public final class GenerationEvent
 				BatchGenerationEnvironment.isDistantGeneratorThread.remove();
 			}
 			
+			return CompletableFuture.<Void>completedFuture(null);
+		}, worldGeneratorThreadPool)
+		.thenCompose((future) -> future);
+		
+		return generationFuture.handle((voidObj, throwable) ->
+		{
+			if (throwable != null)
+			{
+				handleWorldGenThrowable(generationEvent, throwable);
+			}
+			
+			// does nothing if the future was already canceled or completed exceptionally
+			generationEvent.future.complete(null);
 			return null;
-		}, worldGeneratorThreadPool);
-		return generationEvent;
+		});
 	}
 	/** There's probably a better way to handle this, but it'll work for now */
 	private static void handleWorldGenThrowable(GenerationEvent generationEvent, Throwable initialThrowable)
@@ -0,0 +1,516 @@
+/*
+ *    This file is part of the Distant Horizons mod
+ *    licensed under the GNU LGPL v3 License.
+ *
+ *    Copyright (C) 2020 James Seibel
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, version 3.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public License
+ *    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.seibel.distanthorizons.common.wrappers.worldGeneration;
+
+import com.seibel.distanthorizons.common.wrappers.misc.ServerPlayerWrapper;
+import com.seibel.distanthorizons.core.logging.DhLoggerBuilder;
+import com.seibel.distanthorizons.core.util.LodUtil;
+import com.seibel.distanthorizons.core.util.math.Vec3d;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.phys.Vec3;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decides which {@link GenerationEvent} should be started next. <br><br>
+ * 
+ * Events are queued here instead of being submitted directly to the world generator thread pool
+ * so they can be re-ordered based on the current player positions whenever a new event is started. <br>
+ * Events closer to a player, in front of a player, or that have been waiting a long time are started first. <br>
+ * Queued player driven events that are outside every player's generation radius are canceled,
+ * events requested by "/dh pregen" are never canceled this way, see {@link GenerationEventScheduler#addPregenArea}. <br><br>
+ * 
+ * Player positions are captured on the server thread at the end of each server tick
+ * (see {@link ServerTickGovernor#addTickEndListener}), so the world gen threads never touch MC's player list.
+ */
+public class GenerationEventScheduler
+{
+	private static final Logger LOGGER = DhLoggerBuilder.getLogger();
+	
+	/** 
+	 * How many events can be running per world generator thread. <br>
+	 * More than 1 is needed so the {@link GenerationPipeline} always has work for each stage.
+	 */
+	public static final int MAX_RUNNING_EVENTS_PER_THREAD = 2;
+	/** How many chunks closer an event is treated for each second it has been waiting, prevents far away events from starving. */
+	public static final double STALENESS_CHUNKS_PER_SECOND = 1.0;
+	/** 
+	 * 0 = player facing is ignored. <br>
+	 * 1 = events directly in front of a player are treated as if they had a distance of 0.
+	 */
+	public static final double FACING_WEIGHT = 0.5;
+	
+	/** 
+	 * Player driven events further than this from every player are canceled. <br>
+	 * Core doesn't tell the server how far each player's LODs reach,
+	 * so this is the largest LOD render distance a client can use,
+	 * that way events a player may still need are never dropped. 
+	 */
+	public static final int MAX_PLAYER_GENERATION_RADIUS_IN_CHUNKS = 4096;
+	
+	/** 20 ticks = 1 second */
+	private static final int PLAYER_REFRESH_INTERVAL_IN_TICKS = 5;
+	
+	/** areas currently being generated by "/dh pregen" */
+	private static final CopyOnWriteArrayList<PregenArea> ACTIVE_PREGEN_AREAS = new CopyOnWriteArrayList<>();
+	
+	
+	private final BatchGenerationEnvironment environment;
+	
+	private final ReentrantLock lock = new ReentrantLock();
+	/** not sorted since the priorities change as players move */
+	private final ArrayList<QueuedEvent> queuedEvents = new ArrayList<>();
+	private int runningEventCount = 0;
+	
+	/** written on the server thread, read by the world gen threads */
+	private volatile PlayerSnapshot[] playerSnapshots = new PlayerSnapshot[0];
+	/** only accessed on the server thread */
+	private int ticksSincePlayerRefresh = PLAYER_REFRESH_INTERVAL_IN_TICKS;
+	private final Runnable serverTickListener = this::onServerTickEnd;
+	
+	
+	
+	//=============//
+	// constructor //
+	//=============//
+	
+	public GenerationEventScheduler(BatchGenerationEnvironment environment)
+	{
+		this.environment = environment;
+		ServerTickGovernor.INSTANCE.addTickEndListener(this.serverTickListener);
+	}
+	
+	
+	
+	//=================//
+	// pregen tracking //
+	//=================//
+	
+	/** 
+	 * Events inside this area will be treated as pregen events and won't be canceled by player distance. <br>
+	 * {@link GenerationEventScheduler#removePregenArea} must be called once the pregen is done.
+	 */
+	public static PregenArea addPregenArea(ServerLevel level, int centerChunkX, int centerChunkZ, int chunkRadius)
+	{
+		PregenArea area = new PregenArea(level, centerChunkX, centerChunkZ, chunkRadius);
+		ACTIVE_PREGEN_AREAS.add(area);
+		return area;
+	}
+	public static void removePregenArea(PregenArea area) { ACTIVE_PREGEN_AREAS.remove(area); }
+	
+	private boolean isInPregenArea(GenerationEvent genEvent)
+	{
+		for (PregenArea area : ACTIVE_PREGEN_AREAS)
+		{
+			if (area.level == this.environment.params.level
+				&& area.overlaps(genEvent))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	
+	
+	//============//
+	// scheduling //
+	//============//
+	
+	public void submit(GenerationEvent genEvent, ExecutorService worldGeneratorThreadPool)
+	{
+		// determined when the event is queued since the pregen may finish before the event is started
+		boolean fromPregen = this.isInPregenArea(genEvent);
+		
+		this.lock.lock();
+		try
+		{
+			this.queuedEvents.add(new QueuedEvent(genEvent, fromPregen));
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+		
+		this.startQueuedEvents(worldGeneratorThreadPool);
+	}
+	
+	/** Removes every queued event, running events aren't affected. */
+	public void clear()
+	{
+		this.lock.lock();
+		try
+		{
+			for (int i = 0; i < this.queuedEvents.size(); i++)
+			{
+				this.queuedEvents.get(i).genEvent.future.cancel(true);
+			}
+			this.queuedEvents.clear();
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+	/** Removes every queued event and stops listening to server ticks, should be called when the level is unloaded. */
+	public void shutdown()
+	{
+		ServerTickGovernor.INSTANCE.removeTickEndListener(this.serverTickListener);
+		this.clear();
+	}
+	
+	private void startQueuedEvents(ExecutorService worldGeneratorThreadPool)
+	{
+		// fewer events are run at once if the server is lagging
+		int maxRunningEventCount = ServerTickGovernor.INSTANCE.throttle(GenerationPipeline.getThreadCount(worldGeneratorThreadPool) * MAX_RUNNING_EVENTS_PER_THREAD);
+		
+		while (true)
+		{
+			GenerationEvent nextEvent;
+			
+			this.lock.lock();
+			try
+			{
+				if (this.runningEventCount >= maxRunningEventCount)
+				{
+					return;
+				}
+				
+				if (BatchGenerationEnvironment.isPipelinedGenerationEnabled() 
+					&& !this.environment.generationPipeline.hasCapacity())
+				{
+					// back-pressure from the pipeline,
+					// the next event will be started once a running event finishes
+					return;
+				}
+				
+				nextEvent = this.pollHighestPriorityEvent();
+				if (nextEvent == null)
+				{
+					return;
+				}
+				
+				this.runningEventCount++;
+			}
+			finally
+			{
+				this.lock.unlock();
+			}
+			
+			
+			try
+			{
+				nextEvent.start(this.environment, worldGeneratorThreadPool)
+					.whenComplete((voidObj, throwable) -> this.onEventDone(worldGeneratorThreadPool));
+			}
+			catch (RejectedExecutionException e)
+			{
+				// the thread pool is shutting down
+				nextEvent.future.cancel(true);
+				this.decrementRunningEventCount();
+				return;
+			}
+			catch (Exception e)
+			{
+				// only this event failed, the rest of the queue can still be started
+				LOGGER.error("Unable to start world gen event ["+nextEvent+"], error: ["+e.getMessage()+"].", e);
+				nextEvent.future.completeExceptionally(e);
+				this.decrementRunningEventCount();
+			}
+		}
+	}
+	/** 
+	 * Any exception thrown here would be swallowed by the completed event's future, 
+	 * so they're logged instead, otherwise queued events might never be started.
+	 */
+	private void onEventDone(ExecutorService worldGeneratorThreadPool)
+	{
+		this.decrementRunningEventCount();
+		
+		try
+		{
+			if (!worldGeneratorThreadPool.isShutdown())
+			{
+				this.startQueuedEvents(worldGeneratorThreadPool);
+			}
+		}
+		catch (Exception e)
+		{
+			LOGGER.error("Unexpected error while starting queued world gen events, error: ["+e.getMessage()+"].", e);
+		}
+	}
+	private void decrementRunningEventCount()
+	{
+		this.lock.lock();
+		try
+		{
+			this.runningEventCount--;
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+	
+	/** 
+	 * Should only be called while {@link GenerationEventScheduler#lock} is held. <br>
+	 * Also cancels any events that are no longer needed.
+	 * 
+	 * @return null if no events are queued
+	 */
+	private GenerationEvent pollHighestPriorityEvent()
+	{
+		PlayerSnapshot[] players = this.playerSnapshots;
+		long currentTime = System.nanoTime();
+		
+		int bestIndex = -1;
+		double bestScore = Double.MAX_VALUE;
+		for (int i = 0; i < this.queuedEvents.size(); i++)
+		{
+			QueuedEvent queuedEvent = this.queuedEvents.get(i);
+			GenerationEvent genEvent = queuedEvent.genEvent;
+			
+			if (genEvent.future.isDone()
+				|| (!queuedEvent.fromPregen 
+					&& isOutsideEveryPlayersRadius(genEvent, players, MAX_PLAYER_GENERATION_RADIUS_IN_CHUNKS)))
+			{
+				// either the event was canceled elsewhere
+				// or every player has moved too far away for this event to be needed
+				genEvent.future.cancel(true);
+				
+				// swap remove, order doesn't matter
+				int lastIndex = this.queuedEvents.size() - 1;
+				this.queuedEvents.set(i, this.queuedEvents.get(lastIndex));
+				this.queuedEvents.remove(lastIndex);
+				i--;
+				continue;
+			}
+			
+			double distance = getNearestPlayerDistance(genEvent, players);
+			double waitTimeInSec = (currentTime - genEvent.inQueueTime) / (double) TimeUnit.SECONDS.toNanos(1);
+			double score = getFacingAdjustedDistance(genEvent, players, distance) - (waitTimeInSec * STALENESS_CHUNKS_PER_SECOND);
+			if (score < bestScore)
+			{
+				bestScore = score;
+				bestIndex = i;
+			}
+		}
+		
+		if (bestIndex == -1)
+		{
+			return null;
+		}
+		
+		int lastIndex = this.queuedEvents.size() - 1;
+		GenerationEvent bestEvent = this.queuedEvents.get(bestIndex).genEvent;
+		this.queuedEvents.set(bestIndex, this.queuedEvents.get(lastIndex));
+		this.queuedEvents.remove(lastIndex);
+		return bestEvent;
+	}
+	
+	
+	
+	//=========//
+	// players //
+	//=========//
+	
+	/** Called on the server thread, see {@link ServerTickGovernor#addTickEndListener}. */
+	private void onServerTickEnd()
+	{
+		this.ticksSincePlayerRefresh++;
+		if (this.ticksSincePlayerRefresh < PLAYER_REFRESH_INTERVAL_IN_TICKS)
+		{
+			return;
+		}
+		this.ticksSincePlayerRefresh = 0;
+		
+		
+		GlobalParameters params = this.environment.params;
+		if (params == null)
+		{
+			// the environment hasn't finished being constructed yet
+			return;
+		}
+		
+		List<ServerPlayer> players = params.level.players();
+		PlayerSnapshot[] newSnapshots = new PlayerSnapshot[players.size()];
+		for (int i = 0; i < players.size(); i++)
+		{
+			ServerPlayer player = players.get(i);
+			Vec3d position = ServerPlayerWrapper.getWrapper(player).getPosition();
+			Vec3 lookAngle = player.getLookAngle();
+			newSnapshots[i] = new PlayerSnapshot(position.x, position.z, lookAngle.x, lookAngle.z);
+		}
+		this.playerSnapshots = newSnapshots;
+	}
+	
+	/** @return 0 if no players are present */
+	private static double getNearestPlayerDistance(GenerationEvent genEvent, PlayerSnapshot[] players)
+	{
+		if (players.length == 0)
+		{
+			// no players, generally this means the server is pre-generating,
+			// so every event has the same priority
+			return 0;
+		}
+		
+		double eventCenterX = getEventCenterBlockPos(genEvent.minPos.getX(), genEvent.size);
+		double eventCenterZ = getEventCenterBlockPos(genEvent.minPos.getZ(), genEvent.size);
+		
+		double nearestDistanceSquared = Double.MAX_VALUE;
+		for (int i = 0; i < players.length; i++)
+		{
+			double xDiff = eventCenterX - players[i].blockX;
+			double zDiff = eventCenterZ - players[i].blockZ;
+			nearestDistanceSquared = Math.min(nearestDistanceSquared, (xDiff * xDiff) + (zDiff * zDiff));
+		}
+		return Math.sqrt(nearestDistanceSquared) / LodUtil.CHUNK_WIDTH;
+	}
+	
+	/** 
+	 * @return true if no part of the event is within the given radius of any player. <br>
+	 *         False if no players are present, since there's nothing to measure against.
+	 */
+	private static boolean isOutsideEveryPlayersRadius(GenerationEvent genEvent, PlayerSnapshot[] players, int radiusInChunks)
+	{
+		if (players.length == 0)
+		{
+			return false;
+		}
+		
+		double minBlockX = genEvent.minPos.getX() * (double) LodUtil.CHUNK_WIDTH;
+		double minBlockZ = genEvent.minPos.getZ() * (double) LodUtil.CHUNK_WIDTH;
+		double maxBlockX = minBlockX + (genEvent.size * (double) LodUtil.CHUNK_WIDTH);
+		double maxBlockZ = minBlockZ + (genEvent.size * (double) LodUtil.CHUNK_WIDTH);
+		double radiusInBlocks = radiusInChunks * (double) LodUtil.CHUNK_WIDTH;
+		
+		for (int i = 0; i < players.length; i++)
+		{
+			// distance to the closest point of the event, 0 if the player is inside it
+			double xDiff = Math.max(0, Math.max(minBlockX - players[i].blockX, players[i].blockX - maxBlockX));
+			double zDiff = Math.max(0, Math.max(minBlockZ - players[i].blockZ, players[i].blockZ - maxBlockZ));
+			if ((xDiff * xDiff) + (zDiff * zDiff) <= radiusInBlocks * radiusInBlocks)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/** Events in front of a player are treated as being closer than those behind them. */
+	private static double getFacingAdjustedDistance(GenerationEvent genEvent, PlayerSnapshot[] players, double distance)
+	{
+		double eventCenterX = getEventCenterBlockPos(genEvent.minPos.getX(), genEvent.size);
+		double eventCenterZ = getEventCenterBlockPos(genEvent.minPos.getZ(), genEvent.size);
+		
+		double bestFacing = 0;
+		for (int i = 0; i < players.length; i++)
+		{
+			PlayerSnapshot player = players[i];
+			double xDiff = eventCenterX - player.blockX;
+			double zDiff = eventCenterZ - player.blockZ;
+			double diffLength = Math.sqrt((xDiff * xDiff) + (zDiff * zDiff));
+			if (diffLength == 0 || player.lookLength == 0)
+			{
+				continue;
+			}
+			
+			// cosine between where the player is looking and the event's direction
+			double facing = ((xDiff * player.lookX) + (zDiff * player.lookZ)) / (diffLength * player.lookLength);
+			bestFacing = Math.max(bestFacing, facing);
+		}
+		
+		return distance * (1.0 - (FACING_WEIGHT * bestFacing));
+	}
+	
+	private static double getEventCenterBlockPos(int minChunkPos, int chunkWidth) { return (minChunkPos + (chunkWidth / 2.0)) * LodUtil.CHUNK_WIDTH; }
+	
+	
+	
+	//================//
+	// helper classes //
+	//================//
+	
+	private static class QueuedEvent
+	{
+		public final GenerationEvent genEvent;
+		/** true if the event was requested by "/dh pregen", false if it was requested for a player */
+		public final boolean fromPregen;
+		
+		public QueuedEvent(GenerationEvent genEvent, boolean fromPregen)
+		{
+			this.genEvent = genEvent;
+			this.fromPregen = fromPregen;
+		}
+	}
+	
+	public static class PregenArea
+	{
+		public final ServerLevel level;
+		public final int minChunkX;
+		public final int minChunkZ;
+		public final int maxChunkX;
+		public final int maxChunkZ;
+		
+		private PregenArea(ServerLevel level, int centerChunkX, int centerChunkZ, int chunkRadius)
+		{
+			this.level = level;
+			this.minChunkX = centerChunkX - chunkRadius;
+			this.minChunkZ = centerChunkZ - chunkRadius;
+			this.maxChunkX = centerChunkX + chunkRadius;
+			this.maxChunkZ = centerChunkZ + chunkRadius;
+		}
+		
+		public boolean overlaps(GenerationEvent genEvent)
+		{
+			int eventMinX = genEvent.minPos.getX();
+			int eventMinZ = genEvent.minPos.getZ();
+			return eventMinX <= this.maxChunkX && eventMinX + genEvent.size > this.minChunkX
+				&& eventMinZ <= this.maxChunkZ && eventMinZ + genEvent.size > this.minChunkZ;
+		}
+	}
+	
+	private static class PlayerSnapshot
+	{
+		public final double blockX;
+		public final double blockZ;
+		public final double lookX;
+		public final double lookZ;
+		public final double lookLength;
+		
+		public PlayerSnapshot(double blockX, double blockZ, double lookX, double lookZ)
+		{
+			this.blockX = blockX;
+			this.blockZ = blockZ;
+			this.lookX = lookX;
+			this.lookZ = lookZ;
+			this.lookLength = Math.sqrt((lookX * lookX) + (lookZ * lookZ));
+		}
+	}
+
+}
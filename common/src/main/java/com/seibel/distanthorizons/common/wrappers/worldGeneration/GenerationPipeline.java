@@ -0,0 +1,565 @@
+/*
+ *    This file is part of the Distant Horizons mod
+ *    licensed under the GNU LGPL v3 License.
+ *
+ *    Copyright (C) 2020 James Seibel
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, version 3.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public License
+ *    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.seibel.distanthorizons.common.wrappers.worldGeneration;
+
+import com.seibel.distanthorizons.api.enums.worldGeneration.EDhApiWorldGenerationStep;
+import com.seibel.distanthorizons.common.wrappers.worldGeneration.BatchGenerationEnvironment.RegionPass;
+import com.seibel.distanthorizons.core.logging.DhLoggerBuilder;
+import org.apache.logging.log4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits world generation into separate stages (structures, biomes, noise, surface, features, and lighting),
+ * each with its own bounded queue and worker limit. <br>
+ * This allows the noise step for one {@link GenerationEvent} to run at the same time
+ * as the feature step for another, instead of a single thread holding onto an event for its whole lifetime. <br><br>
+ *
+ * All stages run on the world generator thread pool, each stage is just limited
+ * in how many of that pool's threads it can use at once. <br><br>
+ * 
+ * Each stage's queue is bounded, a task is only taken from a stage once it has reserved 
+ * a spot in the next stage's queue. If the next stage is full the task waits where it is,
+ * so slow stages (IE noise) push back on the stages before them instead of building up a backlog. <br>
+ * Workers never block while waiting, they just stop and are restarted once the next stage has room. <br>
+ * Tasks entering the first stage don't need a reservation, 
+ * otherwise the last stage could end up waiting on the first. {@link GenerationEventScheduler} 
+ * limits how many events can be running at once and checks {@link GenerationPipeline#hasCapacity()} 
+ * before starting new ones, so the first stage is still bounded. <br><br>
+ * 
+ * Region passes are run one at a time, each going through every stage (including lighting)
+ * before the next pass is started. This is the same order used when pipelining is disabled, 
+ * since each pass overlaps the previous one and expects it to be fully generated.
+ *
+ * @see BatchGenerationEnvironment#setPipelinedGenerationEnabled
+ */
+public final class GenerationPipeline
+{
+	private static final Logger LOGGER = DhLoggerBuilder.getLogger();
+	
+	/** how many tasks can be waiting in a stage's queue for each of that stage's workers */
+	public static final int QUEUED_TASKS_PER_WORKER = 2;
+	
+	private final BatchGenerationEnvironment environment;
+	private final Stage[] stages;
+	
+	/** volatile since this is updated by whichever thread submits the next event */
+	private volatile int lastThreadCount = -1;
+	
+	
+	
+	//=============//
+	// constructor //
+	//=============//
+	
+	public GenerationPipeline(BatchGenerationEnvironment environment)
+	{
+		this.environment = environment;
+		
+		EPipelineStage[] stageTypes = EPipelineStage.values();
+		this.stages = new Stage[stageTypes.length];
+		for (int i = 0; i < stageTypes.length; i++)
+		{
+			this.stages[i] = new Stage(i, stageTypes[i]);
+		}
+	}
+	
+	
+	
+	//===============//
+	// worker counts //
+	//===============//
+	
+	/**
+	 * Splits the given thread pool's threads between each stage based on how long each stage generally takes. <br>
+	 * Every stage can always use at least 1 thread. <br>
+	 * If the server is lagging fewer threads will be used, see {@link ServerTickGovernor}.
+	 */
+	public void updateWorkerCounts(ExecutorService worldGeneratorThreadPool)
+	{
+		int threadCount = ServerTickGovernor.INSTANCE.throttle(getThreadCount(worldGeneratorThreadPool));
+		if (threadCount == this.lastThreadCount)
+		{
+			return;
+		}
+		this.lastThreadCount = threadCount;
+		
+		
+		StringBuilder stringBuilder = new StringBuilder();
+		for (Stage stage : this.stages)
+		{
+			stage.maxWorkerCount = Math.max(1, (int) Math.ceil(threadCount * stage.type.relativeCost));
+			stringBuilder.append(stage.type).append(": ").append(stage.maxWorkerCount).append(", ");
+		}
+		LOGGER.debug("World gen pipeline worker counts for [" + threadCount + "] threads: [" + stringBuilder + "].");
+	}
+	
+	
+	
+	public static int getThreadCount(ExecutorService worldGeneratorThreadPool)
+	{
+		if (worldGeneratorThreadPool instanceof ThreadPoolExecutor)
+		{
+			return ((ThreadPoolExecutor) worldGeneratorThreadPool).getMaximumPoolSize();
+		}
+		else
+		{
+			return Runtime.getRuntime().availableProcessors();
+		}
+	}
+	
+	
+	
+	//============//
+	// submitting //
+	//============//
+	
+	/**
+	 * @param executor the world generator thread pool
+	 * @return a future that completes once every requested step and lighting has been run on the given region passes
+	 */
+	public CompletableFuture<Void> submit(GenerationEvent genEvent, List<RegionPass> regionPasses, Executor executor)
+	{
+		for (int i = 0; i < regionPasses.size(); i++)
+		{
+			RegionPass regionPass = regionPasses.get(i);
+			BatchGenerationEnvironment.setRegionLightEngine(regionPass.chunkWrappers, regionPass.region);
+		}
+		
+		PipelineTask task = new PipelineTask(genEvent, regionPasses, executor);
+		this.enqueueFirstStage(task);
+		return task.future;
+	}
+	
+	/** @return false if the first stage's queue is full and no new events should be started */
+	public boolean hasCapacity() { return this.stages[0].hasRoom(); }
+	
+	/** cancels every event that is waiting for a stage */
+	public void clear()
+	{
+		for (Stage stage : this.stages)
+		{
+			// locked so a worker can't reserve for a task we've already removed
+			synchronized (stage)
+			{
+				PipelineTask task;
+				while ((task = stage.poll()) != null)
+				{
+					task.future.cancel(true);
+				}
+			}
+		}
+	}
+	
+	
+	
+	//=================//
+	// stage execution //
+	//=================//
+	
+	/** Starts the task's current region pass, the first stage never needs a reservation. */
+	private void enqueueFirstStage(PipelineTask task)
+	{
+		int stageIndex = this.getNextStageIndex(task.genEvent.targetGenerationStep, -1);
+		if (stageIndex >= this.stages.length)
+		{
+			task.future.complete(null);
+			return;
+		}
+		
+		Stage stage = this.stages[stageIndex];
+		stage.forceReserve();
+		this.enqueue(task, stage);
+	}
+	/** the task must have already reserved a spot in the stage's queue */
+	private void enqueue(PipelineTask task, Stage stage)
+	{
+		// prevents time spent waiting in the queue from being counted towards the previous stage
+		task.genEvent.timer.nextEvent("queued");
+		
+		// the task will wait in the queue until one of this stage's workers is free,
+		// that way each stage never uses more than its max worker count
+		stage.queue.add(task);
+		this.tryStartWorker(stage, task.executor);
+	}
+	
+	private void tryStartWorker(Stage stage, Executor executor)
+	{
+		while (true)
+		{
+			int activeWorkerCount = stage.activeWorkerCount.get();
+			if (activeWorkerCount >= stage.maxWorkerCount)
+			{
+				// the running workers will pick up the queued task
+				return;
+			}
+			
+			if (stage.activeWorkerCount.compareAndSet(activeWorkerCount, activeWorkerCount + 1))
+			{
+				break;
+			}
+		}
+		
+		try
+		{
+			executor.execute(() -> this.drainStage(stage, executor));
+		}
+		catch (RejectedExecutionException e)
+		{
+			// the thread pool is shutting down
+			stage.activeWorkerCount.decrementAndGet();
+			throw e;
+		}
+	}
+	
+	private void drainStage(Stage stage, Executor executor)
+	{
+		try
+		{
+			PipelineTask task;
+			while ((task = this.pollIfNextStageHasRoom(stage)) != null)
+			{
+				// a spot in this stage's queue was freed, so the stages before this one may be able to continue
+				this.restartWaitingStages(executor);
+				this.runTask(stage, task);
+			}
+		}
+		finally
+		{
+			stage.activeWorkerCount.decrementAndGet();
+		}
+		
+		// a task may have been queued (or the next stage may have freed up) 
+		// after our last poll but before the worker count was decremented
+		if (this.canContinue(stage))
+		{
+			this.tryStartWorker(stage, executor);
+		}
+	}
+	/** 
+	 * Reserves a spot in the next stage's queue before taking the task, 
+	 * that way the task can always be passed on once this stage is done with it.
+	 * 
+	 * @return null if the queue is empty or the next stage's queue is full 
+	 */
+	private PipelineTask pollIfNextStageHasRoom(Stage stage)
+	{
+		// locked so the task we reserve for is the same one we poll
+		synchronized (stage)
+		{
+			PipelineTask task = stage.queue.peek();
+			if (task == null)
+			{
+				return null;
+			}
+			
+			Stage nextStage = this.getNextStage(task, stage);
+			if (nextStage != null && !nextStage.tryReserve())
+			{
+				// back-pressure, this task will wait until the next stage has room
+				return null;
+			}
+			
+			task.reservedStage = nextStage;
+			return stage.poll();
+		}
+	}
+	private boolean canContinue(Stage stage)
+	{
+		PipelineTask task = stage.queue.peek();
+		if (task == null)
+		{
+			return false;
+		}
+		
+		Stage nextStage = this.getNextStage(task, stage);
+		return nextStage == null || nextStage.hasRoom();
+	}
+	private void restartWaitingStages(Executor executor)
+	{
+		try
+		{
+			for (Stage stage : this.stages)
+			{
+				if (this.canContinue(stage))
+				{
+					this.tryStartWorker(stage, executor);
+				}
+			}
+		}
+		catch (RejectedExecutionException e)
+		{
+			// the thread pool is shutting down, 
+			// the task we're holding still needs to be run (or canceled) so its future completes
+		}
+	}
+	
+	private void runTask(Stage stage, PipelineTask task)
+	{
+		if (task.future.isDone())
+		{
+			// the task was canceled
+			task.releaseReservation();
+			return;
+		}
+		
+		if (task.genEvent.future.isDone())
+		{
+			// the event was canceled (IE by the scheduler, stop(), or terminate()),
+			// the task's future still needs to be completed so the event's cleanup can run
+			task.releaseReservation();
+			task.future.cancel(false);
+			return;
+		}
+		
+		try
+		{
+			this.runStage(stage.type, task);
+			task.genEvent.refreshTimeout();
+		}
+		catch (Throwable e)
+		{
+			task.releaseReservation();
+			task.future.completeExceptionally(e);
+			return;
+		}
+		
+		try
+		{
+			Stage nextStage = task.reservedStage;
+			if (nextStage != null)
+			{
+				task.reservedStage = null;
+				this.enqueue(task, nextStage);
+			}
+			else if (task.regionPassIndex + 1 < task.regionPasses.size())
+			{
+				// each region pass overlaps the previous one, 
+				// so the next pass can only start once this one has been fully generated and lit
+				task.regionPassIndex++;
+				this.enqueueFirstStage(task);
+			}
+			else
+			{
+				task.future.complete(null);
+			}
+		}
+		catch (Throwable e)
+		{
+			task.releaseReservation();
+			task.future.completeExceptionally(e);
+		}
+	}
+	
+	private void runStage(EPipelineStage stageType, PipelineTask task) throws InterruptedException
+	{
+		GenerationEvent genEvent = task.genEvent;
+		
+		RegionPass regionPass = task.regionPasses.get(task.regionPassIndex);
+		
+		if (stageType == EPipelineStage.LIGHT)
+		{
+			this.environment.lightGeneratedChunks(genEvent, regionPass.chunkWrappers);
+			return;
+		}
+		
+		
+		// Thread local parameters are used since the event's parameters may be
+		// in use by another stage's thread
+		ThreadedParameters tParams = ThreadedParameters.getOrMake(this.environment.params);
+		for (EDhApiWorldGenerationStep step : stageType.steps)
+		{
+			if (!isStepRequested(genEvent.targetGenerationStep, step))
+			{
+				continue;
+			}
+			
+			genEvent.timer.nextEvent(stageType.getTimerName(step));
+			tParams.makeStructFeat(regionPass.region, this.environment.params);
+			this.environment.generateStep(genEvent, step, tParams, regionPass.region, regionPass.chunkWrappers);
+		}
+	}
+	
+	/** @return null if this is the last stage needed for the task's current region pass */
+	private Stage getNextStage(PipelineTask task, Stage currentStage)
+	{
+		int nextStageIndex = this.getNextStageIndex(task.genEvent.targetGenerationStep, currentStage.index);
+		return (nextStageIndex < this.stages.length) ? this.stages[nextStageIndex] : null;
+	}
+	
+	/** @return {@link GenerationPipeline#stages}'s length if no more stages need to be run */
+	private int getNextStageIndex(EDhApiWorldGenerationStep targetStep, int currentStageIndex)
+	{
+		for (int i = currentStageIndex + 1; i < this.stages.length; i++)
+		{
+			EPipelineStage stageType = this.stages[i].type;
+			if (stageType == EPipelineStage.LIGHT)
+			{
+				// lighting is always run
+				return i;
+			}
+			
+			for (EDhApiWorldGenerationStep step : stageType.steps)
+			{
+				if (isStepRequested(targetStep, step))
+				{
+					return i;
+				}
+			}
+		}
+		
+		return this.stages.length;
+	}
+	private static boolean isStepRequested(EDhApiWorldGenerationStep targetStep, EDhApiWorldGenerationStep step)
+	{ return targetStep != EDhApiWorldGenerationStep.EMPTY && targetStep.compareTo(step) >= 0; }
+	
+	
+	
+	//================//
+	// helper classes //
+	//================//
+	
+	/**
+	 * Relative costs are based on the timings at the top of {@link BatchGenerationEnvironment}
+	 * and are used to determine how many threads each stage can use.
+	 */
+	private enum EPipelineStage
+	{
+		STRUCTURE(0.01, EDhApiWorldGenerationStep.STRUCTURE_START, EDhApiWorldGenerationStep.STRUCTURE_REFERENCE),
+		BIOMES(0.05, EDhApiWorldGenerationStep.BIOMES),
+		NOISE(0.50, EDhApiWorldGenerationStep.NOISE),
+		SURFACE(0.24, EDhApiWorldGenerationStep.SURFACE),
+		FEATURES(0.12, EDhApiWorldGenerationStep.FEATURES),
+		LIGHT(0.09);
+		
+		
+		public final double relativeCost;
+		public final EDhApiWorldGenerationStep[] steps;
+		
+		EPipelineStage(double relativeCost, EDhApiWorldGenerationStep... steps)
+		{
+			this.relativeCost = relativeCost;
+			this.steps = steps;
+		}
+		
+		/** @return the names used by {@link BatchGenerationEnvironment.PerfCalculator} */
+		public String getTimerName(EDhApiWorldGenerationStep step)
+		{
+			switch (step)
+			{
+				case STRUCTURE_START: return "structStart";
+				case STRUCTURE_REFERENCE: return "structRef";
+				case BIOMES: return "biome";
+				case NOISE: return "noise";
+				case SURFACE: return "surface";
+				case FEATURES: return "feature";
+				default: return "light";
+			}
+		}
+	}
+	
+	private static class Stage
+	{
+		public final int index;
+		public final EPipelineStage type;
+		/** 
+		 * Only tasks that have reserved a spot are added, 
+		 * so this will never grow past {@link Stage#getCapacity()} (excluding first stage entries). 
+		 */
+		public final ConcurrentLinkedQueue<PipelineTask> queue = new ConcurrentLinkedQueue<>();
+		/** queued tasks plus tasks in the previous stage that have reserved a spot in this queue */
+		public final AtomicInteger reservedCount = new AtomicInteger(0);
+		public final AtomicInteger activeWorkerCount = new AtomicInteger(0);
+		public volatile int maxWorkerCount = 1;
+		
+		public Stage(int index, EPipelineStage type)
+		{
+			this.index = index;
+			this.type = type;
+		}
+		
+		public int getCapacity() { return this.maxWorkerCount * QUEUED_TASKS_PER_WORKER; }
+		public boolean hasRoom() { return this.reservedCount.get() < this.getCapacity(); }
+		
+		/** @return false if the queue is full */
+		public boolean tryReserve()
+		{
+			while (true)
+			{
+				int reservedCount = this.reservedCount.get();
+				if (reservedCount >= this.getCapacity())
+				{
+					return false;
+				}
+				
+				if (this.reservedCount.compareAndSet(reservedCount, reservedCount + 1))
+				{
+					return true;
+				}
+			}
+		}
+		/** used by tasks entering the pipeline, see the class javadoc for why */
+		public void forceReserve() { this.reservedCount.incrementAndGet(); }
+		public void release() { this.reservedCount.decrementAndGet(); }
+		
+		/** @return null if the queue is empty */
+		public PipelineTask poll()
+		{
+			PipelineTask task = this.queue.poll();
+			if (task != null)
+			{
+				this.release();
+			}
+			return task;
+		}
+	}
+	
+	private static class PipelineTask
+	{
+		public final GenerationEvent genEvent;
+		public final List<RegionPass> regionPasses;
+		public final Executor executor;
+		public final CompletableFuture<Void> future = new CompletableFuture<>();
+		
+		/** only accessed by the worker currently running this task */
+		public int regionPassIndex = 0;
+		/** the stage this task has reserved a spot in, null if none */
+		public Stage reservedStage = null;
+		
+		public PipelineTask(GenerationEvent genEvent, List<RegionPass> regionPasses, Executor executor)
+		{
+			this.genEvent = genEvent;
+			this.regionPasses = regionPasses;
+			this.executor = executor;
+		}
+		
+		public void releaseReservation()
+		{
+			if (this.reservedStage != null)
+			{
+				this.reservedStage.release();
+				this.reservedStage = null;
+			}
+		}
+	}
+
+}
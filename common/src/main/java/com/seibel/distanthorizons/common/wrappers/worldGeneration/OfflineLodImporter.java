@@ -0,0 +1,359 @@
+/*
+ *    This file is part of the Distant Horizons mod
+ *    licensed under the GNU LGPL v3 License.
+ *
+ *    Copyright (C) 2020 James Seibel
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, version 3.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public License
+ *    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.seibel.distanthorizons.common.wrappers.worldGeneration;
+
+import com.seibel.distanthorizons.common.wrappers.chunk.ChunkWrapper;
+import com.seibel.distanthorizons.common.wrappers.chunk.PaletteChunkWrapper;
+import com.seibel.distanthorizons.common.wrappers.world.ServerLevelWrapper;
+import com.seibel.distanthorizons.common.wrappers.worldGeneration.mimicObject.ChunkLoader;
+import com.seibel.distanthorizons.common.wrappers.worldGeneration.mimicObject.RegionFileStorageExternalCache;
+import com.seibel.distanthorizons.core.config.Config;
+import com.seibel.distanthorizons.core.generation.DhLightingEngine;
+import com.seibel.distanthorizons.core.logging.DhLoggerBuilder;
+import com.seibel.distanthorizons.core.util.LodUtil;
+import com.seibel.distanthorizons.core.util.threading.DhThreadFactory;
+import com.seibel.distanthorizons.core.wrapperInterfaces.chunk.IChunkWrapper;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.storage.RegionFileStorage;
+import net.minecraft.world.level.levelgen.Heightmap;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+#if MC_VER <= MC_1_20_4
+import net.minecraft.world.level.chunk.ChunkStatus;
+#else
+import net.minecraft.world.level.chunk.status.ChunkStatus;
+#endif
+
+/**
+ * Builds LODs for every chunk already saved in a dimension's region files,
+ * without going through {@link BatchGenerationEnvironment}'s generation events,
+ * chunk tickets or the server thread. <br><br>
+ *
+ * Each region file is handled by a single importer thread which reads its chunks
+ * via {@link RegionFileStorageExternalCache#readBatch} in {@link OfflineLodImporter#ROWS_PER_BATCH} row batches,
+ * builds chunk wrappers from the NBT and passes them to the result consumer. <br>
+ * Since chunks are lit one batch at a time, block light won't propagate across batch or region borders
+ * if the chunk's lighting isn't pulled from the NBT, see {@link Config.Common.LodBuilding#pullLightingForPregeneratedChunks}. <br><br>
+ *
+ * The importer never records chunk timestamps itself, since core doesn't report when a chunk's LOD
+ * has actually been written to the database. Unchanged chunks can only be skipped
+ * if world gen recorded them when loading pre-existing chunks, see {@link BatchGenerationEnvironment#SKIP_UNCHANGED_PRE_EXISTING_CHUNKS}.
+ *
+ * @see com.seibel.distanthorizons.common.commands.ImportCommand
+ */
+public class OfflineLodImporter
+{
+	private static final Logger LOGGER = DhLoggerBuilder.getLogger();
+	
+	public static final int DEFAULT_THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	/**
+	 * How many rows of a region are read and built at once. <br>
+	 * Smaller batches use less memory but light fewer chunks together.
+	 */
+	public static final int ROWS_PER_BATCH = 8;
+	
+	private static final int REGION_WIDTH_IN_CHUNKS = 32;
+	
+	private final ServerLevel level;
+	private final ServerLevelWrapper levelWrapper;
+	private final RegionFileStorageExternalCache regionFileCache;
+	private final Consumer<IChunkWrapper> resultConsumer;
+	private final int threadCount;
+	/** if true chunks that haven't been saved since their LODs were last built will be skipped */
+	private final boolean skipUnchangedChunks;
+	
+	private final AtomicInteger totalRegionCount = new AtomicInteger(0);
+	private final AtomicInteger completedRegionCount = new AtomicInteger(0);
+	private final AtomicLong importedChunkCount = new AtomicLong(0);
+	private final AtomicLong failedChunkCount = new AtomicLong(0);
+	private final AtomicLong skippedChunkCount = new AtomicLong(0);
+	
+	@Nullable
+	private ExecutorService executor = null;
+	private long startTimeMs = 0;
+	
+	
+	
+	//=============//
+	// constructor //
+	//=============//
+	
+	/** 
+	 * @param skipUnchangedChunks if true only chunks that were saved since their LODs were last built will be imported
+	 * @param resultConsumer will be called from multiple importer threads at once 
+	 */
+	public OfflineLodImporter(ServerLevel level, RegionFileStorage storage, int threadCount, boolean skipUnchangedChunks, Consumer<IChunkWrapper> resultConsumer)
+	{
+		this.level = level;
+		this.levelWrapper = ServerLevelWrapper.getWrapper(level);
+		this.regionFileCache = new RegionFileStorageExternalCache(storage, this.levelWrapper.getDhSaveFolder());
+		this.threadCount = Math.max(1, threadCount);
+		this.skipUnchangedChunks = skipUnchangedChunks;
+		this.resultConsumer = resultConsumer;
+	}
+	
+	
+	
+	//=========//
+	// running //
+	//=========//
+	
+	/**
+	 * Can only be called once. <br>
+	 * The returned future can be cancelled to stop the import.
+	 */
+	public synchronized CompletableFuture<Void> start()
+	{
+		if (this.executor != null)
+		{
+			throw new IllegalStateException(OfflineLodImporter.class.getSimpleName() + " has already been started.");
+		}
+		
+		ArrayList<Long> regionPosList;
+		try
+		{
+			regionPosList = this.regionFileCache.getRegionFilePositions();
+		}
+		catch (IOException e)
+		{
+			CompletableFuture<Void> failedFuture = new CompletableFuture<>();
+			failedFuture.completeExceptionally(e);
+			return failedFuture;
+		}
+		
+		// neighboring regions are imported at similar times to keep the LOD updates localized
+		regionPosList.sort(Comparator.comparingInt((Long regionPos) -> ChunkPos.getZ(regionPos)).thenComparingInt((Long regionPos) -> ChunkPos.getX(regionPos)));
+		this.totalRegionCount.set(regionPosList.size());
+		this.startTimeMs = System.currentTimeMillis();
+		
+		this.executor = new ThreadPoolExecutor(
+				this.threadCount, this.threadCount,
+				0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+				new DhThreadFactory("DH-Offline-Importer", Thread.MIN_PRIORITY));
+		
+		CompletableFuture<?>[] regionFutures = new CompletableFuture[regionPosList.size()];
+		for (int i = 0; i < regionPosList.size(); i++)
+		{
+			long regionPos = regionPosList.get(i);
+			regionFutures[i] = CompletableFuture.runAsync(() -> this.importRegion(ChunkPos.getX(regionPos), ChunkPos.getZ(regionPos)), this.executor);
+		}
+		
+		CompletableFuture<Void> importFuture = new CompletableFuture<>();
+		CompletableFuture.allOf(regionFutures).whenComplete((voidObj, throwable) ->
+		{
+			if (throwable != null)
+			{
+				importFuture.completeExceptionally(throwable);
+			}
+			else
+			{
+				importFuture.complete(null);
+			}
+		});
+		
+		importFuture.whenComplete((voidObj, throwable) ->
+		{
+			// also handles the import future being cancelled
+			this.executor.shutdownNow();
+			try
+			{
+				this.regionFileCache.close();
+			}
+			catch (IOException e)
+			{
+				LOGGER.warn("Unable to close importer region files, error: [" + e.getMessage() + "].", e);
+			}
+			
+			LOGGER.info("LOD import finished. " + this.getStatusString());
+		});
+		return importFuture;
+	}
+	
+	private void importRegion(int regionX, int regionZ)
+	{
+		int minChunkX = regionX * REGION_WIDTH_IN_CHUNKS;
+		int minChunkZ = regionZ * REGION_WIDTH_IN_CHUNKS;
+		
+		try
+		{
+			for (int batchRow = 0; batchRow < REGION_WIDTH_IN_CHUNKS; batchRow += ROWS_PER_BATCH)
+			{
+				BatchGenerationEnvironment.throwIfThreadInterrupted();
+				
+				ArrayList<ChunkPos> chunkPosList = new ArrayList<>(REGION_WIDTH_IN_CHUNKS * ROWS_PER_BATCH);
+				for (int z = batchRow; z < batchRow + ROWS_PER_BATCH; z++)
+				{
+					for (int x = 0; x < REGION_WIDTH_IN_CHUNKS; x++)
+					{
+						ChunkPos chunkPos = new ChunkPos(minChunkX + x, minChunkZ + z);
+						if (this.skipUnchangedChunks && this.regionFileCache.isChunkUnchangedSinceImport(chunkPos))
+						{
+							this.skippedChunkCount.incrementAndGet();
+							continue;
+						}
+						
+						chunkPosList.add(chunkPos);
+					}
+				}
+				
+				if (!chunkPosList.isEmpty())
+				{
+					this.importBatch(chunkPosList);
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			// the import was cancelled
+			return;
+		}
+		finally
+		{
+			// this region won't be touched again
+			this.regionFileCache.unloadImportTimestamps(regionX, regionZ);
+		}
+		
+		this.completedRegionCount.incrementAndGet();
+	}
+	private void importBatch(ArrayList<ChunkPos> chunkPosList) throws InterruptedException
+	{
+		HashMap<Long, CompoundTag> chunkDataByPos = this.regionFileCache.readBatch(chunkPosList);
+		
+		ArrayList<IChunkWrapper> chunkWrapperList = new ArrayList<>(chunkDataByPos.size());
+		for (int i = 0; i < chunkPosList.size(); i++)
+		{
+			ChunkPos chunkPos = chunkPosList.get(i);
+			CompoundTag chunkData = chunkDataByPos.get(chunkPos.toLong());
+			if (chunkData == null)
+			{
+				// missing chunks don't need LODs
+				continue;
+			}
+			
+			try
+			{
+				IChunkWrapper chunkWrapper = this.createChunkWrapper(chunkPos, chunkData);
+				if (chunkWrapper != null)
+				{
+					chunkWrapperList.add(chunkWrapper);
+				}
+			}
+			catch (Exception e)
+			{
+				this.failedChunkCount.incrementAndGet();
+				LOGGER.debug("Unable to import chunk [" + chunkPos + "], error: [" + e.getMessage() + "].", e);
+			}
+		}
+		
+		
+		int maxSkyLight = this.levelWrapper.hasSkyLight() ? LodUtil.MAX_MC_LIGHT : LodUtil.MIN_MC_LIGHT;
+		for (int i = 0; i < chunkWrapperList.size(); i++)
+		{
+			BatchGenerationEnvironment.throwIfThreadInterrupted();
+			
+			IChunkWrapper chunkWrapper = chunkWrapperList.get(i);
+			if (!chunkWrapper.isDhBlockLightingCorrect())
+			{
+				DhLightingEngine.INSTANCE.bakeChunkBlockLighting(chunkWrapper, chunkWrapperList, maxSkyLight);
+			}
+		}
+		
+		for (int i = 0; i < chunkWrapperList.size(); i++)
+		{
+			this.resultConsumer.accept(chunkWrapperList.get(i));
+		}
+		this.importedChunkCount.addAndGet(chunkWrapperList.size());
+	}
+	/** @return null if the chunk isn't finished generating */
+	@Nullable
+	private IChunkWrapper createChunkWrapper(ChunkPos chunkPos, CompoundTag chunkData)
+	{
+		if (BatchGenerationEnvironment.USE_PALETTE_CHUNK_READING)
+		{
+			PaletteChunkWrapper paletteChunkWrapper = PaletteChunkWrapper.tryRead(chunkData, chunkPos, this.levelWrapper);
+			if (paletteChunkWrapper != null)
+			{
+				return paletteChunkWrapper;
+			}
+		}
+		
+		// fall back to MC's chunk loading logic
+		LevelChunk chunk = ChunkLoader.read(this.level, chunkPos, chunkData);
+		if (chunk == null)
+		{
+			return null;
+		}
+		
+		ChunkWrapper chunkWrapper = new ChunkWrapper(chunk, this.levelWrapper);
+		// the chunk won't change after this point, and the snapshot is faster for lighting and LOD building
+		chunkWrapper.snapshotSections();
+		if (Config.Common.LodBuilding.pullLightingForPregeneratedChunks.get())
+		{
+			ChunkLoader.CombinedChunkLightStorage combinedLights = ChunkLoader.readLight(chunk, chunkData);
+			if (combinedLights != null)
+			{
+				chunkWrapper.setBlockLightStorage(combinedLights.blockLightStorage);
+				chunkWrapper.setSkyLightStorage(combinedLights.skyLightStorage);
+			}
+		}
+		
+		Heightmap.primeHeightmaps(chunk, ChunkStatus.FEATURES.heightmapsAfter());
+		chunkWrapper.recalculateDhHeightMapsIfNeeded();
+		return chunkWrapper;
+	}
+	
+	
+	
+	//=========//
+	// getters //
+	//=========//
+	
+	public String getStatusString()
+	{
+		int totalRegionCount = this.totalRegionCount.get();
+		int completedRegionCount = this.completedRegionCount.get();
+		long elapsedSeconds = Math.max(1, (System.currentTimeMillis() - this.startTimeMs) / 1000);
+		long importedChunkCount = this.importedChunkCount.get();
+		
+		return "regions: [" + completedRegionCount + "/" + totalRegionCount + "], " +
+				"chunks: [" + importedChunkCount + "], " +
+				"failed chunks: [" + this.failedChunkCount.get() + "], " +
+				"unchanged chunks: [" + this.skippedChunkCount.get() + "], " +
+				"chunks/sec: [" + (importedChunkCount / elapsedSeconds) + "]";
+	}
+	
+}
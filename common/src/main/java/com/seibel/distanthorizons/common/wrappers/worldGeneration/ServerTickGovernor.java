@@ -0,0 +1,163 @@
+/*
+ *    This file is part of the Distant Horizons mod
+ *    licensed under the GNU LGPL v3 License.
+ *
+ *    Copyright (C) 2020 James Seibel
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, version 3.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public License
+ *    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.seibel.distanthorizons.common.wrappers.worldGeneration;
+
+import com.seibel.distanthorizons.core.logging.DhLoggerBuilder;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long each server tick takes and slows down world generation
+ * when the server is close to or over {@link ServerTickGovernor#getTargetMspt()}. <br><br>
+ * 
+ * The tick start/end methods are called by each loader's server proxy. <br>
+ * {@link GenerationEventScheduler} and {@link GenerationPipeline} use {@link ServerTickGovernor#getThrottleFactor()}
+ * to limit how many events and workers can run at once. <br>
+ * Anything that needs to read server state from the server thread
+ * can be run at the end of each tick via {@link ServerTickGovernor#addTickEndListener}.
+ */
+public class ServerTickGovernor
+{
+	private static final Logger LOGGER = DhLoggerBuilder.getLogger();
+	
+	public static final ServerTickGovernor INSTANCE = new ServerTickGovernor();
+	
+	/** 
+	 * The MSPT world gen will try to keep the server under. <br>
+	 * Vanilla considers anything over 50 milliseconds per tick as lagging,
+	 * so this leaves some headroom for tick time spikes.
+	 */
+	public static final double DEFAULT_TARGET_MSPT = 40;
+	
+	/** generation will never be slowed down further than this */
+	public static final double MIN_THROTTLE_FACTOR = 0.1;
+	
+	/** how much weight each new tick has on the average tick time */
+	private static final double TICK_TIME_SMOOTHING = 0.1;
+	/** how many ticks between each throttle adjustment, 20 ticks = 1 second */
+	private static final int TICKS_PER_ADJUSTMENT = 20;
+	/** multiplied against the throttle factor when the server is over its target */
+	private static final double THROTTLE_DECREASE_MULTIPLIER = 0.75;
+	/** added to the throttle factor when the server is comfortably under its target */
+	private static final double THROTTLE_INCREASE_AMOUNT = 0.05;
+	/** the server must be under this percent of the target MSPT before generation is sped back up */
+	private static final double THROTTLE_INCREASE_THRESHOLD = 0.8;
+	
+	
+	/** 1.0 = no throttling */
+	private volatile double throttleFactor = 1.0;
+	
+	private final CopyOnWriteArrayList<Runnable> tickEndListeners = new CopyOnWriteArrayList<>();
+	
+	// only accessed on the server thread
+	private long tickStartTimeNs = -1;
+	private double averageMspt = 0;
+	private int ticksSinceAdjustment = 0;
+	
+	
+	
+	//=============//
+	// constructor //
+	//=============//
+	
+	private ServerTickGovernor() { }
+	
+	
+	
+	//=============//
+	// tick events //
+	//=============//
+	
+	public void onServerTickStart() { this.tickStartTimeNs = System.nanoTime(); }
+	
+	public void onServerTickEnd()
+	{
+		for (Runnable listener : this.tickEndListeners)
+		{
+			try
+			{
+				listener.run();
+			}
+			catch (Exception e)
+			{
+				LOGGER.error("Unexpected error in server tick listener, error: ["+e.getMessage()+"].", e);
+			}
+		}
+		
+		
+		if (this.tickStartTimeNs == -1)
+		{
+			// the start of this tick wasn't recorded
+			return;
+		}
+		
+		double tickMs = (System.nanoTime() - this.tickStartTimeNs) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+		this.tickStartTimeNs = -1;
+		this.averageMspt += (tickMs - this.averageMspt) * TICK_TIME_SMOOTHING;
+		
+		this.ticksSinceAdjustment++;
+		if (this.ticksSinceAdjustment < TICKS_PER_ADJUSTMENT)
+		{
+			return;
+		}
+		this.ticksSinceAdjustment = 0;
+		
+		
+		double targetMspt = this.getTargetMspt();
+		double oldThrottleFactor = this.throttleFactor;
+		double newThrottleFactor = oldThrottleFactor;
+		if (this.averageMspt > targetMspt)
+		{
+			newThrottleFactor = Math.max(MIN_THROTTLE_FACTOR, oldThrottleFactor * THROTTLE_DECREASE_MULTIPLIER);
+		}
+		else if (this.averageMspt < targetMspt * THROTTLE_INCREASE_THRESHOLD)
+		{
+			newThrottleFactor = Math.min(1.0, oldThrottleFactor + THROTTLE_INCREASE_AMOUNT);
+		}
+		
+		if (newThrottleFactor != oldThrottleFactor)
+		{
+			this.throttleFactor = newThrottleFactor;
+			LOGGER.debug("Server MSPT: [" + String.format("%.1f", this.averageMspt) + "], target: [" + targetMspt + "], world gen throttle changed from [" + String.format("%.2f", oldThrottleFactor) + "] to [" + String.format("%.2f", newThrottleFactor) + "].");
+		}
+	}
+	
+	
+	
+	//=====================//
+	// getters and setters //
+	//=====================//
+	
+	/** @return a value between {@link ServerTickGovernor#MIN_THROTTLE_FACTOR} and 1.0, 1.0 means world gen can run at full speed */
+	public double getThrottleFactor() { return this.throttleFactor; }
+	
+	/** @return the given count multiplied by the throttle factor, will always be at least 1 */
+	public int throttle(int count) { return Math.max(1, (int) Math.round(count * this.throttleFactor)); }
+	
+	/** @see ServerTickGovernor#DEFAULT_TARGET_MSPT */
+	public double getTargetMspt() { return DEFAULT_TARGET_MSPT; }
+	
+	/** The listener will be run on the server thread at the end of every server tick. */
+	public void addTickEndListener(Runnable listener) { this.tickEndListeners.add(listener); }
+	public void removeTickEndListener(Runnable listener) { this.tickEndListeners.remove(listener); }
+
+}
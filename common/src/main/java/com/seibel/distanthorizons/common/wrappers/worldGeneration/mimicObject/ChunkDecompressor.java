@@ -0,0 +1,288 @@
+/*
+ *    This file is part of the Distant Horizons mod
+ *    licensed under the GNU LGPL v3 License.
+ *
+ *    Copyright (C) 2020 James Seibel
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, version 3.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public License
+ *    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.seibel.distanthorizons.common.wrappers.worldGeneration.mimicObject;
+
+import com.seibel.distanthorizons.core.util.threading.DhThreadFactory;
+import net.jpountz.lz4.LZ4BlockInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses region file chunk payloads using thread local {@link Inflater}s and buffers,
+ * instead of creating a new {@link java.util.zip.InflaterInputStream} (and native {@link Inflater})
+ * for every chunk. <br><br>
+ *
+ * Supports zlib, gzip, LZ4 and uncompressed chunks. <br>
+ * Decompression can optionally be run on a small dedicated thread pool
+ * so world generator threads can parse already decompressed chunks at the same time,
+ * see {@link ChunkDecompressor#decompressAsync}.
+ *
+ * @see MappedRegionFile
+ */
+public class ChunkDecompressor
+{
+	/** If false chunks are decompressed via a new stream for each chunk. */
+	public static final boolean USE_POOLED_DECOMPRESSION = true;
+	/** If true {@link ChunkDecompressor#decompressAsync} will run on {@link ChunkDecompressor#DECOMPRESSION_THREAD_COUNT} separate threads. */
+	public static final boolean USE_DECOMPRESSION_THREADS = true;
+	/** Decompression is fast compared to parsing and LOD building, so only a few threads are needed. */
+	public static final int DECOMPRESSION_THREAD_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 4));
+	
+	/** most decompressed chunks are smaller than this */
+	private static final int INITIAL_BUFFER_SIZE = 128 * 1024;
+	
+	private static final ThreadLocal<Inflater> ZLIB_INFLATER_REF = ThreadLocal.withInitial(() -> new Inflater());
+	/** gzip data is raw deflate data with an extra header and trailer */
+	private static final ThreadLocal<Inflater> RAW_INFLATER_REF = ThreadLocal.withInitial(() -> new Inflater(true));
+	private static final ThreadLocal<byte[]> INPUT_BUFFER_REF = ThreadLocal.withInitial(() -> new byte[INITIAL_BUFFER_SIZE]);
+	private static final ThreadLocal<byte[]> OUTPUT_BUFFER_REF = ThreadLocal.withInitial(() -> new byte[INITIAL_BUFFER_SIZE]);
+	
+	// gzip header flags
+	private static final int GZIP_MAGIC = 0x8B1F;
+	private static final int GZIP_FLAG_HEADER_CRC = 2;
+	private static final int GZIP_FLAG_EXTRA = 4;
+	private static final int GZIP_FLAG_NAME = 8;
+	private static final int GZIP_FLAG_COMMENT = 16;
+	
+	
+	
+	//===============//
+	// decompression //
+	//===============//
+	
+	/**
+	 * @param compressedChunk its data will be read from the current position to its limit
+	 * @return the decompressed chunk NBT
+	 * @throws MappedRegionFile.UnsupportedCompressionException if the compression type isn't supported
+	 * @throws IOException if the data is corrupt
+	 * @throws IllegalStateException if the chunk's region file was released before decompression started
+	 */
+	public static byte[] decompress(MappedRegionFile.CompressedChunk compressedChunk) throws IOException, MappedRegionFile.UnsupportedCompressionException
+	{
+		ByteBuffer compressedData = compressedChunk.getData();
+		byte compressionType = compressedChunk.compressionType;
+		
+		// Java 8's Inflater can't read from ByteBuffers, so the data has to be copied first
+		int inputLength = compressedData.remaining();
+		byte[] input = getBuffer(INPUT_BUFFER_REF, inputLength);
+		compressedData.get(input, 0, inputLength);
+		
+		switch (compressionType)
+		{
+			case MappedRegionFile.COMPRESSION_ZLIB:
+				return inflate(ZLIB_INFLATER_REF.get(), input, 0, inputLength);
+			case MappedRegionFile.COMPRESSION_GZIP:
+				int headerLength = getGzipHeaderLength(input, inputLength);
+				return inflate(RAW_INFLATER_REF.get(), input, headerLength, inputLength - headerLength);
+			case MappedRegionFile.COMPRESSION_LZ4:
+				return readFully(new LZ4BlockInputStream(new ByteArrayInputStream(input, 0, inputLength)));
+			case MappedRegionFile.COMPRESSION_NONE:
+				return Arrays.copyOf(input, inputLength);
+			default:
+				throw new MappedRegionFile.UnsupportedCompressionException(compressionType);
+		}
+	}
+	
+	/**
+	 * Runs {@link ChunkDecompressor#decompress} on the decompression threads if {@link ChunkDecompressor#USE_DECOMPRESSION_THREADS} is true,
+	 * otherwise on the calling thread. <br>
+	 * The returned future will complete exceptionally with the same exceptions {@link ChunkDecompressor#decompress} can throw.
+	 */
+	public static CompletableFuture<byte[]> decompressAsync(MappedRegionFile.CompressedChunk compressedChunk)
+	{
+		CompletableFuture<byte[]> future = new CompletableFuture<>();
+		Runnable task = () ->
+		{
+			try
+			{
+				future.complete(decompress(compressedChunk));
+			}
+			catch (Throwable e)
+			{
+				future.completeExceptionally(e);
+			}
+		};
+		
+		if (USE_DECOMPRESSION_THREADS)
+		{
+			try
+			{
+				DecompressionPoolHolder.POOL.execute(task);
+				return future;
+			}
+			catch (RejectedExecutionException ignored)
+			{
+				// shouldn't happen since the queue is unbounded, but just in case
+			}
+		}
+		
+		task.run();
+		return future;
+	}
+	
+	
+	
+	//=========//
+	// helpers //
+	//=========//
+	
+	private static byte[] inflate(Inflater inflater, byte[] input, int offset, int length) throws IOException
+	{
+		inflater.reset();
+		inflater.setInput(input, offset, length);
+		
+		byte[] output = OUTPUT_BUFFER_REF.get();
+		int outputLength = 0;
+		try
+		{
+			while (!inflater.finished())
+			{
+				if (outputLength == output.length)
+				{
+					output = Arrays.copyOf(output, output.length * 2);
+					OUTPUT_BUFFER_REF.set(output);
+				}
+				
+				int inflatedLength = inflater.inflate(output, outputLength, output.length - outputLength);
+				if (inflatedLength == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+				{
+					throw new IOException("Chunk data ended unexpectedly.");
+				}
+				outputLength += inflatedLength;
+			}
+		}
+		catch (DataFormatException e)
+		{
+			throw new IOException("Invalid chunk data: [" + e.getMessage() + "].", e);
+		}
+		
+		return Arrays.copyOf(output, outputLength);
+	}
+	
+	/** @see <a href="https://www.rfc-editor.org/rfc/rfc1952#page-5">RFC 1952</a> */
+	private static int getGzipHeaderLength(byte[] input, int length) throws IOException
+	{
+		if (length < 10 || ((input[0] & 0xFF) | ((input[1] & 0xFF) << 8)) != GZIP_MAGIC)
+		{
+			throw new IOException("Invalid gzip header.");
+		}
+		
+		int flags = input[3] & 0xFF;
+		int index = 10;
+		if ((flags & GZIP_FLAG_EXTRA) != 0)
+		{
+			index += 2 + ((input[index] & 0xFF) | ((input[index + 1] & 0xFF) << 8));
+		}
+		if ((flags & GZIP_FLAG_NAME) != 0)
+		{
+			while (index < length && input[index] != 0)
+			{
+				index++;
+			}
+			index++;
+		}
+		if ((flags & GZIP_FLAG_COMMENT) != 0)
+		{
+			while (index < length && input[index] != 0)
+			{
+				index++;
+			}
+			index++;
+		}
+		if ((flags & GZIP_FLAG_HEADER_CRC) != 0)
+		{
+			index += 2;
+		}
+		
+		if (index >= length)
+		{
+			throw new IOException("Invalid gzip header.");
+		}
+		return index;
+	}
+	
+	private static byte[] readFully(InputStream inputStream) throws IOException
+	{
+		try (InputStream stream = inputStream)
+		{
+			byte[] output = OUTPUT_BUFFER_REF.get();
+			int outputLength = 0;
+			while (true)
+			{
+				if (outputLength == output.length)
+				{
+					output = Arrays.copyOf(output, output.length * 2);
+					OUTPUT_BUFFER_REF.set(output);
+				}
+				
+				int readLength = stream.read(output, outputLength, output.length - outputLength);
+				if (readLength == -1)
+				{
+					break;
+				}
+				outputLength += readLength;
+			}
+			
+			return Arrays.copyOf(output, outputLength);
+		}
+	}
+	
+	private static byte[] getBuffer(ThreadLocal<byte[]> bufferRef, int minLength)
+	{
+		byte[] buffer = bufferRef.get();
+		if (buffer.length < minLength)
+		{
+			buffer = new byte[Math.max(minLength, buffer.length * 2)];
+			bufferRef.set(buffer);
+		}
+		return buffer;
+	}
+	
+	
+	
+	//================//
+	// helper classes //
+	//================//
+	
+	/** 
+	 * Only creates the pool once it's needed. <br>
+	 * The threads are kept alive afterwards since batch reads happen constantly during generation,
+	 * and re-creating a thread would also throw away its thread local {@link Inflater}s and buffers.
+	 */
+	private static class DecompressionPoolHolder
+	{
+		public static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(
+				DECOMPRESSION_THREAD_COUNT, DECOMPRESSION_THREAD_COUNT,
+				0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+				new DhThreadFactory("DH-Chunk-Decompression", Thread.NORM_PRIORITY));
+	}
+
+}
@@ -0,0 +1,358 @@
+/*
+ *    This file is part of the Distant Horizons mod
+ *    licensed under the GNU LGPL v3 License.
+ *
+ *    Copyright (C) 2020 James Seibel
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, version 3.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public License
+ *    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.seibel.distanthorizons.common.wrappers.worldGeneration.mimicObject;
+
+import com.seibel.distanthorizons.core.logging.DhLoggerBuilder;
+import com.seibel.distanthorizons.core.wrapperInterfaces.world.ILevelWrapper;
+import net.minecraft.world.level.ChunkPos;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the region file timestamp each chunk had when its LOD was last built,
+ * so chunks that haven't been saved since can be skipped when pre-existing chunks are imported again. <br><br>
+ *
+ * Timestamps are stored in the dimension's DH save folder next to the LOD database,
+ * one file per region using the same layout as the region file's timestamp header
+ * (1024 big endian ints, seconds since the epoch). <br>
+ * A recorded timestamp is only valid as long as the LOD it describes still exists,
+ * so every timestamp is discarded if the LOD database is deleted or replaced,
+ * see {@link ChunkImportTimestampStore#DATABASE_ID_FILE_NAME}. <br>
+ * Regions are loaded lazily and kept in memory until they're flushed and unloaded,
+ * that way each file is written once per batch of imports instead of once per chunk. <br><br>
+ *
+ * Losing an update (IE if the game crashes before the store is flushed)
+ * only causes the chunk to be imported again.
+ *
+ * @see RegionHeaderIndex
+ */
+public class ChunkImportTimestampStore
+{
+	private static final Logger LOGGER = DhLoggerBuilder.getLogger();
+	
+	public static final String FOLDER_NAME = "chunk_timestamps";
+	/** the LOD database these timestamps belong to, stored in the same DH save folder */
+	public static final String DATABASE_FILE_NAME = "DistantHorizons.sqlite";
+	/** 
+	 * Stores the identity of the LOD database the timestamps were recorded against, 
+	 * see {@link ChunkImportTimestampStore#getDatabaseId}. 
+	 */
+	public static final String DATABASE_ID_FILE_NAME = "database_id.txt";
+	/** once more regions than this are loaded, every region will be flushed and unloaded */
+	public static final int MAX_LOADED_REGION_COUNT = 256;
+	
+	/**
+	 * There's only ever one store per folder
+	 * so world generation and the importer can't overwrite each other's files.
+	 */
+	private static final ConcurrentHashMap<Path, ChunkImportTimestampStore> STORE_BY_FOLDER_PATH = new ConcurrentHashMap<>();
+	
+	private final Path folderPath;
+	private final ConcurrentHashMap<Long, RegionTimestamps> timestampsByRegionPos = new ConcurrentHashMap<>();
+	
+	
+	
+	//=============//
+	// constructor //
+	//=============//
+	
+	/** @param dhSaveFolder the dimension's DH save folder, see {@link ILevelWrapper#getDhSaveFolder()} */
+	public static ChunkImportTimestampStore getForDhSaveFolder(File dhSaveFolder)
+	{
+		Path dhSaveFolderPath = dhSaveFolder.toPath().toAbsolutePath().normalize();
+		return STORE_BY_FOLDER_PATH.computeIfAbsent(dhSaveFolderPath.resolve(FOLDER_NAME), (folderPath) -> new ChunkImportTimestampStore(dhSaveFolderPath, folderPath));
+	}
+	private ChunkImportTimestampStore(Path dhSaveFolderPath, Path folderPath) 
+	{
+		this.folderPath = folderPath;
+		this.validateAgainstDatabase(dhSaveFolderPath.resolve(DATABASE_FILE_NAME));
+	}
+	
+	
+	
+	//=====================//
+	// database validation //
+	//=====================//
+	
+	/** 
+	 * Deletes every stored timestamp if the LOD database is missing 
+	 * or isn't the same database the timestamps were recorded against. <br>
+	 * If the database doesn't exist yet nothing is recorded as its ID,
+	 * so anything recorded before it's created will be discarded next time. 
+	 */
+	private void validateAgainstDatabase(Path databasePath)
+	{
+		Path idFilePath = this.folderPath.resolve(DATABASE_ID_FILE_NAME);
+		String databaseId = getDatabaseId(databasePath);
+		
+		try
+		{
+			String storedDatabaseId = Files.exists(idFilePath) ? new String(Files.readAllBytes(idFilePath), StandardCharsets.UTF_8).trim() : null;
+			if (databaseId != null && databaseId.equals(storedDatabaseId))
+			{
+				return;
+			}
+			
+			if (Files.exists(this.folderPath))
+			{
+				LOGGER.info("LOD database [" + databasePath + "] was removed or replaced, clearing chunk timestamps in [" + this.folderPath + "].");
+				try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.folderPath))
+				{
+					for (Path filePath : stream)
+					{
+						Files.deleteIfExists(filePath);
+					}
+				}
+			}
+			
+			if (databaseId != null)
+			{
+				Files.createDirectories(this.folderPath);
+				Files.write(idFilePath, databaseId.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		catch (IOException e)
+		{
+			LOGGER.warn("Unable to validate chunk timestamps in [" + this.folderPath + "], error: [" + e.getMessage() + "].");
+		}
+	}
+	
+	/** 
+	 * Uses the file key (IE the inode) where available since most Unix file systems don't report creation times,
+	 * otherwise the creation time is used. 
+	 * 
+	 * @return null if the database doesn't exist or can't be read 
+	 */
+	@Nullable
+	private static String getDatabaseId(Path databasePath)
+	{
+		try
+		{
+			if (!Files.exists(databasePath))
+			{
+				return null;
+			}
+			
+			BasicFileAttributes attributes = Files.readAttributes(databasePath, BasicFileAttributes.class);
+			Object fileKey = attributes.fileKey();
+			return (fileKey != null) ? fileKey.toString() : Long.toString(attributes.creationTime().toMillis());
+		}
+		catch (IOException e)
+		{
+			LOGGER.warn("Unable to read LOD database [" + databasePath + "] attributes, error: [" + e.getMessage() + "].");
+			return null;
+		}
+	}
+	
+	
+	
+	//=====================//
+	// getters and setters //
+	//=====================//
+	
+	/** @return the region file timestamp this chunk had when it was last imported, 0 if it was never imported */
+	public int getImportedTimestamp(ChunkPos pos) { return this.getOrLoadRegion(pos.getRegionX(), pos.getRegionZ()).get(getIndex(pos)); }
+	
+	public void setImportedTimestamp(ChunkPos pos, int timestamp)
+	{
+		// the region may be unloaded by another thread between getting and setting,
+		// if that happens the region needs to be loaded again so the change isn't lost
+		boolean timestampSet;
+		do
+		{
+			timestampSet = this.getOrLoadRegion(pos.getRegionX(), pos.getRegionZ()).trySet(getIndex(pos), timestamp);
+		}
+		while (!timestampSet);
+	}
+	
+	private static int getIndex(ChunkPos pos) { return (pos.x & 31) + ((pos.z & 31) * 32); }
+	
+	
+	
+	//=========//
+	// loading //
+	//=========//
+	
+	private RegionTimestamps getOrLoadRegion(int regionX, int regionZ)
+	{
+		long regionPos = ChunkPos.asLong(regionX, regionZ);
+		RegionTimestamps region = this.timestampsByRegionPos.get(regionPos);
+		if (region != null)
+		{
+			return region;
+		}
+		
+		if (this.timestampsByRegionPos.size() >= MAX_LOADED_REGION_COUNT)
+		{
+			this.flushAndUnloadAll();
+		}
+		
+		return this.timestampsByRegionPos.computeIfAbsent(regionPos, (pos) -> RegionTimestamps.read(this.getRegionFilePath(regionX, regionZ)));
+	}
+	
+	private Path getRegionFilePath(int regionX, int regionZ) { return this.folderPath.resolve("r." + regionX + "." + regionZ + ".dat"); }
+	
+	
+	
+	//========//
+	// saving //
+	//========//
+	
+	/** Writes the region to disk if it was changed and removes it from memory. */
+	public void flushAndUnloadRegion(int regionX, int regionZ)
+	{
+		long regionPos = ChunkPos.asLong(regionX, regionZ);
+		RegionTimestamps region = this.timestampsByRegionPos.get(regionPos);
+		if (region != null)
+		{
+			this.flushAndUnload(regionPos, region);
+		}
+	}
+	
+	public void flushAndUnloadAll()
+	{
+		for (Map.Entry<Long, RegionTimestamps> entry : this.timestampsByRegionPos.entrySet())
+		{
+			this.flushAndUnload(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	/** 
+	 * The region is written and marked as unloaded before it's removed from the map,
+	 * any thread still holding it will fail to set and load a fresh copy instead.
+	 */
+	private void flushAndUnload(long regionPos, RegionTimestamps region)
+	{
+		region.writeAndUnload(this.folderPath, this.getRegionFilePath(ChunkPos.getX(regionPos), ChunkPos.getZ(regionPos)));
+		this.timestampsByRegionPos.remove(regionPos, region);
+	}
+	
+	
+	
+	//================//
+	// helper classes //
+	//================//
+	
+	private static class RegionTimestamps
+	{
+		private final int[] timestamps = new int[MappedRegionFile.CHUNKS_PER_REGION];
+		private boolean dirty = false;
+		/** once true no more changes will be written to disk */
+		private boolean unloaded = false;
+		
+		
+		
+		/** @return an empty region if the file doesn't exist or can't be read */
+		public static RegionTimestamps read(Path filePath)
+		{
+			RegionTimestamps region = new RegionTimestamps();
+			if (!Files.exists(filePath))
+			{
+				return region;
+			}
+			
+			try
+			{
+				byte[] bytes = Files.readAllBytes(filePath);
+				if (bytes.length != region.timestamps.length * 4)
+				{
+					LOGGER.warn("Ignoring chunk timestamp file [" + filePath + "] with unexpected length [" + bytes.length + "].");
+					return region;
+				}
+				
+				ByteBuffer.wrap(bytes).asIntBuffer().get(region.timestamps);
+			}
+			catch (IOException e)
+			{
+				LOGGER.warn("Unable to read chunk timestamp file [" + filePath + "], error: [" + e.getMessage() + "].");
+			}
+			return region;
+		}
+		
+		
+		
+		public synchronized int get(int index) { return this.timestamps[index]; }
+		/** @return false if this region was already unloaded and the timestamp wasn't set */
+		public synchronized boolean trySet(int index, int timestamp)
+		{
+			if (this.unloaded)
+			{
+				return false;
+			}
+			
+			if (this.timestamps[index] != timestamp)
+			{
+				this.timestamps[index] = timestamp;
+				this.dirty = true;
+			}
+			return true;
+		}
+		
+		public synchronized void writeAndUnload(Path folderPath, Path filePath)
+		{
+			this.unloaded = true;
+			if (!this.dirty)
+			{
+				return;
+			}
+			
+			ByteBuffer buffer = ByteBuffer.allocate(this.timestamps.length * 4);
+			buffer.asIntBuffer().put(this.timestamps);
+			
+			try
+			{
+				Files.createDirectories(folderPath);
+				
+				// write to a temporary file first so a crash can't leave a partially written file
+				Path tempFilePath = filePath.resolveSibling(filePath.getFileName() + ".tmp");
+				Files.write(tempFilePath, buffer.array());
+				try
+				{
+					Files.move(tempFilePath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+				catch (AtomicMoveNotSupportedException e)
+				{
+					Files.move(tempFilePath, filePath, StandardCopyOption.REPLACE_EXISTING);
+				}
+				
+				this.dirty = false;
+			}
+			catch (IOException e)
+			{
+				LOGGER.warn("Unable to write chunk timestamp file [" + filePath + "], error: [" + e.getMessage() + "].");
+			}
+		}
+	
+	}
+
+}
@@ -0,0 +1,292 @@
+/*
+ *    This file is part of the Distant Horizons mod
+ *    licensed under the GNU LGPL v3 License.
+ *
+ *    Copyright (C) 2020 James Seibel
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, version 3.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public License
+ *    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.seibel.distanthorizons.common.wrappers.worldGeneration.mimicObject;
+
+import net.minecraft.nbt.*;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reads chunk NBT straight from the (decompressed) byte stream,
+ * only creating tags for the data needed to build LODs. <br>
+ * Everything else (entities, block entities, ticks, structures, etc.) is skipped
+ * without being allocated. <br><br>
+ * 
+ * The returned {@link CompoundTag} has the same layout as the full chunk NBT
+ * so it can be passed to {@link ChunkLoader} like normal,
+ * however, since it's missing data, it should never be saved back to disk.
+ */
+public class LodChunkNbtReader
+{
+	/** If false the full chunk NBT will be read using {@link NbtIo} */
+	public static final boolean USE_LOD_ONLY_NBT_READING = true;
+	
+	/** 
+	 * Tags kept at the root of the chunk NBT (or under "Level" for MC versions before 1.18),
+	 * any child tags under these tags are kept as well.
+	 */
+	private static final Set<String> KEPT_CHUNK_TAG_NAMES = new HashSet<>(Arrays.asList(
+			"DataVersion", "xPos", "yPos", "zPos", "Status", "isLightOn", "InhabitedTime", "LastUpdate",
+			// blocks, biomes and lighting
+			"sections", "Sections", "Biomes",
+			"Heightmaps", "blending_data"
+		));
+	/** pre 1.18 chunks store everything under this tag */
+	private static final String LEVEL_TAG_NAME = "Level";
+	
+	/** same as Minecraft's limit */
+	private static final int MAX_DEPTH = 512;
+	
+	private static final byte TAG_END = 0;
+	private static final byte TAG_BYTE = 1;
+	private static final byte TAG_SHORT = 2;
+	private static final byte TAG_INT = 3;
+	private static final byte TAG_LONG = 4;
+	private static final byte TAG_FLOAT = 5;
+	private static final byte TAG_DOUBLE = 6;
+	private static final byte TAG_BYTE_ARRAY = 7;
+	private static final byte TAG_STRING = 8;
+	private static final byte TAG_LIST = 9;
+	private static final byte TAG_COMPOUND = 10;
+	private static final byte TAG_INT_ARRAY = 11;
+	private static final byte TAG_LONG_ARRAY = 12;
+	
+	
+	
+	//=========//
+	// reading //
+	//=========//
+	
+	/** @return null if the stream doesn't contain a compound tag */
+	@Nullable
+	public static CompoundTag read(DataInput input) throws IOException
+	{
+		byte rootType = input.readByte();
+		if (rootType != TAG_COMPOUND)
+		{
+			return null;
+		}
+		
+		// the root tag's name is always empty
+		skipString(input);
+		return readChunkCompound(input, true);
+	}
+	
+	/** @param isRoot if true, the "Level" tag will be recursed into */
+	private static CompoundTag readChunkCompound(DataInput input, boolean isRoot) throws IOException
+	{
+		CompoundTag compoundTag = new CompoundTag();
+		
+		byte type;
+		while ((type = input.readByte()) != TAG_END)
+		{
+			String name = input.readUTF();
+			if (KEPT_CHUNK_TAG_NAMES.contains(name))
+			{
+				compoundTag.put(name, readPayload(input, type, 1));
+			}
+			else if (isRoot && type == TAG_COMPOUND && name.equals(LEVEL_TAG_NAME))
+			{
+				compoundTag.put(name, readChunkCompound(input, false));
+			}
+			else
+			{
+				skipPayload(input, type, 1);
+			}
+		}
+		
+		return compoundTag;
+	}
+	
+	private static Tag readPayload(DataInput input, byte type, int depth) throws IOException
+	{
+		if (depth > MAX_DEPTH)
+		{
+			throw new IOException("Tried to read NBT tag with too high complexity, depth > " + MAX_DEPTH);
+		}
+		
+		switch (type)
+		{
+			case TAG_BYTE:
+				return ByteTag.valueOf(input.readByte());
+			case TAG_SHORT:
+				return ShortTag.valueOf(input.readShort());
+			case TAG_INT:
+				return IntTag.valueOf(input.readInt());
+			case TAG_LONG:
+				return LongTag.valueOf(input.readLong());
+			case TAG_FLOAT:
+				return FloatTag.valueOf(input.readFloat());
+			case TAG_DOUBLE:
+				return DoubleTag.valueOf(input.readDouble());
+			case TAG_BYTE_ARRAY:
+			{
+				byte[] bytes = new byte[readArrayLength(input)];
+				input.readFully(bytes);
+				return new ByteArrayTag(bytes);
+			}
+			case TAG_STRING:
+				return StringTag.valueOf(input.readUTF());
+			case TAG_LIST:
+			{
+				byte elementType = input.readByte();
+				int length = readArrayLength(input);
+				
+				ListTag listTag = new ListTag();
+				for (int i = 0; i < length; i++)
+				{
+					listTag.add(readPayload(input, elementType, depth + 1));
+				}
+				return listTag;
+			}
+			case TAG_COMPOUND:
+			{
+				CompoundTag compoundTag = new CompoundTag();
+				byte childType;
+				while ((childType = input.readByte()) != TAG_END)
+				{
+					String childName = input.readUTF();
+					compoundTag.put(childName, readPayload(input, childType, depth + 1));
+				}
+				return compoundTag;
+			}
+			case TAG_INT_ARRAY:
+			{
+				int[] ints = new int[readArrayLength(input)];
+				for (int i = 0; i < ints.length; i++)
+				{
+					ints[i] = input.readInt();
+				}
+				return new IntArrayTag(ints);
+			}
+			case TAG_LONG_ARRAY:
+			{
+				long[] longs = new long[readArrayLength(input)];
+				for (int i = 0; i < longs.length; i++)
+				{
+					longs[i] = input.readLong();
+				}
+				return new LongArrayTag(longs);
+			}
+			default:
+				throw new IOException("Invalid NBT tag type [" + type + "].");
+		}
+	}
+	
+	
+	
+	//==========//
+	// skipping //
+	//==========//
+	
+	private static void skipPayload(DataInput input, byte type, int depth) throws IOException
+	{
+		if (depth > MAX_DEPTH)
+		{
+			throw new IOException("Tried to skip NBT tag with too high complexity, depth > " + MAX_DEPTH);
+		}
+		
+		switch (type)
+		{
+			case TAG_BYTE:
+				skipFully(input, 1);
+				break;
+			case TAG_SHORT:
+				skipFully(input, 2);
+				break;
+			case TAG_INT:
+			case TAG_FLOAT:
+				skipFully(input, 4);
+				break;
+			case TAG_LONG:
+			case TAG_DOUBLE:
+				skipFully(input, 8);
+				break;
+			case TAG_BYTE_ARRAY:
+				skipFully(input, readArrayLength(input));
+				break;
+			case TAG_STRING:
+				skipString(input);
+				break;
+			case TAG_LIST:
+			{
+				byte elementType = input.readByte();
+				int length = readArrayLength(input);
+				for (int i = 0; i < length; i++)
+				{
+					skipPayload(input, elementType, depth + 1);
+				}
+				break;
+			}
+			case TAG_COMPOUND:
+			{
+				byte childType;
+				while ((childType = input.readByte()) != TAG_END)
+				{
+					skipString(input);
+					skipPayload(input, childType, depth + 1);
+				}
+				break;
+			}
+			case TAG_INT_ARRAY:
+				skipFully(input, readArrayLength(input) * 4L);
+				break;
+			case TAG_LONG_ARRAY:
+				skipFully(input, readArrayLength(input) * 8L);
+				break;
+			default:
+				throw new IOException("Invalid NBT tag type [" + type + "].");
+		}
+	}
+	
+	private static void skipString(DataInput input) throws IOException { skipFully(input, input.readUnsignedShort()); }
+	
+	private static void skipFully(DataInput input, long byteCount) throws IOException
+	{
+		while (byteCount > 0)
+		{
+			int skipped = input.skipBytes((int) Math.min(byteCount, Integer.MAX_VALUE));
+			if (skipped <= 0)
+			{
+				// skipBytes can return 0 without reaching the end of the stream,
+				// reading a byte will either make progress or throw an EOFException
+				input.readByte();
+				skipped = 1;
+			}
+			byteCount -= skipped;
+		}
+	}
+	
+	private static int readArrayLength(DataInput input) throws IOException
+	{
+		int length = input.readInt();
+		if (length < 0)
+		{
+			throw new IOException("Invalid NBT array length [" + length + "].");
+		}
+		return length;
+	}
+
+}
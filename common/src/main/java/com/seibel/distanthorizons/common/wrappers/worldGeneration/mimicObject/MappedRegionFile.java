@@ -0,0 +1,507 @@
+/*
+ *    This file is part of the Distant Horizons mod
+ *    licensed under the GNU LGPL v3 License.
+ *
+ *    Copyright (C) 2020 James Seibel
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, version 3.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public License
+ *    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.seibel.distanthorizons.common.wrappers.worldGeneration.mimicObject;
+
+import com.seibel.distanthorizons.core.logging.DhLoggerBuilder;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.world.level.ChunkPos;
+import net.jpountz.lz4.LZ4BlockInputStream;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A read-only, memory mapped version of Minecraft's RegionFile (.mca). <br>
+ * The header is parsed once when the file is opened and chunk data is read
+ * directly out of the mapped buffer, so any number of threads can read at once without locking. <br><br>
+ * 
+ * This should only be used for region files Minecraft isn't currently writing to,
+ * see {@link RegionFileStorageExternalCache#read}. <br><br>
+ * 
+ * Region file layout: <br>
+ * - 4 KiB: 1024 chunk locations (3 byte sector offset + 1 byte sector count) <br>
+ * - 4 KiB: 1024 chunk timestamps (seconds since epoch) <br>
+ * - chunk payloads, each starting on a 4 KiB sector with:
+ * 4 byte length, 1 byte compression type, compressed NBT <br><br>
+ * 
+ * Files are reference counted (see {@link MappedRegionFile#tryRetain} and {@link MappedRegionFile#release}),
+ * once the last reference is released the file is unmapped immediately instead of waiting for the garbage collector. <br>
+ * Reading from a released file throws an {@link IllegalStateException} instead of touching the unmapped memory.
+ */
+public class MappedRegionFile
+{
+	private static final Logger LOGGER = DhLoggerBuilder.getLogger();
+	
+	public static final int SECTOR_BYTES = 4096;
+	public static final int CHUNKS_PER_REGION = 1024;
+	private static final int HEADER_BYTES = SECTOR_BYTES * 2;
+	
+	public static final byte COMPRESSION_GZIP = 1;
+	public static final byte COMPRESSION_ZLIB = 2;
+	public static final byte COMPRESSION_NONE = 3;
+	/** added in MC 1.20.5, see the "region-file-compression" server property */
+	public static final byte COMPRESSION_LZ4 = 4;
+	/** if this bit is set, the chunk's data is stored in a separate .mcc file */
+	public static final byte COMPRESSION_EXTERNAL_FLAG = (byte) 128;
+	
+	
+	public final Path path;
+	/** used to determine if the file was modified after it was mapped */
+	public final long lastModifiedTimeMs;
+	/** the last time {@link MappedRegionFile#lastModifiedTimeMs} was compared against the file on disk */
+	public volatile long lastValidationTimeMs;
+	
+	/** null once every reference has been released */
+	@Nullable
+	private volatile MappedByteBuffer buffer;
+	private final int[] offsets = new int[CHUNKS_PER_REGION];
+	private final int[] timestamps = new int[CHUNKS_PER_REGION];
+	
+	/** written to by {@link MappedRegionFile#prefetchSectors} so the JIT can't remove the prefetch reads */
+	private int prefetchSink = 0;
+	
+	/** starts at 1, which is owned by whoever opened the file */
+	private final AtomicInteger refCount = new AtomicInteger(1);
+	
+	/** null if direct buffers can't be explicitly unmapped on this JVM */
+	@Nullable
+	private static final Method UNMAP_METHOD;
+	@Nullable
+	private static final Object UNSAFE_INSTANCE;
+	
+	static
+	{
+		Method unmapMethod = null;
+		Object unsafeInstance = null;
+		try
+		{
+			// only present in Java 9+
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			unmapMethod = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+			unsafeField.setAccessible(true);
+			unsafeInstance = unsafeField.get(null);
+		}
+		catch (ReflectiveOperationException | RuntimeException e)
+		{
+			LOGGER.debug("Unable to find a way to unmap region files, they will be unmapped by the garbage collector instead. Error: [" + e.getMessage() + "].");
+			unmapMethod = null;
+			unsafeInstance = null;
+		}
+		
+		UNMAP_METHOD = unmapMethod;
+		UNSAFE_INSTANCE = unsafeInstance;
+	}
+	
+	
+	
+	//=============//
+	// constructor //
+	//=============//
+	
+	/** @return null if the file doesn't exist or is too small to contain a header */
+	@Nullable
+	public static MappedRegionFile tryOpen(Path path) throws IOException
+	{
+		if (!Files.exists(path))
+		{
+			return null;
+		}
+		
+		long lastModifiedTimeMs = Files.getLastModifiedTime(path).toMillis();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			if (size < HEADER_BYTES)
+			{
+				// the file is either empty or still being created
+				return null;
+			}
+			
+			// the mapping stays valid after the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			return new MappedRegionFile(path, lastModifiedTimeMs, buffer);
+		}
+	}
+	
+	private MappedRegionFile(Path path, long lastModifiedTimeMs, MappedByteBuffer buffer)
+	{
+		this.path = path;
+		this.lastModifiedTimeMs = lastModifiedTimeMs;
+		this.lastValidationTimeMs = System.currentTimeMillis();
+		this.buffer = buffer;
+		
+		for (int i = 0; i < CHUNKS_PER_REGION; i++)
+		{
+			this.offsets[i] = buffer.getInt(i * 4);
+			this.timestamps[i] = buffer.getInt(SECTOR_BYTES + (i * 4));
+		}
+	}
+	
+	
+	
+	//====================//
+	// reference counting //
+	//====================//
+	
+	/** 
+	 * Must be called before reading from a file that was retrieved from a shared cache. <br>
+	 * Each successful call must be paired with a call to {@link MappedRegionFile#release}.
+	 * 
+	 * @return false if the file has already been unmapped and can't be used
+	 */
+	public boolean tryRetain()
+	{
+		while (true)
+		{
+			int count = this.refCount.get();
+			if (count <= 0)
+			{
+				return false;
+			}
+			
+			if (this.refCount.compareAndSet(count, count + 1))
+			{
+				return true;
+			}
+		}
+	}
+	
+	/** 
+	 * Unmaps the file once every reference has been released. <br>
+	 * Any buffers returned by {@link MappedRegionFile#getCompressedChunk} must no longer be in use,
+	 * reading them after the file has been unmapped will crash the JVM.
+	 */
+	public void release()
+	{
+		int count = this.refCount.decrementAndGet();
+		if (count != 0)
+		{
+			if (count < 0)
+			{
+				LOGGER.warn("Region file [" + this.path + "] was released more times than it was retained.");
+			}
+			return;
+		}
+		
+		// cleared before unmapping so any further reads fail instead of reading unmapped memory
+		MappedByteBuffer buffer = this.buffer;
+		this.buffer = null;
+		if (buffer == null || UNMAP_METHOD == null)
+		{
+			return;
+		}
+		
+		try
+		{
+			UNMAP_METHOD.invoke(UNSAFE_INSTANCE, buffer);
+		}
+		catch (ReflectiveOperationException | RuntimeException e)
+		{
+			// the garbage collector will unmap it instead
+			LOGGER.debug("Unable to unmap region file [" + this.path + "], error: [" + e.getMessage() + "].");
+		}
+	}
+	
+	
+	
+	//=========//
+	// reading //
+	//=========//
+	
+	public boolean isReleased() { return this.buffer == null; }
+	
+	/** @throws IllegalStateException if every reference to this file has already been released */
+	private MappedByteBuffer getBuffer() throws IllegalStateException
+	{
+		MappedByteBuffer buffer = this.buffer;
+		if (buffer == null)
+		{
+			throw new IllegalStateException("Region file [" + this.path + "] was read after it was released.");
+		}
+		return buffer;
+	}
+	
+	public boolean hasChunk(ChunkPos pos) { return this.offsets[getIndex(pos)] != 0; }
+	
+	/** @return the last time this chunk was saved in seconds since the epoch, 0 if the chunk isn't present */
+	public int getTimestamp(ChunkPos pos) { return this.timestamps[getIndex(pos)]; }
+	
+	/**
+	 * Re-reads this chunk's location and timestamp from the mapped file and compares them
+	 * against the header that was parsed when the file was opened. <br>
+	 * The mapping reflects any writes made after the file was mapped, so a mismatch means Minecraft
+	 * has re-saved this chunk and data read from the old location may be stale or partially overwritten.
+	 */
+	public boolean isHeaderUnchanged(ChunkPos pos)
+	{
+		MappedByteBuffer buffer = this.getBuffer();
+		int index = getIndex(pos);
+		return buffer.getInt(index * 4) == this.offsets[index]
+			&& buffer.getInt(SECTOR_BYTES + (index * 4)) == this.timestamps[index];
+	}
+	
+	/** @return the first sector this chunk is stored in, 0 if the chunk isn't present */
+	public int getSectorOffset(ChunkPos pos) { return this.offsets[getIndex(pos)] >>> 8; }
+	/** @return how many sectors this chunk takes up, 0 if the chunk isn't present */
+	public int getSectorCount(ChunkPos pos) { return this.offsets[getIndex(pos)] & 0xFF; }
+	
+	/**
+	 * Touches each page in the given sector range in ascending order,
+	 * allowing the OS to read the whole range with a few sequential reads
+	 * instead of faulting in each chunk's pages separately as they're decoded. <br>
+	 * This is the same as {@link MappedByteBuffer#load()} but for only part of the file.
+	 */
+	public void prefetchSectors(int firstSector, int sectorCount)
+	{
+		MappedByteBuffer buffer = this.getBuffer();
+		long startByte = (long) firstSector * SECTOR_BYTES;
+		long endByte = Math.min(startByte + ((long) sectorCount * SECTOR_BYTES), buffer.capacity());
+		
+		int sum = 0;
+		for (long i = startByte; i < endByte; i += SECTOR_BYTES)
+		{
+			sum += buffer.get((int) i);
+		}
+		this.prefetchSink = sum;
+	}
+	
+	/**
+	 * @return null if the chunk isn't present in this file
+	 * @throws UnsupportedCompressionException if the chunk uses a compression format this reader can't handle,
+	 *                                         in which case Minecraft's RegionFile should be used instead
+	 * @throws IOException if the chunk's data is corrupt or couldn't be read
+	 */
+	@Nullable
+	public CompoundTag read(ChunkPos pos) throws IOException, UnsupportedCompressionException
+	{
+		if (ChunkDecompressor.USE_POOLED_DECOMPRESSION)
+		{
+			CompressedChunk compressedChunk = this.getCompressedChunk(pos);
+			if (compressedChunk == null)
+			{
+				return null;
+			}
+			
+			return readNbt(ChunkDecompressor.decompress(compressedChunk));
+		}
+		
+		
+		InputStream inputStream = this.getChunkInputStream(pos);
+		if (inputStream == null)
+		{
+			return null;
+		}
+		
+		try (DataInputStream dataStream = new DataInputStream(inputStream))
+		{
+			return readNbt(dataStream);
+		}
+	}
+	
+	/** parses NBT that has already been decompressed by the {@link ChunkDecompressor} */
+	public static CompoundTag readNbt(byte[] decompressedData) throws IOException
+	{
+		try (DataInputStream dataStream = new DataInputStream(new ByteArrayInputStream(decompressedData)))
+		{
+			return readNbt(dataStream);
+		}
+	}
+	private static CompoundTag readNbt(DataInputStream dataStream) throws IOException
+	{
+		return LodChunkNbtReader.USE_LOD_ONLY_NBT_READING ? LodChunkNbtReader.read(dataStream) : NbtIo.read(dataStream);
+	}
+	
+	/** @see MappedRegionFile#read(ChunkPos) */
+	@Nullable
+	public InputStream getChunkInputStream(ChunkPos pos) throws IOException, UnsupportedCompressionException
+	{
+		CompressedChunk compressedChunk = this.getCompressedChunk(pos);
+		if (compressedChunk == null)
+		{
+			return null;
+		}
+		
+		InputStream rawStream = new ByteBufferInputStream(compressedChunk);
+		switch (compressedChunk.compressionType)
+		{
+			case COMPRESSION_GZIP:
+				return new BufferedInputStream(new GZIPInputStream(rawStream));
+			case COMPRESSION_ZLIB:
+				return new BufferedInputStream(new InflaterInputStream(rawStream));
+			case COMPRESSION_LZ4:
+				return new LZ4BlockInputStream(rawStream);
+			case COMPRESSION_NONE:
+				return rawStream;
+			default:
+				throw new UnsupportedCompressionException(compressedChunk.compressionType);
+		}
+	}
+	
+	/**
+	 * Returns the chunk's still compressed payload without copying it,
+	 * so it can be decompressed on a different thread, see {@link ChunkDecompressor#decompressAsync}.
+	 * 
+	 * @see MappedRegionFile#read(ChunkPos)
+	 */
+	@Nullable
+	public CompressedChunk getCompressedChunk(ChunkPos pos) throws IOException, UnsupportedCompressionException
+	{
+		int location = this.offsets[getIndex(pos)];
+		if (location == 0)
+		{
+			return null;
+		}
+		
+		MappedByteBuffer buffer = this.getBuffer();
+		long byteOffset = (long) (location >>> 8) * SECTOR_BYTES;
+		long sectorByteCount = (long) (location & 0xFF) * SECTOR_BYTES;
+		if (byteOffset < HEADER_BYTES || byteOffset + 5 > buffer.capacity())
+		{
+			throw new IOException("Chunk [" + pos + "] has an invalid offset [" + byteOffset + "] in region file [" + this.path + "].");
+		}
+		if (!this.isHeaderUnchanged(pos))
+		{
+			throw new IOException("Chunk [" + pos + "] was modified after region file [" + this.path + "] was mapped.");
+		}
+		
+		
+		// duplicate so each thread has its own position and limit
+		ByteBuffer chunkBuffer = buffer.duplicate();
+		chunkBuffer.position((int) byteOffset);
+		
+		int length = chunkBuffer.getInt();
+		byte compressionType = chunkBuffer.get();
+		if (length <= 0 || length > sectorByteCount)
+		{
+			throw new IOException("Chunk [" + pos + "] has an invalid length [" + length + "] in region file [" + this.path + "].");
+		}
+		
+		if ((compressionType & COMPRESSION_EXTERNAL_FLAG) != 0)
+		{
+			// oversized chunks are rare, Minecraft's RegionFile can handle them
+			throw new UnsupportedCompressionException(compressionType);
+		}
+		
+		// the length includes the compression type byte
+		long payloadEnd = chunkBuffer.position() + (long) (length - 1);
+		if (payloadEnd > chunkBuffer.capacity())
+		{
+			throw new IOException("Chunk [" + pos + "] extends past the end of region file [" + this.path + "].");
+		}
+		chunkBuffer.limit((int) payloadEnd);
+		
+		return new CompressedChunk(this, compressionType, chunkBuffer.slice());
+	}
+	
+	private static int getIndex(ChunkPos pos) { return (pos.x & 31) + ((pos.z & 31) * 32); }
+	
+	
+	
+	//================//
+	// helper classes //
+	//================//
+	
+	public static class UnsupportedCompressionException extends Exception
+	{
+		public UnsupportedCompressionException(byte compressionType) { super("Unsupported region file compression type [" + compressionType + "]."); }
+	}
+	
+	public static class CompressedChunk
+	{
+		/** the file {@link CompressedChunk#data} points into */
+		public final MappedRegionFile sourceFile;
+		public final byte compressionType;
+		/** a view into the mapped file, positioned at the start of the compressed payload */
+		private final ByteBuffer data;
+		
+		public CompressedChunk(MappedRegionFile sourceFile, byte compressionType, ByteBuffer data)
+		{
+			this.sourceFile = sourceFile;
+			this.compressionType = compressionType;
+			this.data = data;
+		}
+		
+		/** @throws IllegalStateException if the source file has been released and the data is no longer mapped */
+		public ByteBuffer getData() throws IllegalStateException
+		{
+			if (this.sourceFile.isReleased())
+			{
+				throw new IllegalStateException("Compressed chunk data from region file [" + this.sourceFile.path + "] was read after the file was released.");
+			}
+			return this.data;
+		}
+	}
+	
+	/** reads directly from a {@link CompressedChunk}'s mapped buffer without copying it */
+	private static class ByteBufferInputStream extends InputStream
+	{
+		private final CompressedChunk compressedChunk;
+		private final ByteBuffer buffer;
+		
+		public ByteBufferInputStream(CompressedChunk compressedChunk)
+		{
+			this.compressedChunk = compressedChunk;
+			this.buffer = compressedChunk.getData();
+		}
+		
+		@Override
+		public int read()
+		{
+			this.compressedChunk.getData();
+			return this.buffer.hasRemaining() ? (this.buffer.get() & 0xFF) : -1;
+		}
+		
+		@Override
+		public int read(byte[] bytes, int offset, int length)
+		{
+			this.compressedChunk.getData();
+			if (!this.buffer.hasRemaining())
+			{
+				return -1;
+			}
+			
+			int readLength = Math.min(length, this.buffer.remaining());
+			this.buffer.get(bytes, offset, readLength);
+			return readLength;
+		}
+		
+		@Override
+		public int available() { return this.buffer.remaining(); }
+	}
+
+}
@@ -0,0 +1,190 @@
+/*
+ *    This file is part of the Distant Horizons mod
+ *    licensed under the GNU LGPL v3 License.
+ *
+ *    Copyright (C) 2020 James Seibel
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, version 3.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public License
+ *    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.seibel.distanthorizons.common.wrappers.worldGeneration.mimicObject;
+
+import com.mojang.datafixers.util.Pair;
+import com.mojang.serialization.Codec;
+import com.mojang.serialization.DataResult;
+import com.mojang.serialization.Decoder;
+import com.mojang.serialization.DynamicOps;
+import com.seibel.distanthorizons.common.wrappers.block.BlockStateWrapper;
+import com.seibel.distanthorizons.core.logging.DhLoggerBuilder;
+import com.seibel.distanthorizons.core.wrapperInterfaces.world.ILevelWrapper;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtOps;
+import net.minecraft.nbt.Tag;
+import net.minecraft.world.level.block.state.BlockState;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the {@link BlockState} (and {@link BlockStateWrapper}) each block palette entry resolves to. <br>
+ * Chunk NBT stores each section's palette as a list of "Name" + "Properties" tags,
+ * resolving each of those via {@link BlockState#CODEC} is fairly expensive,
+ * but only a few hundred different states are generally used across millions of sections. <br><br>
+ *
+ * Entries are keyed by the block's name followed by its properties sorted by name,
+ * so property order in the NBT doesn't matter.
+ *
+ * @see ChunkLoader
+ * @see com.seibel.distanthorizons.common.wrappers.chunk.PaletteChunkWrapper
+ */
+public class PaletteEntryCache
+{
+	private static final Logger LOGGER = DhLoggerBuilder.getLogger();
+	
+	/** if more states than this are cached (IE due to corrupt data), the cache will be cleared */
+	public static final int MAX_CACHED_ENTRY_COUNT = 65_536;
+	
+	private static final ConcurrentHashMap<String, CachedEntry> ENTRY_BY_KEY = new ConcurrentHashMap<>();
+	
+	/**
+	 * Drop in replacement for {@link BlockState#CODEC} that uses this cache when decoding NBT,
+	 * for use in {@link net.minecraft.world.level.chunk.PalettedContainer}'s codec.
+	 */
+	public static final Codec<BlockState> CACHED_BLOCK_STATE_CODEC = Codec.of(BlockState.CODEC, new Decoder<BlockState>()
+	{
+		@Override
+		public <T> DataResult<Pair<BlockState, T>> decode(DynamicOps<T> ops, T input)
+		{
+			if (input instanceof CompoundTag)
+			{
+				BlockState blockState = getBlockState((CompoundTag) input);
+				if (blockState != null)
+				{
+					return DataResult.success(Pair.of(blockState, ops.empty()));
+				}
+			}
+			
+			// let the codec handle reporting the error
+			return BlockState.CODEC.decode(ops, input);
+		}
+	});
+	
+	
+	
+	//=========//
+	// getters //
+	//=========//
+	
+	/** @return null if the entry is malformed or references a block that doesn't exist */
+	@Nullable
+	public static BlockState getBlockState(CompoundTag paletteEntryTag) { return getOrResolve(paletteEntryTag).blockState; }
+	
+	/** Unknown blocks are returned as air, the same as MC. */
+	public static BlockStateWrapper getBlockStateWrapper(CompoundTag paletteEntryTag, ILevelWrapper levelWrapper)
+	{
+		CachedEntry entry = getOrResolve(paletteEntryTag);
+		
+		BlockStateWrapper wrapper = entry.wrapper;
+		if (wrapper == null)
+		{
+			// BlockStateWrapper has its own cache, so creating duplicates here is harmless
+			wrapper = (entry.blockState != null) ? BlockStateWrapper.fromBlockState(entry.blockState, levelWrapper) : BlockStateWrapper.AIR;
+			entry.wrapper = wrapper;
+		}
+		return wrapper;
+	}
+	
+	public static int size() { return ENTRY_BY_KEY.size(); }
+	
+	public static void clear() { ENTRY_BY_KEY.clear(); }
+	
+	
+	
+	//=========//
+	// helpers //
+	//=========//
+	
+	private static CachedEntry getOrResolve(CompoundTag paletteEntryTag)
+	{
+		String key = createKey(paletteEntryTag);
+		CachedEntry entry = ENTRY_BY_KEY.get(key);
+		if (entry != null)
+		{
+			return entry;
+		}
+		
+		// partial results are kept, the same as MC's chunk loading,
+		// that way a single unknown property doesn't turn the whole block into air
+		BlockState blockState = BlockState.CODEC.parse(NbtOps.INSTANCE, paletteEntryTag)
+				.resultOrPartial((message) -> LOGGER.warn("Unable to fully parse block palette entry [" + key + "], error: [" + message + "]."))
+				.orElse(null);
+		entry = new CachedEntry(blockState);
+		
+		if (ENTRY_BY_KEY.size() >= MAX_CACHED_ENTRY_COUNT)
+		{
+			ENTRY_BY_KEY.clear();
+		}
+		CachedEntry existingEntry = ENTRY_BY_KEY.putIfAbsent(key, entry);
+		return (existingEntry != null) ? existingEntry : entry;
+	}
+	
+	/** @return a string formatted like "minecraft:oak_stairs[facing=east,half=top]" */
+	private static String createKey(CompoundTag paletteEntryTag)
+	{
+		String name = paletteEntryTag.getString("Name");
+		if (!paletteEntryTag.contains("Properties", Tag.TAG_COMPOUND))
+		{
+			return name;
+		}
+		
+		CompoundTag propertiesTag = paletteEntryTag.getCompound("Properties");
+		ArrayList<String> propertyNames = new ArrayList<>(propertiesTag.getAllKeys());
+		Collections.sort(propertyNames);
+		
+		StringBuilder builder = new StringBuilder(name.length() + (propertyNames.size() * 16));
+		builder.append(name).append('[');
+		for (int i = 0; i < propertyNames.size(); i++)
+		{
+			if (i != 0)
+			{
+				builder.append(',');
+			}
+			
+			String propertyName = propertyNames.get(i);
+			builder.append(propertyName).append('=').append(propertiesTag.getString(propertyName));
+		}
+		return builder.append(']').toString();
+	}
+	
+	
+	
+	//================//
+	// helper classes //
+	//================//
+	
+	private static class CachedEntry
+	{
+		/** null if the block doesn't exist */
+		@Nullable
+		public final BlockState blockState;
+		/** lazily created, since {@link ChunkLoader} doesn't need wrappers */
+		@Nullable
+		public volatile BlockStateWrapper wrapper = null;
+		
+		public CachedEntry(@Nullable BlockState blockState) { this.blockState = blockState; }
+	}
+
+}
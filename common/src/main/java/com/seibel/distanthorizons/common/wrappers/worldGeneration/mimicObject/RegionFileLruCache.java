@@ -0,0 +1,343 @@
+/*
+ *    This file is part of the Distant Horizons mod
+ *    licensed under the GNU LGPL v3 License.
+ *
+ *    Copyright (C) 2020 James Seibel
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, version 3.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public License
+ *    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.seibel.distanthorizons.common.wrappers.worldGeneration.mimicObject;
+
+import com.seibel.distanthorizons.core.logging.DhLoggerBuilder;
+import net.minecraft.world.level.chunk.storage.RegionFile;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A least recently used cache of the {@link RegionFile}s DH opened itself
+ * (IE files Minecraft doesn't currently have open). <br>
+ * Keyed by the region position packed via {@link net.minecraft.world.level.ChunkPos#asLong(int, int)}. <br><br>
+ *
+ * Files are handed out as reference counted {@link Handle}s,
+ * evicted files are only closed once every handle to them has been closed,
+ * so a file will never be closed while another thread is reading from it. <br>
+ * Because of this the number of open files can briefly exceed {@link RegionFileLruCache#getMaxOpenFileCount()}
+ * by the number of threads currently reading evicted files.
+ *
+ * @see RegionFileStorageExternalCache
+ */
+public class RegionFileLruCache implements AutoCloseable
+{
+	private static final Logger LOGGER = DhLoggerBuilder.getLogger();
+	
+	/**
+	 * Large enough for several world generator threads sweeping a 32x32 region area,
+	 * while staying well below most OS file handle limits.
+	 */
+	public static final int DEFAULT_MAX_OPEN_FILE_COUNT = 64;
+	
+	/** guards {@link RegionFileLruCache#entryByRegionPos} and each entry's reference count */
+	private final ReentrantLock lock = new ReentrantLock();
+	/** access ordered so the first entry is always the least recently used */
+	private final LinkedHashMap<Long, Entry> entryByRegionPos = new LinkedHashMap<>(16, 0.75f, true);
+	
+	private volatile int maxOpenFileCount = DEFAULT_MAX_OPEN_FILE_COUNT;
+	
+	private final AtomicLong hitCount = new AtomicLong(0);
+	private final AtomicLong missCount = new AtomicLong(0);
+	private final AtomicLong evictionCount = new AtomicLong(0);
+	
+	
+	
+	//=========//
+	// getters //
+	//=========//
+	
+	/**
+	 * @return null if no file is cached for the given region. <br>
+	 *          The returned handle must be closed once the file is no longer needed.
+	 */
+	@Nullable
+	public Handle acquire(long regionPos)
+	{
+		this.lock.lock();
+		try
+		{
+			Entry entry = this.entryByRegionPos.get(regionPos);
+			if (entry == null)
+			{
+				this.missCount.incrementAndGet();
+				return null;
+			}
+			
+			this.hitCount.incrementAndGet();
+			entry.refCount++;
+			return new Handle(entry.file, this, entry);
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+	
+	/**
+	 * Adds the given file to the cache. <br>
+	 * If another thread already cached a file for the same region
+	 * the given file will be closed and the existing file will be returned instead.
+	 *
+	 * @return a handle that must be closed once the file is no longer needed
+	 */
+	public Handle putAndAcquire(long regionPos, RegionFile file)
+	{
+		ArrayList<RegionFile> filesToClose = new ArrayList<>();
+		Handle handle;
+		
+		this.lock.lock();
+		try
+		{
+			Entry entry = this.entryByRegionPos.get(regionPos);
+			if (entry != null)
+			{
+				filesToClose.add(file);
+			}
+			else
+			{
+				entry = new Entry(file);
+				this.entryByRegionPos.put(regionPos, entry);
+				this.evictOverBudgetEntries(filesToClose);
+			}
+			
+			entry.refCount++;
+			handle = new Handle(entry.file, this, entry);
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+		
+		// closing can be slow, so it's done outside the lock
+		closeFiles(filesToClose);
+		return handle;
+	}
+	
+	
+	
+	//==========//
+	// eviction //
+	//==========//
+	
+	public int getMaxOpenFileCount() { return this.maxOpenFileCount; }
+	/** Evicts any files over the new budget immediately. */
+	public void setMaxOpenFileCount(int maxOpenFileCount)
+	{
+		this.maxOpenFileCount = Math.max(1, maxOpenFileCount);
+		
+		ArrayList<RegionFile> filesToClose = new ArrayList<>();
+		this.lock.lock();
+		try
+		{
+			this.evictOverBudgetEntries(filesToClose);
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+		closeFiles(filesToClose);
+	}
+	
+	/** must be called while holding {@link RegionFileLruCache#lock} */
+	private void evictOverBudgetEntries(ArrayList<RegionFile> filesToClose)
+	{
+		Iterator<Entry> iterator = this.entryByRegionPos.values().iterator();
+		while (this.entryByRegionPos.size() > this.maxOpenFileCount && iterator.hasNext())
+		{
+			Entry entry = iterator.next();
+			iterator.remove();
+			this.evictionCount.incrementAndGet();
+			
+			entry.evicted = true;
+			if (entry.refCount == 0)
+			{
+				filesToClose.add(entry.file);
+			}
+		}
+	}
+	
+	private void release(Entry entry)
+	{
+		boolean closeFile;
+		this.lock.lock();
+		try
+		{
+			entry.refCount--;
+			closeFile = (entry.evicted && entry.refCount == 0);
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+		
+		if (closeFile)
+		{
+			closeFile(entry.file);
+		}
+	}
+	
+	private static void closeFiles(ArrayList<RegionFile> files)
+	{
+		for (int i = 0; i < files.size(); i++)
+		{
+			closeFile(files.get(i));
+		}
+	}
+	private static void closeFile(RegionFile file)
+	{
+		try
+		{
+			file.close();
+		}
+		catch (IOException e)
+		{
+			LOGGER.warn("Unable to close region file, error: [" + e.getMessage() + "].", e);
+		}
+	}
+	
+	
+	
+	//=======//
+	// stats //
+	//=======//
+	
+	public long getHitCount() { return this.hitCount.get(); }
+	public long getMissCount() { return this.missCount.get(); }
+	public long getEvictionCount() { return this.evictionCount.get(); }
+	
+	public int size()
+	{
+		this.lock.lock();
+		try
+		{
+			return this.entryByRegionPos.size();
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+	
+	
+	
+	//================//
+	// base overrides //
+	//================//
+	
+	/** Any files that are still in use will be closed once their last handle is closed. */
+	@Override
+	public void close()
+	{
+		ArrayList<RegionFile> filesToClose = new ArrayList<>();
+		this.lock.lock();
+		try
+		{
+			for (Entry entry : this.entryByRegionPos.values())
+			{
+				entry.evicted = true;
+				if (entry.refCount == 0)
+				{
+					filesToClose.add(entry.file);
+				}
+			}
+			this.entryByRegionPos.clear();
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+		closeFiles(filesToClose);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "size: [" + this.size() + "/" + this.maxOpenFileCount + "], " +
+				"hits: [" + this.hitCount.get() + "], " +
+				"misses: [" + this.missCount.get() + "], " +
+				"evictions: [" + this.evictionCount.get() + "]";
+	}
+	
+	
+	
+	//================//
+	// helper classes //
+	//================//
+	
+	private static class Entry
+	{
+		public final RegionFile file;
+		/** how many open handles reference this file, only accessed while holding the cache's lock */
+		public int refCount = 0;
+		/** only accessed while holding the cache's lock */
+		public boolean evicted = false;
+		
+		public Entry(RegionFile file) { this.file = file; }
+	}
+	
+	/** Must be closed once the file is no longer needed. */
+	public static class Handle implements AutoCloseable
+	{
+		public final RegionFile file;
+		
+		/** null if this file isn't managed by a {@link RegionFileLruCache} */
+		@Nullable
+		private final RegionFileLruCache cache;
+		@Nullable
+		private final Entry entry;
+		private boolean closed = false;
+		
+		
+		
+		private Handle(RegionFile file, @Nullable RegionFileLruCache cache, @Nullable Entry entry)
+		{
+			this.file = file;
+			this.cache = cache;
+			this.entry = entry;
+		}
+		
+		/** Used for files owned by Minecraft, closing the handle won't close the file. */
+		public static Handle unmanaged(RegionFile file) { return new Handle(file, null, null); }
+		
+		
+		
+		@Override
+		public void close()
+		{
+			if (this.closed || this.cache == null)
+			{
+				return;
+			}
+			
+			this.closed = true;
+			this.cache.release(this.entry);
+		}
+	
+	}
+
+}
@@ -11,10 +11,19 @@ import org.apache.logging.log4j.Logger;
 
 import org.jetbrains.annotations.Nullable;
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.locks.ReentrantLock;
 
 #if MC_VER >= MC_1_20_6
@@ -34,7 +43,19 @@ public class RegionFileStorageExternalCache implements AutoCloseable
 	/** Can be null due to the C2ME mod */
 	@Nullable
 	public final RegionFileStorage storage;
-	public static final int MAX_CACHE_SIZE = 16;
+	/** 
+	 * Mapped files only use address space, not heap memory or file handles, 
+	 * so they don't count towards {@link RegionFileLruCache#getMaxOpenFileCount()}. <br>
+	 * The least recently used file is unmapped once this is exceeded.
+	 */
+	public static final int MAX_MAPPED_FILE_COUNT = 64;
+	/** how often a mapped file is checked to see if it has been modified */
+	private static final long MAPPED_FILE_VALIDATION_INTERVAL_MS = 1_000;
+	/** 
+	 * How many unrequested sectors can be between two chunks in a batch 
+	 * before they're prefetched separately, see {@link RegionFileStorageExternalCache#readBatch}.
+	 */
+	private static final int MAX_COALESCED_SECTOR_GAP = 4;
 	
 	public static boolean regionCacheNullPointerWarningSent = false;
 	
@@ -48,14 +69,39 @@ public class RegionFileStorageExternalCache implements AutoCloseable
 	
 	
 	
-	private final ConcurrentLinkedQueue<RegionFileCache> regionFileCache = new ConcurrentLinkedQueue<>();
+	/** only contains files DH opened itself, files opened by Minecraft are never closed by DH */
+	private final RegionFileLruCache regionFileCache = new RegionFileLruCache();
+	
+	/** guards {@link RegionFileStorageExternalCache#mappedFileByRegionPos} */
+	private final ReentrantLock mappedFileLock = new ReentrantLock();
+	/** access ordered so the first entry is always the least recently used */
+	private final LinkedHashMap<Long, MappedRegionFile> mappedFileByRegionPos = new LinkedHashMap<>(16, 0.75f, true);
+	/** set if memory mapping fails, IE due to running out of address space */
+	private volatile boolean mappedReadingDisabled = false;
+	
+	/** null if {@link RegionFileStorageExternalCache#storage} is null */
+	@Nullable
+	private final RegionHeaderIndex headerIndex;
+	/** null if {@link RegionFileStorageExternalCache#storage} or the DH save folder is null */
+	@Nullable
+	private final ChunkImportTimestampStore importTimestampStore;
 	
 	
 	
-	public RegionFileStorageExternalCache(RegionFileStorage storage) { this.storage = storage; }
+	/** @param dhSaveFolder if null import timestamps won't be read or recorded, see {@link ChunkImportTimestampStore} */
+	public RegionFileStorageExternalCache(RegionFileStorage storage, @Nullable File dhSaveFolder) 
+	{ 
+		this.storage = storage;
+		this.headerIndex = (storage != null) ? new RegionHeaderIndex(this.getStorageFolderPath()) : null;
+		this.importTimestampStore = (storage != null && dhSaveFolder != null) ? ChunkImportTimestampStore.getForDhSaveFolder(dhSaveFolder) : null;
+	}
 	
+	/** 
+	 * @return null if the region file doesn't exist or can't be accessed. <br>
+	 *          The returned handle must be closed once the file is no longer needed.
+	 */
 	@Nullable
-	public RegionFile getRegionFile(ChunkPos pos) throws IOException
+	public RegionFileLruCache.Handle acquireRegionFile(ChunkPos pos) throws IOException
 	{
 		if (this.storage == null)
 		{
@@ -145,26 +191,18 @@ public class RegionFileStorageExternalCache implements AutoCloseable
 		
 		if (rFile != null)
 		{
-			return rFile;
+			return RegionFileLruCache.Handle.unmanaged(rFile);
 		}
 		
 		// Then check our custom cache
-		for (RegionFileCache cache : this.regionFileCache)
+		RegionFileLruCache.Handle cachedHandle = this.regionFileCache.acquire(posLong);
+		if (cachedHandle != null)
 		{
-			if (cache.pos == posLong)
-			{
-				return cache.file;
-			}
+			return cachedHandle;
 		}
 		
 		// Otherwise, check if file exist, and if so, add it to the cache
-		Path storageFolderPath;
-		#if MC_VER == MC_1_16_5 || MC_VER == MC_1_17_1
-		storageFolderPath = this.storage.folder.toPath();
-		#else
-		storageFolderPath = this.storage.folder;
-		#endif
-		
+		Path storageFolderPath = this.getStorageFolderPath();
 		if (!Files.exists(storageFolderPath))
 		{
 			return null;
@@ -179,69 +217,673 @@ public class RegionFileStorageExternalCache implements AutoCloseable
 		rFile = new RegionFile(new RegionStorageInfo("level", null, "level type"), regionFilePath, storageFolderPath, false);
 		#endif
 		
-		this.regionFileCache.add(new RegionFileCache(ChunkPos.asLong(pos.getRegionX(), pos.getRegionZ()), rFile));
-		while (this.regionFileCache.size() > MAX_CACHE_SIZE)
+		return this.regionFileCache.putAndAcquire(posLong, rFile);
+	}
+	
+	/** @return the hit/miss/eviction counts for DH's region file cache */
+	public String getRegionFileCacheStats() { return this.regionFileCache.toString(); }
+	
+	
+	/** 
+	 * @return the position of every region file in this dimension's storage folder,
+	 *          packed via {@link ChunkPos#asLong(int, int)}.
+	 *          Empty if the folder doesn't exist or Minecraft's storage isn't accessible.
+	 */
+	public ArrayList<Long> getRegionFilePositions() throws IOException
+	{
+		ArrayList<Long> regionPosList = new ArrayList<>();
+		if (this.storage == null)
 		{
-			this.regionFileCache.poll().file.close();
+			return regionPosList;
 		}
 		
-		return rFile;
+		Path storageFolderPath = this.getStorageFolderPath();
+		if (!Files.isDirectory(storageFolderPath))
+		{
+			return regionPosList;
+		}
+		
+		try (DirectoryStream<Path> fileStream = Files.newDirectoryStream(storageFolderPath, "r.*.*.mca"))
+		{
+			for (Path filePath : fileStream)
+			{
+				// file names are formatted "r.<regionX>.<regionZ>.mca"
+				String[] nameParts = filePath.getFileName().toString().split("\\.");
+				if (nameParts.length != 4)
+				{
+					continue;
+				}
+				
+				try
+				{
+					regionPosList.add(ChunkPos.asLong(Integer.parseInt(nameParts[1]), Integer.parseInt(nameParts[2])));
+				}
+				catch (NumberFormatException ignored)
+				{
+					// not a region file
+				}
+			}
+		}
+		
+		return regionPosList;
+	}
+	
+	private Path getStorageFolderPath()
+	{
+		#if MC_VER == MC_1_16_5 || MC_VER == MC_1_17_1
+		return this.storage.folder.toPath();
+		#else
+		return this.storage.folder;
+		#endif
 	}
 	
 	
 	@Nullable
 	public CompoundTag read(ChunkPos pos) throws IOException
 	{
-		RegionFile file = this.getRegionFile(pos);
-		if (file == null)
+		if (this.isChunkKnownMissing(pos))
 		{
 			return null;
 		}
 		
+		if (this.canReadMappedFile(pos))
+		{
+			try
+			{
+				MappedRegionFile mappedFile = this.acquireMappedRegionFile(pos);
+				if (mappedFile == null)
+				{
+					// the region file doesn't exist
+					return null;
+				}
+				
+				try
+				{
+					CompoundTag chunkData = mappedFile.read(pos);
+					if (this.isMappedReadStillValid(mappedFile, pos))
+					{
+						return chunkData;
+					}
+				}
+				finally
+				{
+					mappedFile.release();
+				}
+			}
+			catch (MappedRegionFile.UnsupportedCompressionException e)
+			{
+				// fall back to Minecraft's RegionFile
+			}
+			catch (IOException | RuntimeException | InternalError e)
+			{
+				// InternalError can be thrown if the mapped file was truncated while reading,
+				// either way we can try again using Minecraft's RegionFile
+				LOGGER.debug("Unable to read chunk [" + pos + "] from mapped region file, error: [" + e.getMessage() + "].");
+			}
+		}
 		
-		try (DataInputStream stream = file.getChunkDataInputStream(pos))
+		return this.readFromRegionFile(pos);
+	}
+	@Nullable
+	private CompoundTag readFromRegionFile(ChunkPos pos) throws IOException
+	{
+		// the handle prevents the file from being closed while we're reading it
+		try (RegionFileLruCache.Handle fileHandle = this.acquireRegionFile(pos))
 		{
-			if (stream == null)
+			if (fileHandle == null)
 			{
 				return null;
 			}
 			
-			return NbtIo.read(stream);
+			try (DataInputStream stream = fileHandle.file.getChunkDataInputStream(pos))
+			{
+				if (stream == null)
+				{
+					return null;
+				}
+				
+				return LodChunkNbtReader.USE_LOD_ONLY_NBT_READING ? LodChunkNbtReader.read(stream) : NbtIo.read(stream);
+			}
+			catch (Throwable e)
+			{
+				return null;
+			}
 		}
-		catch (Throwable e)
+	}
+	
+	
+	
+	//=============//
+	// batch reads //
+	//=============//
+	
+	/**
+	 * Reads several chunks at once. <br>
+	 * Chunks are grouped by region file and read in the order they're stored in each file,
+	 * with runs of neighboring chunks prefetched together, 
+	 * which turns what would be random reads into mostly sequential ones. <br>
+	 * The given list can contain chunks from any number of generation events.
+	 * 
+	 * @return chunk data keyed by {@link ChunkPos#toLong()}, 
+	 *          chunks that don't exist or couldn't be read won't be present.
+	 */
+	public HashMap<Long, CompoundTag> readBatch(List<ChunkPos> posList)
+	{
+		HashMap<Long, ArrayList<ChunkPos>> posListByRegionPos = new HashMap<>();
+		for (int i = 0; i < posList.size(); i++)
 		{
-			return null;
+			ChunkPos pos = posList.get(i);
+			if (this.isChunkKnownMissing(pos))
+			{
+				continue;
+			}
+			
+			posListByRegionPos.computeIfAbsent(ChunkPos.asLong(pos.getRegionX(), pos.getRegionZ()), (regionPos) -> new ArrayList<>()).add(pos);
+		}
+		
+		// regions are always read in the same order so concurrent batches sweep the disk in the same direction
+		ArrayList<Long> regionPosList = new ArrayList<>(posListByRegionPos.keySet());
+		regionPosList.sort(Comparator.comparingInt((Long regionPos) -> ChunkPos.getZ(regionPos)).thenComparingInt((Long regionPos) -> ChunkPos.getX(regionPos)));
+		
+		HashMap<Long, CompoundTag> chunkDataByPos = new HashMap<>(posList.size());
+		for (int i = 0; i < regionPosList.size(); i++)
+		{
+			ArrayList<ChunkPos> regionChunkPosList = posListByRegionPos.get(regionPosList.get(i));
+			ChunkPos firstPos = regionChunkPosList.get(0);
+			
+			MappedRegionFile mappedFile = null;
+			if (this.canReadMappedFile(firstPos))
+			{
+				try
+				{
+					mappedFile = this.acquireMappedRegionFile(firstPos);
+					if (mappedFile == null)
+					{
+						// the region file doesn't exist
+						continue;
+					}
+				}
+				catch (IOException | RuntimeException e)
+				{
+					LOGGER.debug("Unable to map region file for chunk [" + firstPos + "], error: [" + e.getMessage() + "].");
+				}
+			}
+			
+			if (mappedFile != null)
+			{
+				this.readBatchFromMappedFile(mappedFile, regionChunkPosList, chunkDataByPos);
+			}
+			else
+			{
+				for (int j = 0; j < regionChunkPosList.size(); j++)
+				{
+					this.tryReadFromRegionFileIntoMap(regionChunkPosList.get(j), chunkDataByPos);
+				}
+			}
+		}
+		
+		return chunkDataByPos;
+	}
+	/** Releases the given file once every chunk has been read and decompressed. */
+	private void readBatchFromMappedFile(MappedRegionFile mappedFile, ArrayList<ChunkPos> regionChunkPosList, HashMap<Long, CompoundTag> chunkDataByPos)
+	{
+		// decompression is queued in sector order while the file is read,
+		// the calling thread then parses each chunk as soon as it has been decompressed
+		ArrayList<ChunkPos> decompressingPosList = new ArrayList<>(regionChunkPosList.size());
+		ArrayList<CompletableFuture<byte[]>> decompressedDataFutureList = new ArrayList<>(regionChunkPosList.size());
+		
+		try
+		{
+			this.readBatchFromMappedFile(mappedFile, regionChunkPosList, chunkDataByPos, decompressingPosList, decompressedDataFutureList);
+		}
+		finally
+		{
+			// the decompressor reads directly from the mapped buffer,
+			// so the file can't be unmapped until every decompression task is done
+			CompletableFuture.allOf(decompressedDataFutureList.toArray(new CompletableFuture[0]))
+				.whenComplete((voidObj, throwable) -> mappedFile.release());
+		}
+	}
+	private void readBatchFromMappedFile(
+			MappedRegionFile mappedFile, ArrayList<ChunkPos> regionChunkPosList, HashMap<Long, CompoundTag> chunkDataByPos,
+			ArrayList<ChunkPos> decompressingPosList, ArrayList<CompletableFuture<byte[]>> decompressedDataFutureList)
+	{
+		// missing chunks have an offset of 0 and will be sorted to the front
+		regionChunkPosList.sort(Comparator.comparingInt(mappedFile::getSectorOffset));
+		
+		int runStartIndex = 0;
+		while (runStartIndex < regionChunkPosList.size())
+		{
+			int firstSector = mappedFile.getSectorOffset(regionChunkPosList.get(runStartIndex));
+			if (firstSector == 0)
+			{
+				// this chunk doesn't exist
+				runStartIndex++;
+				continue;
+			}
+			
+			// find every chunk stored close enough to the previous one that reading through the gap is cheaper than seeking
+			int endSector = firstSector + mappedFile.getSectorCount(regionChunkPosList.get(runStartIndex));
+			int runEndIndex = runStartIndex + 1;
+			while (runEndIndex < regionChunkPosList.size())
+			{
+				ChunkPos nextPos = regionChunkPosList.get(runEndIndex);
+				int nextSector = mappedFile.getSectorOffset(nextPos);
+				if (nextSector > endSector + MAX_COALESCED_SECTOR_GAP)
+				{
+					break;
+				}
+				
+				endSector = Math.max(endSector, nextSector + mappedFile.getSectorCount(nextPos));
+				runEndIndex++;
+			}
+			
+			try
+			{
+				mappedFile.prefetchSectors(firstSector, endSector - firstSector);
+			}
+			catch (RuntimeException | InternalError e)
+			{
+				// InternalError can be thrown if the mapped file was truncated while reading
+				LOGGER.debug("Unable to prefetch sectors [" + firstSector + "-" + endSector + "] from mapped region file [" + mappedFile.path + "], error: [" + e.getMessage() + "].");
+				for (int i = runStartIndex; i < runEndIndex; i++)
+				{
+					this.tryReadFromRegionFileIntoMap(regionChunkPosList.get(i), chunkDataByPos);
+				}
+				
+				runStartIndex = runEndIndex;
+				continue;
+			}
+			
+			for (int i = runStartIndex; i < runEndIndex; i++)
+			{
+				ChunkPos pos = regionChunkPosList.get(i);
+				if (!ChunkDecompressor.USE_POOLED_DECOMPRESSION)
+				{
+					this.tryReadFromMappedFileIntoMap(mappedFile, pos, chunkDataByPos);
+					continue;
+				}
+				
+				try
+				{
+					MappedRegionFile.CompressedChunk compressedChunk = mappedFile.getCompressedChunk(pos);
+					if (compressedChunk != null)
+					{
+						decompressingPosList.add(pos);
+						decompressedDataFutureList.add(ChunkDecompressor.decompressAsync(compressedChunk));
+					}
+				}
+				catch (MappedRegionFile.UnsupportedCompressionException e)
+				{
+					this.tryReadFromRegionFileIntoMap(pos, chunkDataByPos);
+				}
+				catch (IOException | RuntimeException | InternalError e)
+				{
+					LOGGER.debug("Unable to read chunk [" + pos + "] from mapped region file, error: [" + e.getMessage() + "].");
+					this.tryReadFromRegionFileIntoMap(pos, chunkDataByPos);
+				}
+			}
+			
+			runStartIndex = runEndIndex;
+		}
+		
+		
+		for (int i = 0; i < decompressingPosList.size(); i++)
+		{
+			ChunkPos pos = decompressingPosList.get(i);
+			try
+			{
+				byte[] decompressedData = decompressedDataFutureList.get(i).join();
+				if (this.isMappedReadStillValid(mappedFile, pos))
+				{
+					chunkDataByPos.put(pos.toLong(), MappedRegionFile.readNbt(decompressedData));
+				}
+				else
+				{
+					this.tryReadFromRegionFileIntoMap(pos, chunkDataByPos);
+				}
+			}
+			catch (CompletionException e)
+			{
+				Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+				if (!(cause instanceof MappedRegionFile.UnsupportedCompressionException))
+				{
+					LOGGER.debug("Unable to decompress chunk [" + pos + "] from mapped region file, error: [" + cause.getMessage() + "].");
+				}
+				this.tryReadFromRegionFileIntoMap(pos, chunkDataByPos);
+			}
+			catch (IOException | RuntimeException e)
+			{
+				LOGGER.debug("Unable to read chunk [" + pos + "] from mapped region file, error: [" + e.getMessage() + "].");
+				this.tryReadFromRegionFileIntoMap(pos, chunkDataByPos);
+			}
+		}
+	}
+	private void tryReadFromMappedFileIntoMap(MappedRegionFile mappedFile, ChunkPos pos, HashMap<Long, CompoundTag> chunkDataByPos)
+	{
+		try
+		{
+			CompoundTag chunkData = mappedFile.read(pos);
+			if (!this.isMappedReadStillValid(mappedFile, pos))
+			{
+				this.tryReadFromRegionFileIntoMap(pos, chunkDataByPos);
+			}
+			else if (chunkData != null)
+			{
+				chunkDataByPos.put(pos.toLong(), chunkData);
+			}
+		}
+		catch (MappedRegionFile.UnsupportedCompressionException e)
+		{
+			this.tryReadFromRegionFileIntoMap(pos, chunkDataByPos);
+		}
+		catch (IOException | RuntimeException | InternalError e)
+		{
+			LOGGER.debug("Unable to read chunk [" + pos + "] from mapped region file, error: [" + e.getMessage() + "].");
+			this.tryReadFromRegionFileIntoMap(pos, chunkDataByPos);
+		}
+	}
+	private void tryReadFromRegionFileIntoMap(ChunkPos pos, HashMap<Long, CompoundTag> chunkDataByPos)
+	{
+		try
+		{
+			CompoundTag chunkData = this.readFromRegionFile(pos);
+			if (chunkData != null)
+			{
+				chunkDataByPos.put(pos.toLong(), chunkData);
+			}
+		}
+		catch (IOException e)
+		{
+			LOGGER.debug("Unable to read chunk [" + pos + "], error: [" + e.getMessage() + "].");
 		}
 	}
 	
 	
-	@Override
-	public void close() throws IOException
+	
+	//==============//
+	// header index //
+	//==============//
+	
+	/**
+	 * Uses {@link RegionHeaderIndex} so missing chunks (and region files) 
+	 * can be detected without opening their region file after the region's header has been indexed.
+	 * 
+	 * @return true if the chunk definitely doesn't exist on disk
+	 */
+	public boolean isChunkKnownMissing(ChunkPos pos)
 	{
-		RegionFileCache cache;
-		while ((cache = this.regionFileCache.poll()) != null)
+		// Minecraft may be saving new chunks to any region file it has open
+		if (this.headerIndex == null || !this.canReadMappedFile(pos))
 		{
-			cache.file.close();
+			return false;
 		}
+		
+		return !this.headerIndex.mayContainChunk(pos);
 	}
 	
+	/** @see RegionHeaderIndex#getTimestamp */
+	public int getChunkTimestamp(ChunkPos pos) { return (this.headerIndex != null) ? this.headerIndex.getTimestamp(pos) : -1; }
+	
 	
 	
-	//================//
-	// helper classes //
-	//================//
+	//===================//
+	// import timestamps //
+	//===================//
+	
+	/** 
+	 * @return true if the chunk exists and hasn't been saved since it was passed to 
+	 *          {@link RegionFileStorageExternalCache#markChunkImported}.
+	 */
+	public boolean isChunkUnchangedSinceImport(ChunkPos pos)
+	{
+		if (this.importTimestampStore == null)
+		{
+			return false;
+		}
+		
+		int regionTimestamp = this.getChunkTimestamp(pos);
+		if (regionTimestamp <= 0)
+		{
+			// the chunk is missing or the region couldn't be indexed
+			return false;
+		}
+		
+		return this.importTimestampStore.getImportedTimestamp(pos) >= regionTimestamp;
+	}
 	
-	private static class RegionFileCache
+	/** 
+	 * Records the chunk as imported, this should only be called once the chunk's LOD has been saved. <br>
+	 * The timestamps are written to disk when their region is unloaded or this cache is closed.
+	 * 
+	 * @param regionTimestamp must be read via {@link RegionFileStorageExternalCache#getChunkTimestamp} 
+	 *                        before the chunk's NBT is read, otherwise a save that happens 
+	 *                        during the import could be marked as imported.
+	 */
+	public void markChunkImported(ChunkPos pos, int regionTimestamp)
 	{
-		public final long pos;
-		public final RegionFile file;
+		if (this.importTimestampStore == null || regionTimestamp <= 0)
+		{
+			// the chunk is missing or the region couldn't be indexed
+			return;
+		}
 		
-		public RegionFileCache(long pos, RegionFile file)
+		this.importTimestampStore.setImportedTimestamp(pos, regionTimestamp);
+	}
+	
+	/** Should be called once no more chunks in this region will be imported soon. */
+	public void unloadImportTimestamps(int regionX, int regionZ)
+	{
+		if (this.importTimestampStore == null)
 		{
-			this.pos = pos;
-			this.file = file;
+			return;
 		}
 		
+		this.importTimestampStore.flushAndUnloadRegion(regionX, regionZ);
 	}
 	
+	
+	
+	//=====================//
+	// mapped region files //
+	//=====================//
+	
+	/** 
+	 * Mapped files are only read if Minecraft doesn't have the file open,
+	 * since Minecraft may be writing to any region file it has open. <br>
+	 * Minecraft can open the file at any time, so this should be checked again after reading,
+	 * see {@link RegionFileStorageExternalCache#isMappedReadStillValid}.
+	 */
+	private boolean canReadMappedFile(ChunkPos pos)
+	{
+		if (this.storage == null || this.mappedReadingDisabled)
+		{
+			return false;
+		}
+		
+		// the same lock used when getting region files, so DH's other threads can't modify the cache mid lookup
+		this.getRegionFileLock.lock();
+		try
+		{
+			return !this.storage.regionCache.containsKey(ChunkPos.asLong(pos.getRegionX(), pos.getRegionZ()));
+		}
+		catch (RuntimeException e)
+		{
+			// Minecraft modified the cache while we were reading it, assume the file is open
+			return false;
+		}
+		finally
+		{
+			this.getRegionFileLock.unlock();
+		}
+	}
+	
+	/** 
+	 * Should be called after a chunk has been read from a mapped file,
+	 * since Minecraft may have opened or written to the file while we were reading it.
+	 * 
+	 * @return false if the chunk should be re-read using Minecraft's RegionFile
+	 */
+	private boolean isMappedReadStillValid(MappedRegionFile mappedFile, ChunkPos pos)
+	{
+		try
+		{
+			return mappedFile.isHeaderUnchanged(pos) 
+				&& this.canReadMappedFile(pos);
+		}
+		catch (RuntimeException | InternalError e)
+		{
+			// the file was truncated
+			return false;
+		}
+	}
+	
+	/** 
+	 * @return null if the region file doesn't exist. <br>
+	 *          {@link MappedRegionFile#release} must be called once the file is no longer needed.
+	 */
+	@Nullable
+	private MappedRegionFile acquireMappedRegionFile(ChunkPos pos) throws IOException
+	{
+		long regionPosLong = ChunkPos.asLong(pos.getRegionX(), pos.getRegionZ());
+		long currentTimeMs = System.currentTimeMillis();
+		
+		MappedRegionFile mappedFile;
+		this.mappedFileLock.lock();
+		try
+		{
+			mappedFile = this.mappedFileByRegionPos.get(regionPosLong);
+		}
+		finally
+		{
+			this.mappedFileLock.unlock();
+		}
+		
+		if (mappedFile != null)
+		{
+			boolean fileValid = true;
+			if (currentTimeMs - mappedFile.lastValidationTimeMs >= MAPPED_FILE_VALIDATION_INTERVAL_MS)
+			{
+				mappedFile.lastValidationTimeMs = currentTimeMs;
+				fileValid = Files.exists(mappedFile.path)
+					&& Files.getLastModifiedTime(mappedFile.path).toMillis() == mappedFile.lastModifiedTimeMs;
+			}
+			
+			if (fileValid && mappedFile.tryRetain())
+			{
+				return mappedFile;
+			}
+			
+			// either the file was modified after it was mapped (so the header may be out of date)
+			// or it was evicted by another thread
+			this.removeMappedFile(regionPosLong, mappedFile);
+		}
+		
+		
+		Path regionFilePath = this.getStorageFolderPath().resolve("r." + pos.getRegionX() + "." + pos.getRegionZ() + ".mca");
+		try
+		{
+			mappedFile = MappedRegionFile.tryOpen(regionFilePath);
+		}
+		catch (OutOfMemoryError e)
+		{
+			// mapping can fail if the JVM runs out of address space
+			LOGGER.warn("Unable to memory map region file [" + regionFilePath + "], falling back to Minecraft's region file reading. Error: [" + e.getMessage() + "].");
+			this.mappedReadingDisabled = true;
+			return null;
+		}
+		
+		if (mappedFile == null)
+		{
+			return null;
+		}
+		
+		// one reference for the cache and one for the caller
+		mappedFile.tryRetain();
+		
+		ArrayList<MappedRegionFile> filesToRelease = new ArrayList<>();
+		this.mappedFileLock.lock();
+		try
+		{
+			// multiple threads may map the same file at once, that's fine, the older mapping will just be released
+			MappedRegionFile replacedFile = this.mappedFileByRegionPos.put(regionPosLong, mappedFile);
+			if (replacedFile != null)
+			{
+				filesToRelease.add(replacedFile);
+			}
+			
+			Iterator<MappedRegionFile> iterator = this.mappedFileByRegionPos.values().iterator();
+			while (this.mappedFileByRegionPos.size() > MAX_MAPPED_FILE_COUNT && iterator.hasNext())
+			{
+				filesToRelease.add(iterator.next());
+				iterator.remove();
+			}
+		}
+		finally
+		{
+			this.mappedFileLock.unlock();
+		}
+		
+		// files that are still being read will be unmapped once their readers release them
+		for (int i = 0; i < filesToRelease.size(); i++)
+		{
+			filesToRelease.get(i).release();
+		}
+		
+		return mappedFile;
+	}
+	/** Removes the given file from the cache and releases the cache's reference to it. */
+	private void removeMappedFile(long regionPosLong, MappedRegionFile mappedFile)
+	{
+		boolean removed;
+		this.mappedFileLock.lock();
+		try
+		{
+			removed = this.mappedFileByRegionPos.remove(regionPosLong, mappedFile);
+		}
+		finally
+		{
+			this.mappedFileLock.unlock();
+		}
+		
+		if (removed)
+		{
+			mappedFile.release();
+		}
+	}
+	
+	
+	
+	@Override
+	public void close() throws IOException
+	{
+		ArrayList<MappedRegionFile> filesToRelease;
+		this.mappedFileLock.lock();
+		try
+		{
+			filesToRelease = new ArrayList<>(this.mappedFileByRegionPos.values());
+			this.mappedFileByRegionPos.clear();
+		}
+		finally
+		{
+			this.mappedFileLock.unlock();
+		}
+		for (int i = 0; i < filesToRelease.size(); i++)
+		{
+			filesToRelease.get(i).release();
+		}
+		
+		if (this.headerIndex != null)
+		{
+			this.headerIndex.clear();
+		}
+		if (this.importTimestampStore != null)
+		{
+			this.importTimestampStore.flushAndUnloadAll();
+		}
+		
+		LOGGER.debug("Closing region file cache, stats: [" + this.regionFileCache + "].");
+		this.regionFileCache.close();
+	}
+
 }
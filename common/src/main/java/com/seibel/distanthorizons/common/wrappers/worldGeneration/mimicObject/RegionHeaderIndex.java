@@ -0,0 +1,214 @@
+/*
+ *    This file is part of the Distant Horizons mod
+ *    licensed under the GNU LGPL v3 License.
+ *
+ *    Copyright (C) 2020 James Seibel
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Lesser General Public License as published by
+ *    the Free Software Foundation, version 3.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public License
+ *    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.seibel.distanthorizons.common.wrappers.worldGeneration.mimicObject;
+
+import com.seibel.distanthorizons.core.logging.DhLoggerBuilder;
+import net.minecraft.world.level.ChunkPos;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of which chunks exist in each region file of a single dimension. <br>
+ * Each region is indexed the first time one of its chunks is requested by reading just the file's header,
+ * after which missing chunks (and missing region files) can be detected without touching the file system. <br><br>
+ *
+ * Each region only needs a 1024 bit bitset and the header's chunk timestamps. <br>
+ * Entries are re-validated against the file's last modified time every {@link RegionHeaderIndex#REVALIDATION_INTERVAL_MS}
+ * so chunks saved after the region was indexed will eventually be found.
+ *
+ * @see MappedRegionFile
+ */
+public class RegionHeaderIndex
+{
+	private static final Logger LOGGER = DhLoggerBuilder.getLogger();
+	
+	/** how long an index entry is trusted before the file's last modified time is checked again */
+	public static final long REVALIDATION_INTERVAL_MS = 5_000;
+	/** used as the last modified time for region files that don't exist */
+	private static final long MISSING_FILE_MODIFIED_TIME = -1;
+	
+	private final Path regionFolderPath;
+	private final ConcurrentHashMap<Long, RegionHeader> headerByRegionPos = new ConcurrentHashMap<>();
+	
+	
+	
+	//=============//
+	// constructor //
+	//=============//
+	
+	public RegionHeaderIndex(Path regionFolderPath) { this.regionFolderPath = regionFolderPath; }
+	
+	
+	
+	//=========//
+	// queries //
+	//=========//
+	
+	/** @return false if the chunk definitely doesn't exist on disk, true if it exists or the region file couldn't be indexed */
+	public boolean mayContainChunk(ChunkPos pos)
+	{
+		RegionHeader header = this.getOrLoadHeader(pos.getRegionX(), pos.getRegionZ());
+		return header == null || header.hasChunk(getIndex(pos));
+	}
+	
+	/**
+	 * @return the last time the chunk was saved in seconds since the epoch,
+	 *          0 if the chunk doesn't exist and -1 if the region file couldn't be indexed.
+	 */
+	public int getTimestamp(ChunkPos pos)
+	{
+		RegionHeader header = this.getOrLoadHeader(pos.getRegionX(), pos.getRegionZ());
+		return (header != null) ? header.getTimestamp(getIndex(pos)) : -1;
+	}
+	
+	/** @return how many regions have been indexed */
+	public int size() { return this.headerByRegionPos.size(); }
+	
+	public void clear() { this.headerByRegionPos.clear(); }
+	
+	private static int getIndex(ChunkPos pos) { return (pos.x & 31) + ((pos.z & 31) * 32); }
+	
+	
+	
+	//==================//
+	// header discovery //
+	//==================//
+	
+	/** @return null if the header couldn't be read */
+	@Nullable
+	private RegionHeader getOrLoadHeader(int regionX, int regionZ)
+	{
+		long regionPos = ChunkPos.asLong(regionX, regionZ);
+		long currentTimeMs = System.currentTimeMillis();
+		
+		RegionHeader header = this.headerByRegionPos.get(regionPos);
+		if (header != null && currentTimeMs - header.validationTimeMs < REVALIDATION_INTERVAL_MS)
+		{
+			return header;
+		}
+		
+		
+		Path regionFilePath = this.regionFolderPath.resolve("r." + regionX + "." + regionZ + ".mca");
+		try
+		{
+			long lastModifiedTimeMs = Files.exists(regionFilePath) ? Files.getLastModifiedTime(regionFilePath).toMillis() : MISSING_FILE_MODIFIED_TIME;
+			if (header != null && header.lastModifiedTimeMs == lastModifiedTimeMs)
+			{
+				header.validationTimeMs = currentTimeMs;
+				return header;
+			}
+			
+			header = RegionHeader.read(regionFilePath, lastModifiedTimeMs);
+		}
+		catch (IOException e)
+		{
+			LOGGER.debug("Unable to index region file [" + regionFilePath + "], error: [" + e.getMessage() + "].");
+			header = null;
+		}
+		
+		if (header != null)
+		{
+			this.headerByRegionPos.put(regionPos, header);
+		}
+		else
+		{
+			// don't keep stale data around
+			this.headerByRegionPos.remove(regionPos);
+		}
+		return header;
+	}
+	
+	
+	
+	//================//
+	// helper classes //
+	//================//
+	
+	private static class RegionHeader
+	{
+		/** one bit per chunk, set if the chunk exists */
+		private final long[] presentChunkBits = new long[MappedRegionFile.CHUNKS_PER_REGION / 64];
+		/** null if the region file doesn't exist */
+		@Nullable
+		private final int[] timestamps;
+		
+		public final long lastModifiedTimeMs;
+		public volatile long validationTimeMs;
+		
+		
+		
+		private RegionHeader(long lastModifiedTimeMs, @Nullable int[] timestamps)
+		{
+			this.lastModifiedTimeMs = lastModifiedTimeMs;
+			this.validationTimeMs = System.currentTimeMillis();
+			this.timestamps = timestamps;
+		}
+		
+		/** @return null if the file is too small to contain a header, IE it's still being created */
+		@Nullable
+		public static RegionHeader read(Path regionFilePath, long lastModifiedTimeMs) throws IOException
+		{
+			if (lastModifiedTimeMs == MISSING_FILE_MODIFIED_TIME)
+			{
+				return new RegionHeader(lastModifiedTimeMs, null);
+			}
+			
+			ByteBuffer headerBuffer = ByteBuffer.allocate(MappedRegionFile.SECTOR_BYTES * 2);
+			try (FileChannel channel = FileChannel.open(regionFilePath, StandardOpenOption.READ))
+			{
+				while (headerBuffer.hasRemaining())
+				{
+					if (channel.read(headerBuffer) == -1)
+					{
+						return null;
+					}
+				}
+			}
+			headerBuffer.flip();
+			
+			RegionHeader header = new RegionHeader(lastModifiedTimeMs, new int[MappedRegionFile.CHUNKS_PER_REGION]);
+			for (int i = 0; i < MappedRegionFile.CHUNKS_PER_REGION; i++)
+			{
+				if (headerBuffer.getInt(i * 4) != 0)
+				{
+					header.presentChunkBits[i >> 6] |= (1L << (i & 63));
+					header.timestamps[i] = headerBuffer.getInt(MappedRegionFile.SECTOR_BYTES + (i * 4));
+				}
+			}
+			return header;
+		}
+		
+		
+		
+		public boolean hasChunk(int index) { return (this.presentChunkBits[index >> 6] & (1L << (index & 63))) != 0; }
+		
+		public int getTimestamp(int index) { return (this.timestamps != null) ? this.timestamps[index] : 0; }
+	
+	}
+
+}
@@ -22,14 +22,32 @@ package com.seibel.distanthorizons.common.wrappers.worldGeneration.step;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.seibel.distanthorizons.api.enums.worldGeneration.EDhApiWorldGenerationStep;
 import com.seibel.distanthorizons.common.wrappers.chunk.ChunkWrapper;
 import com.seibel.distanthorizons.common.wrappers.worldGeneration.BatchGenerationEnvironment;
 import com.seibel.distanthorizons.common.wrappers.worldGeneration.ThreadedParameters;
 
+import com.seibel.distanthorizons.core.util.LodUtil;
 import com.seibel.distanthorizons.core.util.objects.UncheckedInterruptedException;
 import net.minecraft.server.level.WorldGenRegion;
+import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.chunk.LevelChunkSection;
 import net.minecraft.world.level.chunk.ProtoChunk;
+import net.minecraft.world.level.levelgen.Heightmap;
+import net.minecraft.world.level.levelgen.NoiseBasedChunkGenerator;
+
+#if MC_VER >= MC_1_19_4
+import net.minecraft.core.QuartPos;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.levelgen.Beardifier;
+import net.minecraft.world.level.levelgen.NoiseChunk;
+import net.minecraft.world.level.levelgen.NoiseGeneratorSettings;
+import net.minecraft.world.level.levelgen.NoiseSettings;
+#endif
+
+import java.util.Arrays;
+import java.util.EnumSet;
 
 #if MC_VER >= MC_1_18_2
 import net.minecraft.world.level.levelgen.blending.Blender;
@@ -45,6 +63,16 @@ public final class StepNoise
 {
 	private static final ChunkStatus STATUS = ChunkStatus.NOISE;
 	
+	/** 
+	 * If true {@link EDhApiWorldGenerationStep#SURFACE} events will skip caves, overhangs and aquifers,
+	 * see {@link StepNoise#fillFromSurfaceHeight}. <br>
+	 * Disabled by default since it changes how the generated terrain looks.
+	 */
+	public static final boolean ENABLE_SURFACE_HEIGHT_ONLY_NOISE = false;
+	
+	/** used by {@link StepNoise#fillFromSurfaceHeight} for columns whose highest solid block hasn't been found yet */
+	private static final int NO_SOLID_HEIGHT = Integer.MIN_VALUE;
+	
 	private final BatchGenerationEnvironment environment;
 	
 	
@@ -55,7 +83,7 @@ public final class StepNoise
 	
 	public void generateGroup(
 			ThreadedParameters tParams, WorldGenRegion worldGenRegion,
-			List<ChunkWrapper> chunkWrappers)
+			List<ChunkWrapper> chunkWrappers, EDhApiWorldGenerationStep targetStep)
 	{
 		
 		ArrayList<ChunkAccess> chunksToDo = new ArrayList<>();
@@ -71,6 +99,16 @@ public final class StepNoise
 			chunksToDo.add(chunk);
 		}
 		
+		if (this.canUseSurfaceHeightOnlyNoise(targetStep))
+		{
+			for (ChunkAccess chunk : chunksToDo)
+			{
+				this.fillFromSurfaceHeight(chunk, worldGenRegion, tParams);
+				UncheckedInterruptedException.throwIfInterrupted();
+			}
+			return;
+		}
+		
 		for (ChunkAccess chunk : chunksToDo)
 		{
 			#if MC_VER < MC_1_17_1
@@ -108,4 +146,165 @@ public final class StepNoise
 		}
 	}
 	
+	
+	
+	//=====================//
+	// surface height only //
+	//=====================//
+	
+	/**
+	 * Surface height only noise is opt-in, since it removes caves, overhangs and aquifers,
+	 * and is only used when the target step is {@link EDhApiWorldGenerationStep#SURFACE}. <br>
+	 * Dimensions with a ceiling (IE the Nether) can't use it, 
+	 * since scanning down from the top would find the ceiling instead of the surface.
+	 */
+	private boolean canUseSurfaceHeightOnlyNoise(EDhApiWorldGenerationStep targetStep)
+	{
+		#if MC_VER < MC_1_19_4
+		// older versions don't expose the generator's default blocks
+		return false;
+		#else
+		return ENABLE_SURFACE_HEIGHT_ONLY_NOISE
+				&& targetStep == EDhApiWorldGenerationStep.SURFACE
+				&& this.environment.params.generator instanceof NoiseBasedChunkGenerator
+				&& !this.environment.params.level.dimensionType().hasCeiling();
+		#endif
+	}
+	
+	/**
+	 * Fills each column with the generator's default block up to its highest solid block
+	 * and the default fluid up to sea level. <br><br>
+	 * 
+	 * A single {@link NoiseChunk} is used for the whole chunk, the same as vanilla. <br>
+	 * {@link NoiseChunk#advanceCellX} still samples the density at every cell corner in each slice,
+	 * so the noise sampling cost is the same as vanilla. <br>
+	 * The savings come from each column no longer being evaluated once its highest solid block is found,
+	 * so the blocks below the surface don't need to be interpolated 
+	 * or run through the aquifer and ore vein rules.
+	 */
+	private void fillFromSurfaceHeight(ChunkAccess chunk, WorldGenRegion worldGenRegion, ThreadedParameters tParams)
+	{
+		#if MC_VER >= MC_1_19_4
+		NoiseBasedChunkGenerator generator = (NoiseBasedChunkGenerator) this.environment.params.generator;
+		NoiseGeneratorSettings settings = generator.generatorSettings().value();
+		BlockState defaultBlock = settings.defaultBlock();
+		BlockState defaultFluid = settings.defaultFluid();
+		int seaLevel = generator.getSeaLevel();
+		
+		NoiseSettings noiseSettings = settings.noiseSettings();
+		int cellWidth = QuartPos.toBlock(noiseSettings.noiseSizeHorizontal());
+		int cellHeight = QuartPos.toBlock(noiseSettings.noiseSizeVertical());
+		int cellCountXZ = LodUtil.CHUNK_WIDTH / cellWidth;
+		
+		int minBuildHeight = Math.max(noiseSettings.minY(), ChunkWrapper.getInclusiveMinBuildHeight(chunk));
+		int maxBuildHeight = Math.min(noiseSettings.minY() + noiseSettings.height(), ChunkWrapper.getExclusiveMaxBuildHeight(chunk));
+		int minCellY = Math.floorDiv(minBuildHeight, cellHeight);
+		int cellCountY = Math.floorDiv(maxBuildHeight - minBuildHeight, cellHeight);
+		
+		ChunkPos chunkPos = chunk.getPos();
+		int minBlockX = chunkPos.getMinBlockX();
+		int minBlockZ = chunkPos.getMinBlockZ();
+		
+		// created the same way as vanilla, that way the surface step can re-use it
+		NoiseChunk noiseChunk = chunk.getOrCreateNoiseChunk((noiseChunkAccess) -> NoiseChunk.forChunk(
+				noiseChunkAccess, this.environment.params.randomState,
+				Beardifier.forStructuresInChunk(tParams.structFeat.forWorldGenRegion(worldGenRegion), chunkPos),
+				settings, generator.globalFluidPicker.get(), Blender.of(worldGenRegion)));
+		
+		
+		
+		//=========================//
+		// find the surface height //
+		//=========================//
+		
+		// indexed by (relX * 16) + relZ
+		int[] solidHeights = new int[LodUtil.CHUNK_WIDTH * LodUtil.CHUNK_WIDTH];
+		Arrays.fill(solidHeights, NO_SOLID_HEIGHT);
+		
+		noiseChunk.initializeForFirstCellX();
+		try
+		{
+			for (int cellX = 0; cellX < cellCountXZ; cellX++)
+			{
+				noiseChunk.advanceCellX(cellX);
+				
+				for (int cellZ = 0; cellZ < cellCountXZ; cellZ++)
+				{
+					int remainingColumnCount = cellWidth * cellWidth;
+					for (int cellY = cellCountY - 1; cellY >= 0 && remainingColumnCount > 0; cellY--)
+					{
+						noiseChunk.selectCellYZ(cellY, cellZ);
+						
+						for (int yInCell = cellHeight - 1; yInCell >= 0 && remainingColumnCount > 0; yInCell--)
+						{
+							int y = ((minCellY + cellY) * cellHeight) + yInCell;
+							noiseChunk.updateForY(y, yInCell / (double) cellHeight);
+							
+							for (int xInCell = 0; xInCell < cellWidth; xInCell++)
+							{
+								int relX = (cellX * cellWidth) + xInCell;
+								noiseChunk.updateForX(minBlockX + relX, xInCell / (double) cellWidth);
+								
+								for (int zInCell = 0; zInCell < cellWidth; zInCell++)
+								{
+									int relZ = (cellZ * cellWidth) + zInCell;
+									int columnIndex = (relX * LodUtil.CHUNK_WIDTH) + relZ;
+									if (solidHeights[columnIndex] != NO_SOLID_HEIGHT)
+									{
+										continue;
+									}
+									
+									noiseChunk.updateForZ(minBlockZ + relZ, zInCell / (double) cellWidth);
+									BlockState blockState = noiseChunk.getInterpolatedState();
+									// null means the generator's default block should be used
+									if (blockState == null
+										|| (!blockState.isAir() && blockState.getFluidState().isEmpty()))
+									{
+										solidHeights[columnIndex] = y + 1;
+										remainingColumnCount--;
+									}
+								}
+							}
+						}
+					}
+				}
+				
+				noiseChunk.swapSlices();
+			}
+		}
+		finally
+		{
+			noiseChunk.stopInterpolation();
+		}
+		
+		
+		
+		//==================//
+		// fill each column //
+		//==================//
+		
+		for (int relX = 0; relX < LodUtil.CHUNK_WIDTH; relX++)
+		{
+			for (int relZ = 0; relZ < LodUtil.CHUNK_WIDTH; relZ++)
+			{
+				int solidHeight = solidHeights[(relX * LodUtil.CHUNK_WIDTH) + relZ];
+				if (solidHeight == NO_SOLID_HEIGHT)
+				{
+					// the column doesn't have any solid blocks
+					solidHeight = minBuildHeight;
+				}
+				
+				int topHeight = Math.max(solidHeight, Math.min(maxBuildHeight, seaLevel));
+				for (int y = minBuildHeight; y < topHeight; y++)
+				{
+					LevelChunkSection section = chunk.getSection(chunk.getSectionIndex(y));
+					section.setBlockState(relX, y & 15, relZ, (y < solidHeight) ? defaultBlock : defaultFluid, false);
+				}
+			}
+		}
+		
+		Heightmap.primeHeightmaps(chunk, EnumSet.of(Heightmap.Types.OCEAN_FLOOR_WG, Heightmap.Types.WORLD_SURFACE_WG));
+		#endif
+	}
+	
 }
\ No newline at end of file
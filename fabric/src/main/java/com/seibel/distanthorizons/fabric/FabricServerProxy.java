@@ -8,6 +8,7 @@ import com.seibel.distanthorizons.common.wrappers.misc.ServerPlayerWrapper;
 import com.seibel.distanthorizons.common.wrappers.world.ClientLevelWrapper;
 import com.seibel.distanthorizons.common.wrappers.world.ServerLevelWrapper;
 import com.seibel.distanthorizons.common.wrappers.worldGeneration.BatchGenerationEnvironment;
+import com.seibel.distanthorizons.common.wrappers.worldGeneration.ServerTickGovernor;
 import com.seibel.distanthorizons.core.api.internal.ServerApi;
 import com.seibel.distanthorizons.core.logging.DhLoggerBuilder;
 import com.seibel.distanthorizons.core.wrapperInterfaces.world.IClientLevelWrapper;
@@ -90,7 +91,12 @@ public class FabricServerProxy implements AbstractModInitializer.IEventProxy
 		/* Register the mod needed event callbacks */
 		
 		// ServerTickEvent
-		ServerTickEvents.END_SERVER_TICK.register((server) -> SERVER_API.serverTickEvent());
+		ServerTickEvents.START_SERVER_TICK.register((server) -> ServerTickGovernor.INSTANCE.onServerTickStart());
+		ServerTickEvents.END_SERVER_TICK.register((server) -> 
+		{
+			SERVER_API.serverTickEvent();
+			ServerTickGovernor.INSTANCE.onServerTickEnd();
+		});
 		
 		
 		// can be enabled to test world gen overrides without having to build a separate API project 
@@ -6,6 +6,7 @@ import com.seibel.distanthorizons.common.wrappers.chunk.ChunkWrapper;
 import com.seibel.distanthorizons.common.wrappers.misc.ServerPlayerWrapper;
 import com.seibel.distanthorizons.common.wrappers.world.ServerLevelWrapper;
 import com.seibel.distanthorizons.common.wrappers.worldGeneration.BatchGenerationEnvironment;
+import com.seibel.distanthorizons.common.wrappers.worldGeneration.ServerTickGovernor;
 import com.seibel.distanthorizons.core.api.internal.ServerApi;
 import com.seibel.distanthorizons.core.wrapperInterfaces.chunk.IChunkWrapper;
 import com.seibel.distanthorizons.core.wrapperInterfaces.world.ILevelWrapper;
@@ -93,9 +94,14 @@ public class ForgeServerProxy implements AbstractModInitializer.IEventProxy
 	@SubscribeEvent
 	public void serverTickEvent(TickEvent.ServerTickEvent event)
 	{
-		if (event.phase == TickEvent.Phase.END)
+		if (event.phase == TickEvent.Phase.START)
+		{
+			ServerTickGovernor.INSTANCE.onServerTickStart();
+		}
+		else if (event.phase == TickEvent.Phase.END)
 		{
 			this.serverApi.serverTickEvent();
+			ServerTickGovernor.INSTANCE.onServerTickEnd();
 		}
 	}
 	
@@ -6,6 +6,7 @@ import com.seibel.distanthorizons.common.wrappers.chunk.ChunkWrapper;
 import com.seibel.distanthorizons.common.wrappers.misc.ServerPlayerWrapper;
 import com.seibel.distanthorizons.common.wrappers.world.ServerLevelWrapper;
 import com.seibel.distanthorizons.common.wrappers.worldGeneration.BatchGenerationEnvironment;
+import com.seibel.distanthorizons.common.wrappers.worldGeneration.ServerTickGovernor;
 import com.seibel.distanthorizons.core.api.internal.ServerApi;
 import com.seibel.distanthorizons.core.logging.DhLoggerBuilder;
 import com.seibel.distanthorizons.core.wrapperInterfaces.chunk.IChunkWrapper;
@@ -72,16 +73,28 @@ public class NeoforgeServerProxy implements AbstractModInitializer.IEventProxy
 	@SubscribeEvent
 	public void serverTickEvent(TickEvent.ServerTickEvent event)
 	{
-		if (event.phase == TickEvent.Phase.END)
+		if (event.phase == TickEvent.Phase.START)
+		{
+			ServerTickGovernor.INSTANCE.onServerTickStart();
+		}
+		else if (event.phase == TickEvent.Phase.END)
 		{
 			this.serverApi.serverTickEvent();
+			ServerTickGovernor.INSTANCE.onServerTickEnd();
 		}
 	}
 	#else
+	@SubscribeEvent
+	public void serverTickStartEvent(ServerTickEvent.Pre event)
+	{
+		ServerTickGovernor.INSTANCE.onServerTickStart();
+	}
+	
 	@SubscribeEvent
 	public void serverTickEvent(ServerTickEvent.Post event)
 	{
 		this.serverApi.serverTickEvent();
+		ServerTickGovernor.INSTANCE.onServerTickEnd();
 	}
 	#endif
 	